@@ -0,0 +1,91 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks ArrayRedBlackTree with the same workload as RedBlackTreeBenchmark.
+ * Run both with "-prof gc" to compare allocation and GC time per insert.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ArrayRedBlackTreeBenchmark {
+
+    private static final int PROBES = 1 << 16;
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPF"})
+    public KeyDistribution distribution;
+
+    private String[] insertKeys;
+    private BigInteger[] values;
+    private String[] probes;
+    private ArrayRedBlackTree tree;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] keys = distribution.keys(size);
+        insertKeys = distribution == KeyDistribution.ZIPF ? distribution.probes(keys, size) : keys;
+        values = new BigInteger[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = BigInteger.valueOf(i);
+        }
+        tree = new ArrayRedBlackTree(size);
+        for (int i = 0; i < size; i++) {
+            tree.insert(keys[i], values[i]);
+        }
+        probes = distribution.probes(keys, PROBES);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 5, batchSize = 1)
+    public ArrayRedBlackTree insert() {
+        ArrayRedBlackTree t = new ArrayRedBlackTree();
+        for (int i = 0; i < insertKeys.length; i++) {
+            t.insert(insertKeys[i], values[i]);
+        }
+        return t;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public BigInteger lookup() {
+        return tree.lookup(probes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean contains() {
+        return tree.contains(probes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int height() {
+        return tree.height();
+    }
+}
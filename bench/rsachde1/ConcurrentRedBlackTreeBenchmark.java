@@ -0,0 +1,119 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Multi-threaded throughput of ConcurrentRedBlackTree. Run main() (or the
+ * bench-concurrent Ant target) to measure read scaling from 1 to 32 threads.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConcurrentRedBlackTreeBenchmark {
+
+    private static final int PROBES = 1 << 16;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private ConcurrentRedBlackTree tree;
+    private String[] probes;
+    private BigInteger value;
+
+    @Setup
+    public void setUp() {
+        String[] keys = KeyDistribution.RANDOM.keys(size);
+        tree = new ConcurrentRedBlackTree();
+        for (int i = 0; i < size; i++) {
+            tree.insert(new KeyValuePair(keys[i], BigInteger.valueOf(i)));
+        }
+        probes = KeyDistribution.RANDOM.probes(keys, PROBES);
+        value = BigInteger.TEN;
+    }
+
+    /**
+     * Per-thread cursor into the probe keys, so threads do not share a counter.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup
+        public void setUp() {
+            next = (int) (Thread.currentThread().getId() * 7919);
+        }
+
+        String nextKey(String[] probes) {
+            return probes[next++ & (PROBES - 1)];
+        }
+    }
+
+    @Benchmark
+    public BigInteger lookup(Cursor cursor) {
+        return tree.lookup(cursor.nextKey(probes));
+    }
+
+    @Benchmark
+    public boolean contains(Cursor cursor) {
+        return tree.contains(cursor.nextKey(probes));
+    }
+
+    /*
+     * Read-mostly mix: seven readers and one writer updating existing keys.
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public BigInteger mixedLookup(Cursor cursor) {
+        return tree.lookup(cursor.nextKey(probes));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedInsert(Cursor cursor) {
+        tree.insert(new KeyValuePair(cursor.nextKey(probes), value));
+    }
+
+    /**
+     * Runs the read benchmarks with 1, 2, 4, ..., 32 threads and writes one
+     * JSON result file per thread count.
+     * @param args: args[0] is the base name of the JSON result files
+     * (default jmh-concurrent.json, giving jmh-concurrent-t1.json etc.)
+     * @throws RunnerException
+     */
+    public static void main(String args[]) throws RunnerException {
+        String resultFile = args.length > 0 ? args[0] : "jmh-concurrent.json";
+        for (int threads : THREAD_COUNTS) {
+            new Runner(new OptionsBuilder()
+                    .include(ConcurrentRedBlackTreeBenchmark.class.getSimpleName() + "\\.(lookup|contains)$")
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultFile.replace(".json", "-t" + threads + ".json"))
+                    .build()).run();
+        }
+    }
+}
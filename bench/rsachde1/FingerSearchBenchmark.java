@@ -0,0 +1,113 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares finger search with search from the root on sorted, reverse
+ * sorted, nearly sorted and random feeds. Besides the time, each benchmark
+ * reports the average number of key compares per operation.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FingerSearchBenchmark {
+
+    private static final int PROBES = 1 << 16;  //power of two so the index can be masked
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"SORTED", "REVERSE_SORTED", "NEAR_SORTED", "RANDOM"})
+    public KeyDistribution distribution;
+
+    @Param({"true", "false"})
+    public boolean fingerSearch;
+
+    private String[] keys;          //keys in feed order
+    private BigInteger[] values;
+    private String[] probes;        //keys used by lookup(), in feed order
+    private RedBlackTree tree;      //tree built once for lookup()
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = distribution.keys(size);
+        values = new BigInteger[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = BigInteger.valueOf(i);
+        }
+        tree = build();
+        probes = distribution.probes(keys, PROBES);
+    }
+
+    private RedBlackTree build() {
+        RedBlackTree t = new RedBlackTree();
+        t.setFingerSearch(fingerSearch);
+        for (int i = 0; i < size; i++) {
+            t.insert(new KeyValuePair(keys[i], values[i]));
+        }
+        return t;
+    }
+
+    /**
+     * Key compares and operations per iteration; compares / operations is
+     * the average cost of one insert or lookup.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Compares {
+
+        public long compares;
+        public long operations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            compares = 0;
+            operations = 0;
+        }
+    }
+
+    /**
+     * Builds a tree of 'size' entries from the feed.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 5, batchSize = 1)
+    public RedBlackTree insert(Compares compares) {
+        RedBlackTree t = build();
+        compares.compares += t.getMetrics().getComparisons();
+        compares.operations += size;
+        return t;
+    }
+
+    /**
+     * Looks the keys up in feed order.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public BigInteger lookup(Compares compares) {
+        BigInteger v = tree.lookup(probes[next++ & (PROBES - 1)]);
+        compares.compares += tree.getRecentCompares();
+        compares.operations++;
+        return v;
+    }
+}
@@ -0,0 +1,104 @@
+package rsachde1;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Generates the String keys used by the benchmarks.
+ * @author Raj.Sachdev
+ */
+public enum KeyDistribution {
+    SEQUENTIAL, RANDOM, ZIPF, SORTED, REVERSE_SORTED, NEAR_SORTED;
+
+    private static final long SEED = 42L;       //fixed seed so every run sees the same keys
+    private static final double ZIPF_SKEW = 0.99;
+    private static final int NEAR_SORTED_WINDOW = 8;    //how far NEAR_SORTED moves a key out of order
+
+    /**
+     * Returns n distinct keys. SEQUENTIAL keys are "1".."n" in insertion order,
+     * RANDOM and ZIPF keys are the same set in a random order. SORTED keys
+     * are the same set in String order, as a sequence-id or timestamp feed
+     * delivers them, REVERSE_SORTED in reverse String order, and NEAR_SORTED
+     * in String order except that a quarter of the keys trade places with a
+     * key at most NEAR_SORTED_WINDOW positions later.
+     * @param n: number of keys
+     * @return String[]
+     */
+    public String[] keys(int n) {
+        String[] keys = new String[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = String.valueOf(i + 1);
+        }
+        Random rnd = new Random(SEED);
+        switch (this) {
+            case SEQUENTIAL:
+                break;
+            case SORTED:
+            case REVERSE_SORTED:
+            case NEAR_SORTED:
+                Arrays.sort(keys);
+                if (this == REVERSE_SORTED) {
+                    Collections.reverse(Arrays.asList(keys));
+                } else if (this == NEAR_SORTED) {
+                    for (int i = 0; i + 1 < n; i++) {
+                        if (rnd.nextInt(4) == 0) {
+                            swap(keys, i, Math.min(n - 1, i + 1 + rnd.nextInt(NEAR_SORTED_WINDOW)));
+                        }
+                    }
+                }
+                break;
+            default:
+                for (int i = n - 1; i > 0; i--) {
+                    swap(keys, i, rnd.nextInt(i + 1));
+                }
+        }
+        return keys;
+    }
+
+    private static void swap(String[] keys, int i, int j) {
+        String t = keys[i];
+        keys[i] = keys[j];
+        keys[j] = t;
+    }
+
+    /**
+     * Returns count probe keys drawn from keys. SEQUENTIAL and the sorted
+     * distributions walk the keys in order, RANDOM draws uniformly and ZIPF
+     * draws with a Zipf(0.99) skew towards the first keys.
+     * @param keys: key set returned by keys()
+     * @param count: number of probes
+     * @return String[]
+     */
+    public String[] probes(String[] keys, int count) {
+        String[] probes = new String[count];
+        Random rnd = new Random(SEED + 1);
+        for (int i = 0; i < count; i++) {
+            switch (this) {
+                case SEQUENTIAL:
+                case SORTED:
+                case REVERSE_SORTED:
+                case NEAR_SORTED:
+                    probes[i] = keys[i % keys.length];
+                    break;
+                case RANDOM:
+                    probes[i] = keys[rnd.nextInt(keys.length)];
+                    break;
+                default:
+                    probes[i] = keys[zipfRank(rnd, keys.length)];
+            }
+        }
+        return probes;
+    }
+
+    /**
+     * Draws a rank in [0, n) from an approximate Zipf distribution by
+     * inverting the continuous CDF. Avoids a CDF table of n doubles.
+     */
+    private static int zipfRank(Random rnd, int n) {
+        double e = 1.0 - ZIPF_SKEW;
+        double x = Math.pow((Math.pow(n, e) - 1.0) * rnd.nextDouble() + 1.0, 1.0 / e);
+        int rank = (int) x - 1;
+        return rank < 0 ? 0 : (rank >= n ? n - 1 : rank);
+    }
+}
@@ -0,0 +1,115 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the typed OperandStack with the Object based Stack on the
+ * evaluator's pattern: push two values, pop them, push their sum. The Stack
+ * needs instanceof checks, casts and a BigInteger per result; the
+ * OperandStack is reused across invocations and allocates nothing.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OperandStackBenchmark {
+
+    @Param({"4", "64", "1024"})
+    public int depth;
+
+    private long[] longs;
+    private BigInteger[] bigIntegers;   //the same values boxed, as the Stack holds them
+    private OperandStack operandStack;
+
+    @Setup
+    public void setUp() {
+        longs = new long[depth];
+        bigIntegers = new BigInteger[depth];
+        for (int i = 0; i < depth; i++) {
+            longs[i] = 1000 + i;
+            bigIntegers[i] = BigInteger.valueOf(longs[i]);
+        }
+        operandStack = new OperandStack();
+    }
+
+    /**
+     * Pushes every value, then folds the stack with + down to one value.
+     */
+    @Benchmark
+    public BigInteger stackFold() {
+        Stack s = new Stack();
+        for (BigInteger v : bigIntegers) {
+            s.push(v);
+        }
+        while (s.getSize() > 1) {
+            Object b = s.pop();
+            Object a = s.pop();
+            if (a instanceof BigInteger && b instanceof BigInteger) {
+                s.push(((BigInteger) a).add((BigInteger) b));
+            }
+        }
+        return (BigInteger) s.pop();
+    }
+
+    @Benchmark
+    public long operandStackFold() {
+        OperandStack s = operandStack;
+        s.reset();
+        for (long v : longs) {
+            s.push(v);
+        }
+        while (s.getSize() > 1) {
+            long b = s.peekLong(0);
+            long a = s.peekLong(1);
+            s.pop(2);
+            s.push(a + b);
+        }
+        long result = s.peekLong();
+        s.pop();
+        return result;
+    }
+
+    /**
+     * Pushes two operands and pops them, 'depth' times, on a shallow stack.
+     */
+    @Benchmark
+    public void stackChurn(Blackhole bh) {
+        Stack s = new Stack();
+        for (int i = 0; i + 1 < depth; i += 2) {
+            s.push(bigIntegers[i]);
+            s.push(bigIntegers[i + 1]);
+            bh.consume(s.pop());
+            bh.consume(s.pop());
+        }
+    }
+
+    @Benchmark
+    public void operandStackChurn(Blackhole bh) {
+        OperandStack s = operandStack;
+        s.reset();
+        for (int i = 0; i + 1 < depth; i += 2) {
+            s.push(longs[i]);
+            s.push(longs[i + 1]);
+            bh.consume(s.peekLong());
+            s.pop();
+            bh.consume(s.peekLong());
+            s.pop();
+        }
+    }
+}
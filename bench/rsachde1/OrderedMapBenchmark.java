@@ -0,0 +1,82 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares lookup latency across the tree engines behind OrderedMap. Once
+ * the tree outgrows the caches, every binary node on the path is a likely
+ * miss, while the BPlusTree reads a few adjacent lines per level over far
+ * fewer levels.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OrderedMapBenchmark {
+
+    private static final int PROBES = 1 << 16;  //power of two so the index can be masked
+
+    @Param({"RedBlackTree", "ArrayRedBlackTree", "PersistentRedBlackTree", "BPlusTree"})
+    public String engine;
+
+    @Param({"1000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"RANDOM", "ZIPF"})
+    public KeyDistribution distribution;
+
+    private OrderedMap tree;
+    private String[] probes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] keys = distribution.keys(size);
+        tree = create(engine);
+        for (int i = 0; i < size; i++) {
+            tree.insert(new KeyValuePair(keys[i], BigInteger.valueOf(i)));
+        }
+        probes = distribution.probes(keys, PROBES);
+    }
+
+    private static OrderedMap create(String engine) {
+        switch (engine) {
+            case "RedBlackTree":
+                return new RedBlackTree();
+            case "ArrayRedBlackTree":
+                return new ArrayRedBlackTree();
+            case "PersistentRedBlackTree":
+                return new PersistentRedBlackTree();
+            case "BPlusTree":
+                return new BPlusTree();
+            default:
+                throw new RuntimeException("error: unknown engine " + engine);
+        }
+    }
+
+    @Benchmark
+    public BigInteger lookup() {
+        return tree.lookup(probes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return tree.contains(probes[next++ & (PROBES - 1)]);
+    }
+}
@@ -0,0 +1,92 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of an update in the mutable RedBlackTree, which rotates
+ * in place, with the PersistentRedBlackTree, which copies the path to the
+ * key. Updates overwrite existing keys, as assignments to known variables
+ * do, so the trees keep their size.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PersistentRedBlackTreeBenchmark {
+
+    private static final int PROBES = 1 << 16;  //power of two so the index can be masked
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private String[] probes;
+    private BigInteger[] values;
+    private RedBlackTree mutable;
+    private PersistentRedBlackTree persistent;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] keys = KeyDistribution.RANDOM.keys(size);
+        mutable = new RedBlackTree();
+        persistent = new PersistentRedBlackTree();
+        for (int i = 0; i < size; i++) {
+            BigInteger v = BigInteger.valueOf(i);
+            mutable.insert(new KeyValuePair(keys[i], v));
+            persistent.insert(new KeyValuePair(keys[i], v));
+        }
+        probes = KeyDistribution.RANDOM.probes(keys, PROBES);
+        values = new BigInteger[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            values[i] = BigInteger.valueOf(-i);
+        }
+    }
+
+    @Benchmark
+    public RedBlackTree mutableUpdate() {
+        int i = next++ & (PROBES - 1);
+        mutable.insert(new KeyValuePair(probes[i], values[i]));
+        return mutable;
+    }
+
+    @Benchmark
+    public PersistentRedBlackTree persistentUpdate() {
+        int i = next++ & (PROBES - 1);
+        persistent.insert(new KeyValuePair(probes[i], values[i]));
+        return persistent;
+    }
+
+    @Benchmark
+    public BigInteger mutableLookup() {
+        return mutable.lookup(probes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public BigInteger persistentLookup() {
+        return persistent.lookup(probes[next++ & (PROBES - 1)]);
+    }
+
+    /**
+     * Takes a snapshot and reads from it, as a reporting thread would.
+     */
+    @Benchmark
+    public BigInteger snapshotLookup() {
+        return persistent.snapshot().lookup(probes[next++ & (PROBES - 1)]);
+    }
+}
@@ -0,0 +1,94 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks insert, lookup, contains and height of the RedBlackTree.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RedBlackTreeBenchmark {
+
+    private static final int PROBES = 1 << 16;  //power of two so the index can be masked
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPF"})
+    public KeyDistribution distribution;
+
+    private String[] insertKeys;    //keys in the order insert() sees them
+    private BigInteger[] values;
+    private String[] probes;        //keys used by lookup() and contains()
+    private RedBlackTree tree;      //tree built once and shared by the read benchmarks
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] keys = distribution.keys(size);
+        insertKeys = distribution == KeyDistribution.ZIPF ? distribution.probes(keys, size) : keys;
+        values = new BigInteger[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = BigInteger.valueOf(i);
+        }
+        tree = new RedBlackTree();
+        for (int i = 0; i < size; i++) {
+            tree.insert(new KeyValuePair(keys[i], values[i]));
+        }
+        probes = distribution.probes(keys, PROBES);
+    }
+
+    /**
+     * Builds a tree of 'size' entries from scratch. ZIPF inserts a skewed
+     * stream, so most of its inserts update an existing key.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 5, batchSize = 1)
+    public RedBlackTree insert() {
+        RedBlackTree t = new RedBlackTree();
+        for (int i = 0; i < insertKeys.length; i++) {
+            t.insert(new KeyValuePair(insertKeys[i], values[i]));
+        }
+        return t;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public BigInteger lookup() {
+        return tree.lookup(probes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean contains() {
+        return tree.contains(probes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int height() {
+        return tree.height();
+    }
+}
@@ -0,0 +1,96 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks ReversePolishNotation.evaluateExpression on long expressions
+ * that read many variables.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReversePolishNotationBenchmark {
+
+    private static final String MODULUS = "1000003";    //keeps intermediate values small
+
+    @Param({"100", "10000"})
+    public int variables;
+
+    @Param({"100", "1000"})
+    public int length;          //number of variable operands in the expression
+
+    @Param({"true", "false"})
+    public boolean longFastPath;
+
+    @Param({"0", "64"})
+    public int lookupCache;     //capacity of the variable lookup cache, 0 for none
+
+    private ReversePolishNotation rpn;
+    private String expression;
+
+    @Setup
+    public void setUp() {
+        rpn = new ReversePolishNotation();
+        rpn.setLongFastPath(longFastPath);
+        if (lookupCache > 0) {
+            rpn.enableLookupCache(lookupCache);
+        }
+        Random rnd = new Random(42);
+        for (int i = 0; i < variables; i++) {
+            rpn.setExpression("v" + i + " " + (1 + rnd.nextInt(1000000)) + " =");
+            rpn.evaluateExpression();
+        }
+        expression = buildExpression(rnd);
+    }
+
+    /**
+     * Builds "v a + v b * 1000003 % v c + ..." over random variables.
+     */
+    private String buildExpression(Random rnd) {
+        StringBuilder sb = new StringBuilder("v").append(rnd.nextInt(variables));
+        for (int i = 1; i < length; i++) {
+            sb.append(" v").append(rnd.nextInt(variables));
+            if (i % 2 == 1) {
+                sb.append(" +");
+            } else {
+                sb.append(" * ").append(MODULUS).append(" %");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Evaluates the expression as the interactive loop does. After the first
+     * call the compiled program comes from the expression cache.
+     */
+    @Benchmark
+    public BigInteger evaluateExpression() {
+        rpn.setExpression(expression);
+        return rpn.evaluateExpression();
+    }
+
+    /**
+     * Compiles the expression on every call, bypassing the cache.
+     */
+    @Benchmark
+    public BigInteger compileAndExecute() {
+        return rpn.execute(CompiledExpression.compile(expression));
+    }
+}
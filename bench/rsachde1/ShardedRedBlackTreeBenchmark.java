@@ -0,0 +1,104 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Multi-threaded insert throughput of ShardedRedBlackTree against the single
+ * lock of ConcurrentRedBlackTree. Run main() (or the bench-sharded Ant
+ * target) to measure write scaling from 1 to 32 threads.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ShardedRedBlackTreeBenchmark {
+
+    private static final int PROBES = 1 << 16;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    @Param({"ConcurrentRedBlackTree", "ShardedRedBlackTree"})
+    public String engine;
+
+    @Param({"1000000"})
+    public int size;
+
+    private OrderedMap tree;
+    private String[] probes;
+    private BigInteger value;
+
+    @Setup
+    public void setUp() {
+        String[] keys = KeyDistribution.RANDOM.keys(size);
+        tree = engine.equals("ShardedRedBlackTree") ? new ShardedRedBlackTree() : new ConcurrentRedBlackTree();
+        for (int i = 0; i < size; i++) {
+            tree.insert(new KeyValuePair(keys[i], BigInteger.valueOf(i)));
+        }
+        probes = KeyDistribution.RANDOM.probes(keys, PROBES);
+        value = BigInteger.TEN;
+    }
+
+    /**
+     * Per-thread cursor into the probe keys, so threads do not share a counter.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup
+        public void setUp() {
+            next = (int) (Thread.currentThread().getId() * 7919);
+        }
+
+        String nextKey(String[] probes) {
+            return probes[next++ & (PROBES - 1)];
+        }
+    }
+
+    @Benchmark
+    public void insert(Cursor cursor) {
+        tree.insert(new KeyValuePair(cursor.nextKey(probes), value));
+    }
+
+    @Benchmark
+    public BigInteger lookup(Cursor cursor) {
+        return tree.lookup(cursor.nextKey(probes));
+    }
+
+    /**
+     * Runs the insert benchmark with 1, 2, 4, ..., 32 threads and writes one
+     * JSON result file per thread count.
+     * @param args: args[0] is the base name of the JSON result files
+     * (default jmh-sharded.json, giving jmh-sharded-t1.json etc.)
+     * @throws RunnerException
+     */
+    public static void main(String args[]) throws RunnerException {
+        String resultFile = args.length > 0 ? args[0] : "jmh-sharded.json";
+        for (int threads : THREAD_COUNTS) {
+            new Runner(new OptionsBuilder()
+                    .include(ShardedRedBlackTreeBenchmark.class.getSimpleName() + "\\.insert$")
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultFile.replace(".json", "-t" + threads + ".json"))
+                    .build()).run();
+        }
+    }
+}
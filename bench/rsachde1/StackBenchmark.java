@@ -0,0 +1,70 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks push/pop churn on the Stack, the way the RPN evaluator uses it.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StackBenchmark {
+
+    @Param({"4", "64", "1024"})
+    public int depth;
+
+    private Object[] operands;  //alternating variable names and values
+
+    @Setup
+    public void setUp() {
+        operands = new Object[depth];
+        for (int i = 0; i < depth; i++) {
+            operands[i] = i % 2 == 0 ? "v" + i : BigInteger.valueOf(i);
+        }
+    }
+
+    /**
+     * Fills a fresh stack to 'depth' and drains it again.
+     */
+    @Benchmark
+    public void pushPopFresh(Blackhole bh) {
+        Stack s = new Stack();
+        for (Object o : operands) {
+            s.push(o);
+        }
+        while (!s.isEmpty()) {
+            bh.consume(s.pop());
+        }
+    }
+
+    /**
+     * Pushes two operands and pops them, 'depth' times, on a shallow stack.
+     */
+    @Benchmark
+    public void pushPopChurn(Blackhole bh) {
+        Stack s = new Stack();
+        for (int i = 0; i + 1 < operands.length; i += 2) {
+            s.push(operands[i]);
+            s.push(operands[i + 1]);
+            bh.consume(s.pop());
+            bh.consume(s.pop());
+        }
+    }
+}
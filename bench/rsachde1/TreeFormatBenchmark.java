@@ -0,0 +1,77 @@
+package rsachde1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares dumping a tree in the binary format with the decimal text of
+ * inOrderTraversal(), and measures building a tree back from a dump. Values
+ * are 'valueBits' bits wide, so wide values show the cost of decimal
+ * conversion.
+ * @author Raj.Sachdev
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TreeFormatBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"32", "4096"})
+    public int valueBits;
+
+    private RedBlackTree tree;
+    private byte[] dump;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        tree = new RedBlackTree();
+        for (int i = 0; i < size; i++) {
+            tree.insert(new KeyValuePair("var" + i, new BigInteger(valueBits, random)));
+        }
+        dump = writeBinary();
+    }
+
+    @Benchmark
+    public byte[] writeBinary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreeWriter.write(tree, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public String writeDecimal() {
+        final StringWriter out = new StringWriter();
+        tree.inOrderTraversal(pair -> out.append(pair.getKey()).append(' ')
+                .append(pair.getValue().toString()).append('\n'));
+        return out.toString();
+    }
+
+    @Benchmark
+    public RedBlackTree readBinary() throws IOException {
+        return TreeReader.readTree(Channels.newChannel(new ByteArrayInputStream(dump)));
+    }
+}
@@ -0,0 +1,131 @@
+package rsachde1;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what the write-ahead log adds to an assignment, with and without
+ * syncOnCommit, and how long recovering a directory takes: a snapshot of
+ * 'size' variables followed by size / 10 logged assignments.
+ * @author Raj.Sachdev
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WriteAheadLogBenchmark {
+
+    private static final int KEYS = 1 << 12;    //power of two so the index can be masked
+
+    @State(Scope.Benchmark)
+    public static class Appending {
+
+        @Param({"false", "true"})
+        public boolean syncOnCommit;
+
+        Path directory;
+        WriteAheadLog log;
+        String[] keys;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("wal-append");
+            log = new WriteAheadLog(directory, syncOnCommit);
+            keys = new String[KEYS];
+            for (int i = 0; i < KEYS; i++) {
+                keys[i] = "var" + i;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            log.close();
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovering {
+
+        @Param({"1000000", "10000000"})
+        public int size;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("wal-recover");
+            Random random = new Random(42);
+            try (WriteAheadLog log = new WriteAheadLog(directory, false)) {
+                RedBlackTree tree = log.getRecoveredTree();
+                for (int i = 0; i < size; i++) {
+                    String key = "var" + i;
+                    BigInteger value = BigInteger.valueOf(random.nextInt());
+                    tree.insert(new KeyValuePair(key, value));
+                    log.append(key, value);
+                }
+                log.checkpoint(tree);
+                for (int i = 0; i < size / 10; i++) {
+                    log.append("var" + random.nextInt(size), BigInteger.valueOf(random.nextInt()));
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Logs one assignment.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long append(Appending state) {
+        int i = state.next++ & (KEYS - 1);
+        return state.log.append(state.keys[i], BigInteger.valueOf(i));
+    }
+
+    /**
+     * Opens the directory, which loads the snapshot and replays the log.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1, batchSize = 1)
+    @Measurement(iterations = 3, batchSize = 1)
+    public int recover(Recovering state) throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(state.directory, false)) {
+            return log.getRecoveredTree().getSize();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,315 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A Red Black Tree that stores its nodes in parallel primitive arrays instead
+ * of RedBlackNode objects. A node is an int index; index 0 is the nil sentinel.
+ * Colors are packed one bit per node, and keys and values live in side arrays,
+ * so an entry costs no objects beyond its key and value.
+ */
+public class ArrayRedBlackTree implements OrderedMap {
+
+    private static final int NIL = 0;               //index of the sentinel node
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] left;         //left[i] is the index of the left child of node i
+    private int[] right;        //right[i] is the index of the right child of node i
+    private int[] parent;       //parent[i] is the index of the parent of node i
+    private long[] red;         //bit i is set when node i is RED, clear when BLACK
+    private String[] keys;
+    private BigInteger[] values;
+    private int root;           //index of the root node
+    private int size;           //number of nodes in the tree, also the last used index
+    private int recentCompares; //number of compares in the last search in the tree
+
+    public ArrayRedBlackTree() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a tree with room for capacity entries before it has to grow.
+     * @param capacity
+     */
+    public ArrayRedBlackTree(int capacity) {
+        int n = Math.max(capacity, 1) + 1;
+        left = new int[n];
+        right = new int[n];
+        parent = new int[n];
+        red = new long[(n + 63) >>> 6];
+        keys = new String[n];
+        values = new BigInteger[n];
+        root = NIL;
+        size = 0;
+        recentCompares = 0;
+    }
+
+    /**
+     * Inserts a key value pair in the tree.
+     * @param insertPair
+     * Pre-Condition: insertPair should not be null
+     * Post-Condition: the pair's key and value will be stored in the tree
+     */
+    public void insert(KeyValuePair insertPair) {
+        insert(insertPair.getKey(), insertPair.getValue());
+    }
+
+    /**
+     * Inserts a key and its value in the tree, replacing the value if the key
+     * is already present.
+     * @param key
+     * @param value
+     * Pre-Condition: key should not be null
+     * Complexity: Theta(log(n)), Theta(n) when the arrays are resized.
+     */
+    public void insert(String key, BigInteger value) {
+        int y = NIL;
+        int x = root;
+        int cmp = 0;
+        while (x != NIL) {
+            y = x;
+            cmp = key.compareTo(keys[x]);
+            if (cmp == 0) {
+                values[x] = value;
+                return;
+            }
+            x = cmp < 0 ? left[x] : right[x];
+        }
+        if (size + 1 == keys.length) {
+            grow();
+        }
+        int z = ++size;
+        keys[z] = key;
+        values[z] = value;
+        parent[z] = y;
+        left[z] = NIL;
+        right[z] = NIL;
+        setRed(z, true);
+        if (y == NIL) {
+            root = z;
+        } else if (cmp < 0) {
+            left[y] = z;
+        } else {
+            right[y] = z;
+        }
+        insertFixup(z);
+    }
+
+    /**
+     * Checks if the tree contains the key 'v'.
+     * @param v
+     * @return boolean
+     * Precondition: v should not be null.
+     * Complexity: Theta(log(n))
+     */
+    public boolean contains(String v) {
+        return find(v) != NIL;
+    }
+
+    /**
+     * Returns the value stored against the entered key.
+     * @param key
+     * @return BigInteger.
+     * PreCondition: The key should exist in the tree.
+     * Complexity: Theta(log(n))
+     */
+    public BigInteger lookup(String key) {
+        int x = find(key);
+        if (x == NIL) {
+            throw new RuntimeException("error: no variable " + key);
+        }
+        return values[x];
+    }
+
+    /**
+     * Returns the number of comparisons made during the last search.
+     * @return integer
+     */
+    public int getRecentCompares() {
+        return recentCompares;
+    }
+
+    /**
+     * Returns the number of entries in the tree.
+     * @return integer
+     * Complexity: Theta(1)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the height of the tree.
+     * @return Integer
+     */
+    public int height() {
+        return height(root);
+    }
+
+    /**
+     * Visits every entry in ascending key order, iteratively.
+     * @param visitor: called once per entry with a new KeyValuePair
+     * PreCondition: visitor should not modify the tree.
+     * Complexity: Theta(n)
+     */
+    public void inOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        int x = root;
+        while (x != NIL && left[x] != NIL) {
+            x = left[x];
+        }
+        while (x != NIL) {
+            visitor.accept(new KeyValuePair(keys[x], values[x]));
+            if (right[x] != NIL) {
+                x = right[x];
+                while (left[x] != NIL) {
+                    x = left[x];
+                }
+            } else {
+                int y = parent[x];
+                while (y != NIL && x == right[y]) {
+                    x = y;
+                    y = parent[y];
+                }
+                x = y;
+            }
+        }
+    }
+
+    private int height(int t) {
+        if (t == NIL) {
+            return 0;
+        }
+        return 1 + Math.max(height(left[t]), height(right[t]));
+    }
+
+    /**
+     * Returns the index of the node holding key, or NIL.
+     */
+    private int find(String key) {
+        int compares = 0;
+        int x = root;
+        while (x != NIL) {
+            compares++;
+            int cmp = key.compareTo(keys[x]);
+            if (cmp == 0) {
+                break;
+            }
+            x = cmp < 0 ? left[x] : right[x];
+        }
+        recentCompares = compares;
+        return x;
+    }
+
+    private boolean isRed(int x) {
+        return (red[x >>> 6] & (1L << x)) != 0;
+    }
+
+    private void setRed(int x, boolean isRed) {
+        if (isRed) {
+            red[x >>> 6] |= 1L << x;
+        } else {
+            red[x >>> 6] &= ~(1L << x);
+        }
+    }
+
+    /**
+     * Restores the RB properties after inserting node z.
+     * @param z : index of the inserted node.
+     */
+    private void insertFixup(int z) {
+        while (isRed(parent[z])) {
+            int p = parent[z];
+            int g = parent[p];
+            if (p == left[g]) {
+                int y = right[g];
+                if (isRed(y)) {
+                    setRed(p, false);
+                    setRed(y, false);
+                    setRed(g, true);
+                    z = g;
+                } else {
+                    if (z == right[p]) {
+                        z = p;
+                        leftRotate(z);
+                        p = parent[z];
+                    }
+                    setRed(p, false);
+                    setRed(g, true);
+                    rightRotate(g);
+                }
+            } else {
+                int y = left[g];
+                if (isRed(y)) {
+                    setRed(p, false);
+                    setRed(y, false);
+                    setRed(g, true);
+                    z = g;
+                } else {
+                    if (z == left[p]) {
+                        z = p;
+                        rightRotate(z);
+                        p = parent[z];
+                    }
+                    setRed(p, false);
+                    setRed(g, true);
+                    leftRotate(g);
+                }
+            }
+        }
+        setRed(root, false);
+    }
+
+    private void leftRotate(int x) {
+        int y = right[x];
+        right[x] = left[y];
+        if (left[y] != NIL) {
+            parent[left[y]] = x;
+        }
+        parent[y] = parent[x];
+        if (parent[x] == NIL) {
+            root = y;
+        } else if (x == left[parent[x]]) {
+            left[parent[x]] = y;
+        } else {
+            right[parent[x]] = y;
+        }
+        left[y] = x;
+        parent[x] = y;
+    }
+
+    private void rightRotate(int x) {
+        int y = left[x];
+        left[x] = right[y];
+        if (right[y] != NIL) {
+            parent[right[y]] = x;
+        }
+        parent[y] = parent[x];
+        if (parent[x] == NIL) {
+            root = y;
+        } else if (x == right[parent[x]]) {
+            right[parent[x]] = y;
+        } else {
+            left[parent[x]] = y;
+        }
+        right[y] = x;
+        parent[x] = y;
+    }
+
+    /**
+     * Doubles the capacity of every node array.
+     * Complexity: Theta(n)
+     */
+    private void grow() {
+        int n = keys.length * 2;
+        left = Arrays.copyOf(left, n);
+        right = Arrays.copyOf(right, n);
+        parent = Arrays.copyOf(parent, n);
+        red = Arrays.copyOf(red, (n + 63) >>> 6);
+        keys = Arrays.copyOf(keys, n);
+        values = Arrays.copyOf(values, n);
+    }
+}
@@ -0,0 +1,334 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A B+ tree keyed by String. A node holds up to MAX_KEYS keys in contiguous
+ * arrays, so a lookup costs one node, a few cache lines, per level instead of
+ * one cache miss per binary node, and the tree is log_32(n) levels deep
+ * instead of up to 2log_2(n). Next to each key, a node keeps its first four
+ * characters packed into a long by SymbolTable.prefix(). The binary search
+ * inside a node compares these primitives and only reads a String when two
+ * prefixes are equal.
+ * Values live in the leaves, which are linked in key order for range scans.
+ */
+public class BPlusTree implements OrderedMap {
+
+    private static final int MAX_KEYS = 32;     //keys per node; a node with more is split
+
+    private Node root;
+    private Node firstLeaf;     //head of the leaf chain
+    private int size;           //number of entries
+    private int height;         //number of levels, 1 for a lone leaf
+
+    public BPlusTree() {
+        root = new Node(true);
+        firstLeaf = root;
+        size = 0;
+        height = 1;
+    }
+
+    /**
+     * Inserts a key value pair in the tree, replacing the value of an
+     * existing key.
+     * @param insertPair
+     * Pre-Condition: insertPair should not be null
+     * Post-Condition: the pair's key and value will be stored in the tree
+     * Complexity: Theta(log(n))
+     */
+    @Override
+    public void insert(KeyValuePair insertPair) {
+        insert(insertPair.getKey(), insertPair.getValue());
+    }
+
+    /**
+     * Inserts key with value, replacing the value of an existing key.
+     * @param key
+     * @param value
+     * Complexity: Theta(log(n))
+     */
+    public void insert(String key, BigInteger value) {
+        Node sibling = insert(root, key, SymbolTable.prefix(key), value);
+        if (sibling != null) {
+            Node newRoot = new Node(false);
+            newRoot.children[0] = root;
+            newRoot.children[1] = sibling;
+            newRoot.keys[0] = sibling.separator;
+            newRoot.prefixes[0] = SymbolTable.prefix(sibling.separator);
+            newRoot.count = 1;
+            sibling.separator = null;
+            root = newRoot;
+            height++;
+        }
+    }
+
+    /**
+     * Returns the value stored against the entered key.
+     * @param key
+     * @return BigInteger.
+     * PreCondition: The key should exist in the tree.
+     * Complexity: Theta(log(n))
+     */
+    @Override
+    public BigInteger lookup(String key) {
+        long p = SymbolTable.prefix(key);
+        Node leaf = findLeaf(key, p);
+        int i = lowerBound(leaf, key, p);
+        if (i == leaf.count || compare(leaf, i, key, p) != 0) {
+            throw new RuntimeException("error: no variable " + key);
+        }
+        return leaf.values[i];
+    }
+
+    /**
+     * Checks if the tree contains the key 'v'.
+     * @param v
+     * @return boolean
+     * Complexity: Theta(log(n))
+     */
+    @Override
+    public boolean contains(String v) {
+        long p = SymbolTable.prefix(v);
+        Node leaf = findLeaf(v, p);
+        int i = lowerBound(leaf, v, p);
+        return i < leaf.count && compare(leaf, i, v, p) == 0;
+    }
+
+    /**
+     * Returns the number of levels of the tree.
+     * @return integer
+     * Complexity: Theta(1)
+     */
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Visits every entry in ascending key order by walking the leaf chain.
+     * @param visitor: called once per entry with a new KeyValuePair
+     * PreCondition: visitor should not modify the tree.
+     * Complexity: Theta(n)
+     */
+    public void inOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        for (Node leaf = firstLeaf; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.count; i++) {
+                visitor.accept(new KeyValuePair(leaf.keys[i], leaf.values[i]));
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the entries with from <= key < to. It descends
+     * once to the first entry and then follows the leaf chain.
+     * @param from: inclusive lower bound
+     * @param to: exclusive upper bound
+     * @return Iterator over new KeyValuePairs in ascending key order.
+     * PreCondition: the tree should not be modified while iterating.
+     * Complexity: Theta(log(n)) to start, then Theta(1) amortized per entry.
+     */
+    public Iterator<KeyValuePair> range(String from, final String to) {
+        long p = SymbolTable.prefix(from);
+        final Node start = findLeaf(from, p);
+        final int startIndex = lowerBound(start, from, p);
+        return new Iterator<KeyValuePair>() {
+            private Node leaf = start;
+            private int index = startIndex;
+
+            @Override
+            public boolean hasNext() {
+                while (leaf != null && index == leaf.count) {
+                    leaf = leaf.next;
+                    index = 0;
+                }
+                return leaf != null && leaf.keys[index].compareTo(to) < 0;
+            }
+
+            @Override
+            public KeyValuePair next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                KeyValuePair pair = new KeyValuePair(leaf.keys[index], leaf.values[index]);
+                index++;
+                return pair;
+            }
+        };
+    }
+
+    /**
+     * A leaf or an inner node. An inner node with count keys has count + 1
+     * children, and child i holds the keys k with keys[i - 1] <= k < keys[i].
+     * The arrays have one spare slot, so a node may overflow before it splits.
+     */
+    private static final class Node {
+
+        final boolean leaf;
+        int count;                  //number of keys
+        final long[] prefixes;      //prefixes[i] == SymbolTable.prefix(keys[i])
+        final String[] keys;
+        final Node[] children;      //inner nodes only
+        final BigInteger[] values;  //leaves only
+        Node next;                  //next leaf in key order
+        String separator;           //smallest key of a node just split off, to be copied up
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+            prefixes = new long[MAX_KEYS + 1];
+            keys = new String[MAX_KEYS + 1];
+            children = leaf ? null : new Node[MAX_KEYS + 2];
+            values = leaf ? new BigInteger[MAX_KEYS + 1] : null;
+        }
+    }
+
+    /**
+     * Compares key, whose prefix is p, with the i'th key of node.
+     */
+    private static int compare(Node node, int i, String key, long p) {
+        return SymbolTable.compare(key, p, node.keys[i], node.prefixes[i], 0);
+    }
+
+    /**
+     * Returns the index of the first key of node that is >= key.
+     */
+    private static int lowerBound(Node node, String key, long p) {
+        int lo = 0;
+        int hi = node.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(node, mid, key, p) > 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the first key of node that is > key, which is the
+     * child of an inner node to descend into.
+     */
+    private static int upperBound(Node node, String key, long p) {
+        int lo = 0;
+        int hi = node.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(node, mid, key, p) >= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private Node findLeaf(String key, long p) {
+        Node node = root;
+        while (!node.leaf) {
+            node = node.children[upperBound(node, key, p)];
+        }
+        return node;
+    }
+
+    /**
+     * Inserts into the subtree of node.
+     * @return the new right sibling if node was split, with its separator
+     * set, else null.
+     */
+    private Node insert(Node node, String key, long p, BigInteger value) {
+        if (node.leaf) {
+            int i = lowerBound(node, key, p);
+            if (i < node.count && compare(node, i, key, p) == 0) {
+                node.values[i] = value;
+                return null;
+            }
+            shift(node, i);
+            node.keys[i] = key;
+            node.prefixes[i] = p;
+            node.values[i] = value;
+            node.count++;
+            size++;
+            return node.count > MAX_KEYS ? splitLeaf(node) : null;
+        }
+        int c = upperBound(node, key, p);
+        Node sibling = insert(node.children[c], key, p, value);
+        if (sibling == null) {
+            return null;
+        }
+        shift(node, c);
+        System.arraycopy(node.children, c + 1, node.children, c + 2, node.count - c);
+        node.keys[c] = sibling.separator;
+        node.prefixes[c] = SymbolTable.prefix(sibling.separator);
+        node.children[c + 1] = sibling;
+        node.count++;
+        sibling.separator = null;
+        return node.count > MAX_KEYS ? splitInner(node) : null;
+    }
+
+    /**
+     * Opens a gap at key index i of node.
+     */
+    private static void shift(Node node, int i) {
+        int moved = node.count - i;
+        System.arraycopy(node.keys, i, node.keys, i + 1, moved);
+        System.arraycopy(node.prefixes, i, node.prefixes, i + 1, moved);
+        if (node.leaf) {
+            System.arraycopy(node.values, i, node.values, i + 1, moved);
+        }
+    }
+
+    /**
+     * Moves the upper half of an overflowing leaf to a new leaf, whose first
+     * key is copied up as the separator.
+     */
+    private static Node splitLeaf(Node node) {
+        Node right = new Node(true);
+        int keep = node.count / 2;
+        int moved = node.count - keep;
+        System.arraycopy(node.keys, keep, right.keys, 0, moved);
+        System.arraycopy(node.prefixes, keep, right.prefixes, 0, moved);
+        System.arraycopy(node.values, keep, right.values, 0, moved);
+        for (int i = keep; i < node.count; i++) {
+            node.keys[i] = null;
+            node.values[i] = null;
+        }
+        node.count = keep;
+        right.count = moved;
+        right.next = node.next;
+        node.next = right;
+        right.separator = right.keys[0];
+        return right;
+    }
+
+    /**
+     * Moves the upper half of an overflowing inner node to a new node. The
+     * middle key moves up as the separator.
+     */
+    private static Node splitInner(Node node) {
+        Node right = new Node(false);
+        int middle = node.count / 2;
+        int moved = node.count - middle - 1;
+        System.arraycopy(node.keys, middle + 1, right.keys, 0, moved);
+        System.arraycopy(node.prefixes, middle + 1, right.prefixes, 0, moved);
+        System.arraycopy(node.children, middle + 1, right.children, 0, moved + 1);
+        right.separator = node.keys[middle];
+        for (int i = middle; i < node.count; i++) {
+            node.keys[i] = null;
+            node.children[i + 1] = null;
+        }
+        node.count = middle;
+        right.count = moved;
+        return right;
+    }
+}
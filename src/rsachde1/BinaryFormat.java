@@ -0,0 +1,155 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Constants and encodings of the binary tree format written by TreeWriter
+ * and read by TreeReader, version 1:
+ * <pre>
+ *   header: magic "RBTF", version byte, varint entry count, CRC32 of the
+ *           header bytes before it
+ *   block:  varint payload length, varint entry count, payload, CRC32 of
+ *           the payload
+ *   end:    a block with no payload and no entries
+ * </pre>
+ * Entries are sorted by strictly ascending key. Within a block each key is
+ * front coded against the previous one: a varint number of shared chars, a
+ * varint number of suffix bytes, and the rest of the key in modified UTF-8,
+ * the encoding of DataOutput.writeUTF(), which round-trips every String.
+ * The first key of a block shares nothing, so every block decodes on its
+ * own. A value is a varint h: if h is even, the value is the zigzag encoded
+ * long h >>> 1; if it is odd, h >>> 1 two's complement bytes follow.
+ * Varints are unsigned LEB128: seven bits per byte, low bits first, the high
+ * bit set on every byte but the last.
+ */
+final class BinaryFormat {
+
+    static final int MAGIC = 0x52425446;        //"RBTF"
+    static final byte VERSION = 1;
+    static final int BLOCK_BYTES = 1 << 16;     //a block is closed once its payload reaches this size
+    static final int MAX_VARINT_BYTES = 10;
+    private static final int INLINE_BITS = 62;  //values of at most this bitLength() are inlined
+
+    private BinaryFormat() {
+    }
+
+    static void putVarint(ByteBuffer out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    /**
+     * Reads a varint.
+     * @throws IllegalArgumentException if it is longer than ten bytes
+     */
+    static long getVarint(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("error: varint is too long");
+    }
+
+    /**
+     * Returns the most bytes putValue() writes for value.
+     */
+    static int valueBytes(BigInteger value) {
+        return MAX_VARINT_BYTES + (value.bitLength() <= INLINE_BITS ? 0 : value.bitLength() / 8 + 1);
+    }
+
+    static void putValue(ByteBuffer out, BigInteger value) {
+        if (value.bitLength() <= INLINE_BITS) {
+            long v = value.longValue();
+            putVarint(out, ((v << 1) ^ (v >> 63)) << 1);
+        } else {
+            byte[] bytes = value.toByteArray();
+            putVarint(out, ((long) bytes.length << 1) | 1);
+            out.put(bytes);
+        }
+    }
+
+    static BigInteger getValue(ByteBuffer in) {
+        long h = getVarint(in);
+        if ((h & 1) == 0) {
+            long zigzag = h >>> 1;
+            return BigInteger.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+        byte[] bytes = new byte[checkLength(h >>> 1, in.remaining())];
+        in.get(bytes);
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * Returns length as an int if it is at most limit.
+     * @throws IllegalArgumentException otherwise
+     */
+    static int checkLength(long length, int limit) {
+        if (length < 0 || length > limit) {
+            throw new IllegalArgumentException("error: length " + length + " exceeds " + limit);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Returns the number of bytes of s.substring(from) in modified UTF-8.
+     */
+    static int utfLength(String s, int from) {
+        int n = 0;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return n;
+    }
+
+    /**
+     * Writes s.substring(from) in modified UTF-8.
+     */
+    static void putUtf(ByteBuffer out, String s, int from) {
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out.put((byte) c);
+            } else if (c <= 0x07FF) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Decodes length bytes of modified UTF-8 from in into chars, starting at
+     * index from.
+     * @return the index after the last char decoded
+     * PreCondition: chars should have room for length more chars.
+     */
+    static int getUtf(ByteBuffer in, int length, char[] chars, int from) {
+        int n = from;
+        int end = in.position() + length;
+        while (in.position() < end) {
+            int b = in.get() & 0xFF;
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[n++] = (char) (((b & 0x1F) << 6) | (in.get() & 0x3F));
+            } else {
+                chars[n++] = (char) (((b & 0x0F) << 12) | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F));
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,319 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * An immutable, pre-tokenized postfix expression. Each token is compiled once
+ * into an opcode; integer literals are parsed into a constant pool and
+ * variable names into a table of variable slots, so evaluating the program
+ * needs no string matching or number parsing. Variable names are interned
+ * in the SymbolTable of the evaluator that compiles the expression, and each
+ * slot records the id the table gave its name.
+ */
+public final class CompiledExpression {
+
+    //opcodes
+    static final int PUSH_CONSTANT = 0;     //operand: index into constants
+    static final int PUSH_VARIABLE = 1;     //operand: index into variables
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+    static final int MULTIPLY = 4;
+    static final int DIVIDE = 5;
+    static final int MOD = 6;
+    static final int NEGATE = 7;            //~
+    static final int POWER_MOD = 8;         //#
+    static final int ASSIGN = 9;            //=
+
+    private final String source;
+    private final int[] opcodes;
+    private final int[] operands;           //operands[i] belongs to opcodes[i]
+    private final BigInteger[] constants;
+    private final long[] longConstants;     //constants[i].longValue(), valid where fitsLong[i]
+    private final boolean[] fitsLong;       //true if constants[i] fits in a long
+    private final String[] variables;       //one slot per distinct variable name, canonical
+    private final int[] ids;                //SymbolTable id of each slot, -1 if not interned
+    private final int[] readSlots;          //variables the program may look up
+    private final int[] writeSlots;         //variables the program may assign
+
+    private CompiledExpression(String source, int[] opcodes, int[] operands,
+            BigInteger[] constants, String[] variables, int[] ids) {
+        this.source = source;
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.constants = constants;
+        this.variables = variables;
+        this.ids = ids;
+        boolean[] read = new boolean[variables.length];
+        boolean[] written = new boolean[variables.length];
+        analyze(read, written);
+        readSlots = slotsOf(read);
+        writeSlots = slotsOf(written);
+        longConstants = new long[constants.length];
+        fitsLong = new boolean[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            fitsLong[i] = constants[i].bitLength() < Long.SIZE;
+            longConstants[i] = constants[i].longValue();
+        }
+    }
+
+    /**
+     * Compiles a whitespace separated postfix expression. Tokens are classified
+     * exactly as ReversePolishNotation always has: a single character in the
+     * range '+'..'/' or one of "%~#=*" is an operator (',' and '.' fall in that
+     * range and are ignored), anything BigInteger can parse is a constant, and
+     * everything else is a variable name. The source is scanned once by a
+     * Tokenizer, which parses constants as it goes.
+     * @param source
+     * @return CompiledExpression
+     * PreCondition: source should not be null.
+     * Complexity: Theta(n) in the length of source.
+     */
+    public static CompiledExpression compile(String source) {
+        return compile(source, null);
+    }
+
+    /**
+     * Compiles source as compile(String) does, interning the variable names
+     * in symbols and recording their ids.
+     * @param source
+     * @param symbols: the evaluator's names, or null not to intern them
+     * @return CompiledExpression
+     */
+    public static CompiledExpression compile(String source, SymbolTable symbols) {
+        int capacity = source.length() / 2 + 2;    //a token and its separator take two chars, plus a leading empty token
+        int[] opcodes = new int[capacity];
+        int[] operands = new int[capacity];
+        List<BigInteger> constants = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int[] ids = new int[capacity];
+        Map<String, Integer> slots = new HashMap<>();
+        int n = 0;
+        Tokenizer tokens = new Tokenizer(source);
+        for (int type = tokens.next(); type != Tokenizer.END; type = tokens.next()) {
+            if (type == Tokenizer.OPERATOR) {
+                int opcode = operator(tokens.operator());
+                if (opcode >= 0) {
+                    opcodes[n++] = opcode;
+                }
+            } else if (type == Tokenizer.CONSTANT) {
+                opcodes[n] = PUSH_CONSTANT;
+                operands[n++] = constants.size();
+                constants.add(tokens.bigValue());
+            } else {
+                String x = tokens.text();
+                Integer slot = slots.get(x);
+                if (slot == null) {
+                    slot = variables.size();
+                    slots.put(x, slot);
+                    if (symbols == null) {
+                        variables.add(x);
+                        ids[slot] = -1;
+                    } else {
+                        String canonical = symbols.intern(x);
+                        variables.add(canonical);
+                        ids[slot] = symbols.id(canonical);
+                    }
+                }
+                opcodes[n] = PUSH_VARIABLE;
+                operands[n++] = slot;
+            }
+        }
+        int[] ops = new int[n];
+        int[] args = new int[n];
+        System.arraycopy(opcodes, 0, ops, 0, n);
+        System.arraycopy(operands, 0, args, 0, n);
+        return new CompiledExpression(source, ops, args,
+                constants.toArray(new BigInteger[constants.size()]),
+                variables.toArray(new String[variables.size()]),
+                Arrays.copyOf(ids, variables.size()));
+    }
+
+    /**
+     * Finds the variables the program may read and assign when it runs on an
+     * empty stack, by running it on a stack of abstract operands: a variable
+     * slot, or -1 for a value. The run stops where the real one would fail
+     * regardless of variable values (stack underflow, assigning a variable,
+     * assigning to a value), so both sets are supersets of what any run
+     * touches.
+     * Complexity: Theta(n) in the length of the program.
+     */
+    private void analyze(boolean[] read, boolean[] written) {
+        int[] stack = new int[opcodes.length + 1];
+        int top = 0;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            int arity;
+            switch (opcodes[pc]) {
+                case PUSH_CONSTANT:
+                    stack[top++] = -1;
+                    continue;
+                case PUSH_VARIABLE:
+                    stack[top++] = operands[pc];
+                    continue;
+                case ASSIGN:
+                    if (top < 2 || stack[top - 1] >= 0 || stack[top - 2] < 0) {
+                        return;
+                    }
+                    top--;
+                    written[stack[top - 1]] = true;
+                    continue;
+                case NEGATE:
+                    arity = 1;
+                    break;
+                case POWER_MOD:
+                    arity = 3;
+                    break;
+                default:
+                    arity = 2;
+            }
+            if (top < arity) {
+                return;
+            }
+            for (int i = top - arity; i < top; i++) {
+                if (stack[i] >= 0) {
+                    read[stack[i]] = true;
+                }
+            }
+            top -= arity;
+            stack[top++] = -1;
+        }
+        if (top > 0 && stack[top - 1] >= 0) {
+            read[stack[top - 1]] = true;     //the result is looked up
+        }
+    }
+
+    private static int[] slotsOf(boolean[] marked) {
+        int n = 0;
+        for (boolean b : marked) {
+            if (b) {
+                n++;
+            }
+        }
+        int[] slots = new int[n];
+        n = 0;
+        for (int i = 0; i < marked.length; i++) {
+            if (marked[i]) {
+                slots[n++] = i;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the opcode of an operator character, or -1 if it is ignored.
+     */
+    private static int operator(char c) {
+        switch (c) {
+            case '+':
+                return ADD;
+            case '-':
+                return SUBTRACT;
+            case '*':
+                return MULTIPLY;
+            case '/':
+                return DIVIDE;
+            case '%':
+                return MOD;
+            case '~':
+                return NEGATE;
+            case '#':
+                return POWER_MOD;
+            case '=':
+                return ASSIGN;
+            default:
+                return -1;
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the number of instructions in the program.
+     * @return integer
+     */
+    public int length() {
+        return opcodes.length;
+    }
+
+    int opcode(int i) {
+        return opcodes[i];
+    }
+
+    int operand(int i) {
+        return operands[i];
+    }
+
+    BigInteger constant(int index) {
+        return constants[index];
+    }
+
+    boolean isLongConstant(int index) {
+        return fitsLong[index];
+    }
+
+    long longConstant(int index) {
+        return longConstants[index];
+    }
+
+    String variable(int slot) {
+        return variables[slot];
+    }
+
+    /**
+     * Returns the SymbolTable id of the variable in a slot. Programs compiled
+     * against the same table agree on the ids of their variables.
+     * @param slot
+     * @return integer, or -1 if the program was compiled without a table
+     */
+    int variableId(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * Returns the number of distinct variables the program refers to.
+     * @return integer
+     */
+    public int variableCount() {
+        return variables.length;
+    }
+
+    /**
+     * Checks if running the program may change a variable. A program that does
+     * not only reads the variable tree.
+     * @return boolean
+     */
+    public boolean assigns() {
+        return writeSlots.length > 0;
+    }
+
+    /**
+     * Returns the slots of the variables the program may look up when run on
+     * an empty stack.
+     * @return int[]: must not be modified
+     */
+    int[] readSlots() {
+        return readSlots;
+    }
+
+    /**
+     * Returns the slots of the variables the program may assign when run on
+     * an empty stack.
+     * @return int[]: must not be modified
+     */
+    int[] writeSlots() {
+        return writeSlots;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
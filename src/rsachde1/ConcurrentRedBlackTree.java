@@ -0,0 +1,403 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A thread-safe Red Black Tree. Writers are serialized by a StampedLock, and
+ * lookup()/contains() first try an optimistic, lock-free descent that is
+ * validated against the lock's version stamp. Only when a writer ran during
+ * the descent does a reader fall back to the shared read lock.
+ *
+ * Reads scale with threads; inserts do not. Every insert takes the single
+ * write lock, so concurrent writers run one at a time however many cores
+ * there are, and each write also sends the optimistic readers that overlap
+ * it to the read lock. Insert scaling is left to ShardedRedBlackTree, which
+ * spreads the keys over several of these trees, each with its own lock.
+ */
+public class ConcurrentRedBlackTree extends RedBlackTree {
+
+    /*
+     * Upper bound on the nodes visited by an optimistic descent. A valid RB tree
+     * of 2^31 nodes is at most 62 levels deep, so a longer walk means we are
+     * reading a tree that is being rotated and the stamp will not validate.
+     */
+    private static final int MAX_OPTIMISTIC_DEPTH = 128;
+    private static final int RANGE_CHUNK = 64;      //entries copied per read lock by range()
+    private static final int SNAPSHOT_CHARACTERISTICS =
+            Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT | Spliterator.IMMUTABLE;
+
+    private final StampedLock lock;     //guards every structural change of the tree
+
+    public ConcurrentRedBlackTree() {
+        super();
+        lock = new StampedLock();
+        setConcurrentReads(true);   //readers that fall back to the read lock share it
+    }
+
+    /**
+     * Inserts a key value pair in the tree under the write lock.
+     * @param insertPair
+     * Pre-Condition: insertPair should not be null
+     * Post-Condition: the insertPair will be inserted in the Red Black Tree
+     */
+    @Override
+    public void insert(KeyValuePair insertPair) {
+        long stamp = lock.writeLock();
+        try {
+            super.insert(insertPair);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Inserts a batch of entries under one write lock.
+     * @param pairs
+     */
+    @Override
+    public void insertAll(Collection<? extends KeyValuePair> pairs) {
+        long stamp = lock.writeLock();
+        try {
+            super.insertAll(pairs);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the value stored against the entered key.
+     * @param key
+     * @return BigInteger.
+     * PreCondition: A node with the entered key should exist in the RB Tree.
+     * PostCondition: The value stored against the key will be returned.
+     * Complexity: Theta(log(n)), without locking unless a writer interferes.
+     */
+    @Override
+    public BigInteger lookup(String key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            KeyValuePair pair = optimisticFind(key);
+            BigInteger value = pair == null ? null : pair.getValue();
+            if (lock.validate(stamp) && pair != null) {
+                return value;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return super.lookup(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Checks if the tree contains a node with the key 'v'.
+     * @param v
+     * @return boolean
+     * Precondition: v should not be null.
+     * PostCondition: if a node with key 'v' exists, then true is returned,
+     * else false.
+     * Complexity: Theta(log(n)), without locking unless a writer interferes.
+     */
+    @Override
+    public boolean contains(String v) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean found = optimisticFind(v) != null;
+            if (lock.validate(stamp)) {
+                return found;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return super.contains(v);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Deletes the entry with the entered key under the write lock.
+     * @param key
+     * @return boolean: true if an entry was deleted.
+     */
+    @Override
+    public boolean delete(String key) {
+        long stamp = lock.writeLock();
+        try {
+            return super.delete(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public KeyValuePair floor(String key) {
+        long stamp = lock.readLock();
+        try {
+            return super.floor(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public KeyValuePair lower(String key) {
+        long stamp = lock.readLock();
+        try {
+            return super.lower(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public KeyValuePair ceiling(String key) {
+        long stamp = lock.readLock();
+        try {
+            return super.ceiling(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public KeyValuePair higher(String key) {
+        long stamp = lock.readLock();
+        try {
+            return super.higher(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the entries with
+     * from <= key < to. Entries are fetched in chunks under the read lock, so
+     * writers may run between chunks; the iterator never fails, and sees each
+     * key at most once, in ascending order.
+     * @param from: inclusive lower bound
+     * @param to: exclusive upper bound
+     * @return Iterator over the KeyValuePairs in the range.
+     */
+    @Override
+    public Iterator<KeyValuePair> range(final String from, final String to) {
+        return new Iterator<KeyValuePair>() {
+            private final KeyValuePair[] chunk = new KeyValuePair[RANGE_CHUNK];
+            private int count = 0;          //entries in chunk
+            private int index = 0;          //next entry of chunk to return
+            private boolean exhausted = false;
+
+            @Override
+            public boolean hasNext() {
+                if (index == count && !exhausted) {
+                    fill();
+                }
+                return index < count;
+            }
+
+            @Override
+            public KeyValuePair next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return chunk[index++];
+            }
+
+            private void fill() {
+                String last = count == 0 ? null : chunk[count - 1].getKey();
+                count = 0;
+                index = 0;
+                long stamp = lock.readLock();
+                try {
+                    KeyValuePair start = last == null ? ConcurrentRedBlackTree.super.ceiling(from)
+                            : ConcurrentRedBlackTree.super.higher(last);
+                    if (start != null) {
+                        Iterator<KeyValuePair> it = ConcurrentRedBlackTree.super.range(start.getKey(), to);
+                        while (count < RANGE_CHUNK && it.hasNext()) {
+                            chunk[count++] = it.next();
+                        }
+                    }
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+                exhausted = count < RANGE_CHUNK;
+            }
+        };
+    }
+
+    @Override
+    public int getSize() {
+        long stamp = lock.readLock();
+        try {
+            return super.getSize();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int rank(String key) {
+        long stamp = lock.readLock();
+        try {
+            return super.rank(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public KeyValuePair select(int k) {
+        long stamp = lock.readLock();
+        try {
+            return super.select(k);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int countInRange(String lo, String hi) {
+        long stamp = lock.readLock();
+        try {
+            return super.countInRange(lo, hi);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int height() {
+        long stamp = lock.readLock();
+        try {
+            return super.height();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visits every entry in ascending key order under the read lock.
+     * @param visitor: called once per entry
+     * PreCondition: visitor should not modify the tree.
+     */
+    @Override
+    public void inOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        long stamp = lock.readLock();
+        try {
+            super.inOrderTraversal(visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visits every entry in descending key order under the read lock.
+     * @param visitor: called once per entry
+     * PreCondition: visitor should not modify the tree.
+     */
+    @Override
+    public void reverseOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        long stamp = lock.readLock();
+        try {
+            super.reverseOrderTraversal(visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns a Spliterator over a copy of the entries taken under the read
+     * lock, since a stream cannot hold the lock between its steps.
+     * @return Spliterator
+     * Complexity: Theta(n) to copy the entry references.
+     */
+    @Override
+    public Spliterator<KeyValuePair> spliterator() {
+        return Spliterators.spliterator(snapshot(false), SNAPSHOT_CHARACTERISTICS);
+    }
+
+    /**
+     * Returns a Spliterator over a descending copy of the entries.
+     * @return Spliterator
+     * Complexity: Theta(n) to copy the entry references.
+     */
+    @Override
+    public Spliterator<KeyValuePair> descendingSpliterator() {
+        return Spliterators.spliterator(snapshot(true), SNAPSHOT_CHARACTERISTICS);
+    }
+
+    private KeyValuePair[] snapshot(boolean descending) {
+        long stamp = lock.readLock();
+        try {
+            final KeyValuePair[] entries = new KeyValuePair[super.getSize()];
+            Consumer<KeyValuePair> copy = new Consumer<KeyValuePair>() {
+                private int i = 0;
+
+                @Override
+                public void accept(KeyValuePair t) {
+                    entries[i++] = t;
+                }
+            };
+            if (descending) {
+                super.reverseOrderTraversal(copy);
+            } else {
+                super.inOrderTraversal(copy);
+            }
+            return entries;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Searches for key without holding the lock. The result may be garbage if
+     * a writer ran concurrently, so callers must validate their stamp before
+     * trusting it. A completed descent is recorded in the tree metrics, so a
+     * lookup that is retried under the read lock is counted twice.
+     * @param key
+     * @return KeyValuePair stored against key, or null if not found (or if the
+     * descent ran into an inconsistent tree).
+     */
+    private KeyValuePair optimisticFind(String key) {
+        RedBlackNode nil = getNil();
+        RedBlackNode cur = getRoot();
+        long prefix = SymbolTable.prefix(key);
+        int lowCommon = 0;
+        int highCommon = 0;
+        int depth = 0;
+        try {
+            while (cur != nil && depth < MAX_OPTIMISTIC_DEPTH) {
+                depth++;
+                KeyValuePair data = cur.getData();
+                int cmp = SymbolTable.compare(key, prefix, data.getKey(), cur.getPrefix(),
+                        Math.min(lowCommon, highCommon));
+                if (cmp == 0) {
+                    getMetrics().recordLookup(depth);
+                    return data;
+                }
+                if (cmp < 0) {
+                    highCommon = -cmp - 1;
+                    cur = cur.getLeft();
+                } else {
+                    lowCommon = cmp - 1;
+                    cur = cur.getRight();
+                }
+            }
+        } catch (RuntimeException inconsistent) {
+            //a half-linked node was observed; the stamp will not validate
+            return null;
+        }
+        getMetrics().recordLookup(depth);
+        return null;
+    }
+}
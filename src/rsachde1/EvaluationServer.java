@@ -0,0 +1,346 @@
+package rsachde1;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Serves many evaluation sessions from one JVM over a loopback socket. Each
+ * connection is a session that blocks on its own thread: a virtual thread
+ * where the JVM has them (Java 21 and later), otherwise a platform thread
+ * of a cached pool, so on older JVMs every open session, idle or not, holds
+ * a thread and its stack. The virtual-thread path is picked reflectively and
+ * has only been built, not run: the tests and load runs so far were on Java
+ * 17, where sessions run on platform threads.
+ *
+ * The socket is loopback TCP rather than a Unix-domain socket. Unix-domain
+ * channels need Java 16 (UnixDomainSocketAddress) and the sources build for
+ * Java 8; loopback TCP never leaves the host either, and the protocol does
+ * not depend on the transport.
+ *
+ * The protocol is line based, in UTF-8: the client sends one postfix
+ * expression per line, and the server answers each with one line holding
+ * the result or an "error: " message, in the order the expressions were
+ * sent. A line longer than MAX_LINE_CHARS is skipped and answered with an
+ * error. A client may send any number of expressions before reading the
+ * answers; the server writes its answers out only when no more input is
+ * buffered, so a pipelined burst is answered with one write.
+ *
+ * The sessions either share one thread-safe variable store, so a variable
+ * assigned by one client is seen by all, or each get their own RedBlackTree,
+ * which is dropped when the client disconnects. Either way every session
+ * compiles through one expression cache, and a session owns nothing but its
+ * operand stack and buffers: with a shared store all sessions run on one
+ * evaluator, and with scoped stores each has a light evaluator over its tree.
+ */
+public class EvaluationServer implements Closeable {
+
+    private static final int BACKLOG = 4096;        //connections queued before accept()
+    private static final int BUFFER_CHARS = 8192;
+    private static final int MAX_LINE_CHARS = 1 << 16;     //longer lines are answered with an error
+    private static final int CACHE_CAPACITY = 1 << 16;     //compiled programs shared by the sessions
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;  //pause after accept() fails
+
+    private final ServerSocket serverSocket;
+    private final ReversePolishNotation sharedEvaluator;   //runs every session, null if variables are scoped
+    private final ExpressionCache expressionCache;  //compiled programs of every session
+    private final ExecutorService sessions;
+    private final boolean virtualThreads;           //sessions run on virtual threads
+    private final Set<Socket> connections;          //open sessions, closed by close()
+    private final AtomicInteger sessionCount;       //sessions accepted so far
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Starts listening on the loopback address.
+     * @param port: 0 picks a free port, see getPort()
+     * @param sharedStore: variables shared by every session, or null to
+     * give each session its own
+     * @throws IOException if the port cannot be bound
+     * PreCondition: sharedStore should be thread-safe, such as a
+     * ConcurrentRedBlackTree or a ShardedRedBlackTree.
+     */
+    public EvaluationServer(int port, OrderedMap sharedStore) throws IOException {
+        if (sharedStore != null && !ReversePolishNotation.isThreadSafe(sharedStore)) {
+            throw new RuntimeException("error: a shared variable store should be thread-safe, not a "
+                    + sharedStore.getClass().getSimpleName());
+        }
+        expressionCache = new ExpressionCache(CACHE_CAPACITY);
+        sharedEvaluator = sharedStore == null ? null : new ReversePolishNotation(sharedStore, expressionCache);
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        ExecutorService virtual = newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        sessions = virtualThreads ? virtual : newPlatformThreadExecutor("rsachde1-eval-session");
+        connections = ConcurrentHashMap.newKeySet();
+        sessionCount = new AtomicInteger();
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "rsachde1-eval-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return integer
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Tells whether sessions run on virtual threads or on platform threads.
+     * @return boolean
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Returns the number of sessions accepted so far.
+     * @return integer
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Returns the number of sessions still connected.
+     * @return integer
+     */
+    public int getOpenSessions() {
+        return connections.size();
+    }
+
+    /**
+     * Stops accepting, disconnects every session and waits for them to end.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        sessions.shutdown();
+        try {
+            acceptor.join();
+            sessions.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (closed) {
+                    break;
+                }
+                try {           //out of file descriptors, say: let sessions end before retrying
+                    Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                continue;
+            }
+            connections.add(socket);
+            sessionCount.incrementAndGet();
+            if (closed) {       //close() may have run before the add
+                closeQuietly(socket);
+                break;
+            }
+            sessions.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers the expressions of one connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        ReversePolishNotation evaluator = sharedEvaluator != null ? sharedEvaluator
+                : new ReversePolishNotation(new RedBlackTree(), expressionCache);
+        OperandStack stack = new OperandStack();
+        try {
+            socket.setTcpNoDelay(true);
+            LineReader in = new LineReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter out = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), BUFFER_CHARS);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (in.isTooLong()) {
+                    out.write("error: line is longer than " + MAX_LINE_CHARS + " characters");
+                } else {
+                    out.write(evaluator.evaluateLine(expressionCache.get(line), stack));
+                }
+                out.write('\n');
+                if (!in.ready()) {      //answer the whole pipelined burst at once
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            //the client went away or the server is closing: nobody to answer
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Reads lines ended by '\n' or "\r\n", keeping at most MAX_LINE_CHARS of
+     * each, so a client cannot make the server buffer an unbounded line.
+     */
+    private static final class LineReader {
+
+        private final Reader in;
+        private final char[] buffer = new char[BUFFER_CHARS];
+        private int position;                   //next char of buffer to read
+        private int limit;                      //end of the chars in buffer
+        private final StringBuilder line = new StringBuilder();
+        private boolean tooLong;                //the last line was cut at MAX_LINE_CHARS
+
+        LineReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Returns the next line without its terminator, or null at the end
+         * of the input. The rest of a line longer than MAX_LINE_CHARS is
+         * read and dropped, and isTooLong() is set.
+         * Complexity: Theta(k) in the length k of the line.
+         */
+        String readLine() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+            while (true) {
+                if (position == limit) {
+                    int n = in.read(buffer, 0, buffer.length);
+                    position = 0;
+                    limit = Math.max(n, 0);
+                    if (n < 0) {
+                        return line.length() > 0 || tooLong ? finish() : null;
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                int keep = Math.min(position - start, MAX_LINE_CHARS - line.length());
+                tooLong |= keep < position - start;
+                line.append(buffer, start, keep);
+                if (position < limit) {
+                    position++;     //the '\n'
+                    return finish();
+                }
+            }
+        }
+
+        private String finish() {
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                line.setLength(length - 1);
+            }
+            return line.toString();
+        }
+
+        boolean isTooLong() {
+            return tooLong;
+        }
+
+        /**
+         * Tells whether a read would not block.
+         */
+        boolean ready() throws IOException {
+            return position < limit || in.ready();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //already closed
+        }
+    }
+
+    /**
+     * Returns Executors.newVirtualThreadPerTaskExecutor(), or null if the
+     * JVM has no virtual threads. Looked up reflectively so that the
+     * sources still build for Java 8.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;        //before Java 21, or a preview that is not enabled
+        }
+    }
+
+    /**
+     * Returns a pool that starts a daemon thread per task when none is idle.
+     */
+    static ExecutorService newPlatformThreadExecutor(final String name) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs a server until the process is killed.
+     * @param args: args[0] is the port (default 7070), args[1] is "shared"
+     * (the default) for one ShardedRedBlackTree shared by every session, or
+     * "scoped" for a variable tree per session
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        boolean shared = args.length < 2 || args[1].equals("shared");
+        if (args.length > 1 && !shared && !args[1].equals("scoped")) {
+            throw new RuntimeException("error: variable store should be shared or scoped, not " + args[1]);
+        }
+        EvaluationServer server = new EvaluationServer(port, shared ? new ShardedRedBlackTree() : null);
+        System.out.println("listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getPort() + " with " + (shared ? "shared" : "scoped") + " variables on "
+                + (server.isVirtualThreads() ? "virtual" : "platform") + " threads");
+        server.acceptor.join();
+    }
+}
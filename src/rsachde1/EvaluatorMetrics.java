@@ -0,0 +1,130 @@
+package rsachde1;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Latency histograms for the Reverse Polish Notation evaluator: one for whole
+ * evaluations and one per operator. Pushes of constants and variables are not
+ * timed, since reading the clock would cost more than the push itself.
+ */
+public class EvaluatorMetrics implements EvaluatorMetricsMBean {
+
+    private static final String[] OPERATOR_NAMES = {"+", "-", "*", "/", "%", "~", "#", "="};
+    private static final int FIRST_OPERATOR = CompiledExpression.ADD;  //opcode of OPERATOR_NAMES[0]
+
+    private final LatencyHistogram evaluations;
+    private final LatencyHistogram[] operators;     //indexed by opcode - FIRST_OPERATOR
+
+    public EvaluatorMetrics() {
+        evaluations = new LatencyHistogram();
+        operators = new LatencyHistogram[OPERATOR_NAMES.length];
+        for (int i = 0; i < operators.length; i++) {
+            operators[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records one evaluation of a whole expression.
+     * @param nanos
+     */
+    public void recordEvaluation(long nanos) {
+        evaluations.record(nanos);
+    }
+
+    /**
+     * Records one execution of an operator.
+     * @param opcode: one of the operator opcodes of CompiledExpression
+     * @param nanos
+     */
+    public void recordOperator(int opcode, long nanos) {
+        operators[opcode - FIRST_OPERATOR].record(nanos);
+    }
+
+    /**
+     * Returns the histogram of an operator.
+     * @param opcode: one of the operator opcodes of CompiledExpression
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getOperatorHistogram(int opcode) {
+        return operators[opcode - FIRST_OPERATOR];
+    }
+
+    public LatencyHistogram getEvaluationHistogram() {
+        return evaluations;
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations.getCount();
+    }
+
+    @Override
+    public double getEvaluationMeanNanos() {
+        return evaluations.getMeanNanos();
+    }
+
+    @Override
+    public long getEvaluationP99Nanos() {
+        return evaluations.getPercentileNanos(99);
+    }
+
+    @Override
+    public String[] getOperatorNames() {
+        return OPERATOR_NAMES.clone();
+    }
+
+    @Override
+    public long[] getOperatorCounts() {
+        long[] counts = new long[operators.length];
+        for (int i = 0; i < operators.length; i++) {
+            counts[i] = operators[i].getCount();
+        }
+        return counts;
+    }
+
+    @Override
+    public double[] getOperatorMeanNanos() {
+        double[] means = new double[operators.length];
+        for (int i = 0; i < operators.length; i++) {
+            means[i] = operators[i].getMeanNanos();
+        }
+        return means;
+    }
+
+    @Override
+    public long[] getOperatorP99Nanos() {
+        long[] p99 = new long[operators.length];
+        for (int i = 0; i < operators.length; i++) {
+            p99[i] = operators[i].getPercentileNanos(99);
+        }
+        return p99;
+    }
+
+    @Override
+    public void reset() {
+        evaluations.reset();
+        for (LatencyHistogram h : operators) {
+            h.reset();
+        }
+    }
+
+    /**
+     * Registers this instance with the platform MBean server as
+     * rsachde1:type=EvaluatorMetrics,name=<name>.
+     * @param name
+     * @return ObjectName it was registered under
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("rsachde1:type=EvaluatorMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("error: cannot register evaluator metrics " + name + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package rsachde1;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Management interface of EvaluatorMetrics. The operator arrays are parallel:
+ * element i of every array describes the operator getOperatorNames()[i].
+ */
+public interface EvaluatorMetricsMBean {
+
+    long getEvaluations();
+
+    double getEvaluationMeanNanos();
+
+    long getEvaluationP99Nanos();
+
+    String[] getOperatorNames();
+
+    long[] getOperatorCounts();
+
+    double[] getOperatorMeanNanos();
+
+    long[] getOperatorP99Nanos();
+
+    void reset();
+}
@@ -0,0 +1,93 @@
+package rsachde1;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A bounded LRU cache of compiled expressions keyed by their source text.
+ * Evaluating a cached expression again skips tokenizing and parsing entirely.
+ */
+public class ExpressionCache {
+
+    private final LinkedHashMap<String, CompiledExpression> cache;
+    private final SymbolTable symbols;      //interns the variable names of compiled programs
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity: maximum number of compiled expressions kept
+     */
+    public ExpressionCache(int capacity) {
+        this(capacity, new SymbolTable());
+    }
+
+    /**
+     * @param capacity: maximum number of compiled expressions kept
+     * @param symbols: interns the variable names of the compiled programs
+     */
+    public ExpressionCache(final int capacity, SymbolTable symbols) {
+        this.symbols = symbols;
+        cache = new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled form of source, compiling and caching it on a miss.
+     * The lock is held only to look the source up and to store the program,
+     * so threads compiling different misses do not wait for each other; two
+     * threads missing on the same source may both compile it, and the first
+     * to store its program wins.
+     * @param source
+     * @return CompiledExpression
+     * Complexity: Theta(1) on a hit, Theta(n) in the length of source on a miss.
+     */
+    public CompiledExpression get(String source) {
+        synchronized (this) {
+            CompiledExpression program = cache.get(source);
+            if (program != null) {
+                hits++;
+                return program;
+            }
+            misses++;
+        }
+        CompiledExpression compiled = CompiledExpression.compile(source, symbols);
+        synchronized (this) {
+            CompiledExpression program = cache.get(source);
+            if (program == null) {
+                cache.put(source, compiled);
+                program = compiled;
+            }
+            return program;
+        }
+    }
+
+    /**
+     * Returns the table that interns the variable names of the programs.
+     * @return SymbolTable
+     */
+    SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public synchronized int getSize() {
+        return cache.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,266 @@
+package rsachde1;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Runs a window of compiled expressions concurrently while giving the same
+ * results and the same final variables as running them one after another.
+ * Expression j waits for an earlier expression i only if i writes a variable
+ * that j reads or writes, or reads a variable that j writes. These edges form
+ * a DAG in input order, which is run as tasks on a ForkJoinPool: a task starts
+ * when the last of its predecessors finishes. Variables are told apart by
+ * their SymbolTable ids, so the programs must come from one evaluator.
+ */
+class ExpressionScheduler {
+
+    private final ReversePolishNotation evaluator;
+    private final ForkJoinPool pool;
+    /*
+     * Held around each expression when the variable tree is not thread-safe,
+     * such as a plain RedBlackTree, which cannot take an insert concurrently
+     * with anything else: assigning expressions take the write lock and the
+     * others the read lock. evaluateAll() puts a plain RedBlackTree in
+     * concurrent-reads mode meanwhile, so its lookups write nothing. A
+     * ConcurrentRedBlackTree, a ShardedRedBlackTree or a
+     * PersistentRedBlackTree needs no lock here.
+     */
+    private final ReentrantReadWriteLock treeLock;
+
+    ExpressionScheduler(ReversePolishNotation evaluator, ForkJoinPool pool, boolean concurrentTree) {
+        this.evaluator = evaluator;
+        this.pool = pool;
+        this.treeLock = concurrentTree ? null : new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Evaluates programs[0..n) and stores the output line of programs[i] in
+     * results[i].
+     * @param programs
+     * @param results
+     * @param n
+     * Complexity: Theta(n + e) to build the DAG of e edges, plus the
+     * evaluations, which run concurrently where the DAG allows.
+     */
+    void run(CompiledExpression[] programs, String[] results, int n) {
+        if (n == 0) {
+            return;
+        }
+        Dag dag = new Dag(programs, n);
+        Run run = new Run(programs, results, dag);
+        for (int i = 0; i < n; i++) {
+            if (dag.indegree[i] == 0) {
+                run.tasks.incrementAndGet();
+                pool.execute(run.new Task(i));
+            }
+        }
+        run.taskEnded();     //the hold run() had on the count of tasks
+        run.await();
+    }
+
+    /**
+     * The dependency edges between a window of programs.
+     */
+    private static final class Dag {
+
+        private final int[][] successors;
+        private final int[] successorCount;
+        private final int[] indegree;
+        private final int[] lastTarget;     //last node an edge from i was added to, to skip duplicates
+
+        Dag(CompiledExpression[] programs, int n) {
+            successors = new int[n][];
+            successorCount = new int[n];
+            indegree = new int[n];
+            lastTarget = new int[n];
+            Arrays.fill(lastTarget, -1);
+            Map<Integer, Access> accesses = new HashMap<>();     //variable id -> its accesses so far
+            for (int j = 0; j < n; j++) {
+                CompiledExpression program = programs[j];
+                for (int slot : program.readSlots()) {
+                    Access a = access(accesses, program.variableId(slot));
+                    if (a.writer >= 0) {
+                        addEdge(a.writer, j);
+                    }
+                }
+                for (int slot : program.writeSlots()) {
+                    Access a = access(accesses, program.variableId(slot));
+                    if (a.writer >= 0) {
+                        addEdge(a.writer, j);
+                    }
+                    for (int k = 0; k < a.readerCount; k++) {
+                        addEdge(a.readers[k], j);
+                    }
+                    a.writer = j;
+                    a.readerCount = 0;
+                }
+                for (int slot : program.readSlots()) {
+                    accesses.get(program.variableId(slot)).addReader(j);
+                }
+            }
+        }
+
+        private static Access access(Map<Integer, Access> accesses, int id) {
+            Access a = accesses.get(id);
+            if (a == null) {
+                a = new Access();
+                accesses.put(id, a);
+            }
+            return a;
+        }
+
+        private void addEdge(int from, int to) {
+            if (lastTarget[from] == to) {
+                return;
+            }
+            lastTarget[from] = to;
+            if (successors[from] == null) {
+                successors[from] = new int[2];
+            } else if (successorCount[from] == successors[from].length) {
+                successors[from] = Arrays.copyOf(successors[from], successorCount[from] * 2);
+            }
+            successors[from][successorCount[from]++] = to;
+            indegree[to]++;
+        }
+    }
+
+    /**
+     * The last writer of a variable and the readers since that write.
+     */
+    private static final class Access {
+
+        private int writer = -1;
+        private int[] readers = new int[2];
+        private int readerCount;
+
+        void addReader(int j) {
+            if (readerCount > 0 && readers[readerCount - 1] == j) {
+                return;
+            }
+            if (readerCount == readers.length) {
+                readers = Arrays.copyOf(readers, readerCount * 2);
+            }
+            readers[readerCount++] = j;
+        }
+    }
+
+    /**
+     * The state of one run() call.
+     */
+    private final class Run {
+
+        private final CompiledExpression[] programs;
+        private final String[] results;
+        private final Dag dag;
+        private final AtomicIntegerArray waiting;   //predecessors of each node not yet finished
+        /*
+         * Tasks started and not yet ended, plus one held by run() until every
+         * root is started. Once an expression fails no task takes another
+         * node, so the nodes after it never run; the run is over when the
+         * last task ends rather than when every node has run.
+         */
+        private final AtomicInteger tasks;
+        private final CountDownLatch finished;      //released when tasks reaches 0
+        private volatile Throwable failure;
+
+        Run(CompiledExpression[] programs, String[] results, Dag dag) {
+            this.programs = programs;
+            this.results = results;
+            this.dag = dag;
+            this.waiting = new AtomicIntegerArray(dag.indegree);
+            this.tasks = new AtomicInteger(1);
+            this.finished = new CountDownLatch(1);
+        }
+
+        void taskEnded() {
+            if (tasks.decrementAndGet() == 0) {
+                finished.countDown();
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw new RuntimeException("error: evaluation failed: " + failure, failure);
+            }
+        }
+
+        private String evaluate(CompiledExpression program, OperandStack stack) {
+            if (treeLock == null) {
+                return evaluator.evaluateLine(program, stack);
+            }
+            Lock lock = program.assigns() ? treeLock.writeLock() : treeLock.readLock();
+            lock.lock();
+            try {
+                return evaluator.evaluateLine(program, stack);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Evaluates one node, then releases its successors. The first
+         * successor that becomes ready runs next in the same task; the others
+         * are forked.
+         */
+        private final class Task extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int node;
+
+            Task(int node) {
+                this.node = node;
+            }
+
+            @Override
+            protected void compute() {
+                OperandStack stack = evaluator.batchStack();
+                int i = node;
+                try {
+                    while (i >= 0 && failure == null) {
+                        results[i] = evaluate(programs[i], stack);
+                        int next = -1;
+                        for (int k = 0; k < dag.successorCount[i]; k++) {
+                            int s = dag.successors[i][k];
+                            if (waiting.decrementAndGet(s) == 0) {
+                                if (next < 0) {
+                                    next = s;
+                                } else {
+                                    tasks.incrementAndGet();
+                                    new Task(s).fork();
+                                }
+                            }
+                        }
+                        i = next;
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    taskEnded();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A spreadsheet-style evaluator. Expressions are registered once, and their
+ * results are kept. An expression that assigns a variable ("x a b + =") feeds
+ * every registered expression that reads it. Changing a variable through
+ * update() re-evaluates only the expressions that read it, then those that
+ * read what they assigned, and so on. Propagation stops where an assignment
+ * leaves its variable unchanged. Expressions are re-evaluated in a
+ * topological order of the writer-to-reader dependencies, with ties in
+ * registration order, so each one runs at most once per update and sees the
+ * final values of its inputs. As in a spreadsheet, a variable may be assigned
+ * by at most one registered expression. The expressions are indexed by the
+ * SymbolTable ids of the variables they read and assign. Every evaluation
+ * starts on an empty stack. Not thread-safe.
+ */
+public class IncrementalEvaluator {
+
+    private final OrderedMap variableTree;      //Tree which stores variables and their values
+    private final ReversePolishNotation evaluator;
+    private final OperandStack stack;
+    private final List<CompiledExpression> programs;   //indexed by expression id
+    private final SymbolTable symbols;          //numbers the variables of the programs
+    private final Map<Integer, Ids> readers;    //variable id -> ids of the expressions that read it
+    private final Map<Integer, Integer> writers; //variable id -> id of the expression that assigns it
+    private BigInteger[] results;               //result of each expression, null if it failed
+    private String[] errors;                    //error message of each failed expression
+    private int[] rank;                         //position of each expression in the topological order
+    private int ordered;                        //expressions covered by rank; later ones are new
+    private final BitSet dirty;                 //expression ids to re-evaluate
+    private long evaluations;                   //expressions evaluated so far
+
+    public IncrementalEvaluator() {
+        this(new RedBlackTree());
+    }
+
+    /**
+     * @param variableTree: holds the variables, which may already have values;
+     * any tree engine will do
+     */
+    public IncrementalEvaluator(OrderedMap variableTree) {
+        this.variableTree = variableTree;
+        evaluator = new ReversePolishNotation(variableTree);
+        symbols = evaluator.getSymbols();
+        stack = new OperandStack();
+        programs = new ArrayList<>();
+        readers = new HashMap<>();
+        writers = new HashMap<>();
+        results = new BigInteger[16];
+        errors = new String[16];
+        rank = new int[0];
+        ordered = 0;
+        dirty = new BitSet();
+    }
+
+    /**
+     * Registers an expression and evaluates it, together with whatever
+     * depends on the variables it assigns.
+     * @param expression: whitespace separated postfix expression
+     * @return int: id of the expression, for getResult()
+     * PreCondition: the expression should not create a circular dependency,
+     * nor assign a variable that another registered expression assigns.
+     * PostCondition: every result is up to date.
+     * Complexity: Theta(n + e) in the registered expressions and their
+     * dependencies, to re-sort them; use registerAll() for many expressions.
+     */
+    public int register(String expression) {
+        int id;
+        try {
+            id = add(expression);
+            recompute();
+        } catch (RuntimeException e) {
+            removeUnsorted();
+            throw e;
+        }
+        return id;
+    }
+
+    /**
+     * Registers several expressions and evaluates them once they are all
+     * registered.
+     * @param expressions
+     * @return int: id of the first expression; the others follow in order
+     * PreCondition: the expressions should not create a circular dependency,
+     * nor assign the same variable twice. If they do, none is registered.
+     */
+    public int registerAll(Collection<String> expressions) {
+        int first = programs.size();
+        try {
+            for (String expression : expressions) {
+                add(expression);
+            }
+            recompute();
+        } catch (RuntimeException e) {
+            removeUnsorted();
+            throw e;
+        }
+        return first;
+    }
+
+    /**
+     * Sets a variable and re-evaluates the expressions affected by it.
+     * @param variable
+     * @param value
+     * PostCondition: every result is up to date.
+     * Complexity: Theta(log(n)) plus the affected expressions.
+     */
+    public void update(String variable, BigInteger value) {
+        BigInteger old = valueOf(variable);
+        variableTree.insert(new KeyValuePair(variable, value));
+        if (!value.equals(old)) {
+            markReaders(symbols.id(variable), -1);
+        }
+        recompute();
+    }
+
+    /**
+     * Returns the latest result of a registered expression.
+     * @param id: as returned by register()
+     * @return BigInteger
+     * PreCondition: the last evaluation of the expression should not have failed.
+     * Complexity: Theta(1)
+     */
+    public BigInteger getResult(int id) {
+        if (id < 0 || id >= programs.size()) {
+            throw new RuntimeException("error: no expression " + id);
+        }
+        if (results[id] == null) {
+            throw new RuntimeException(errors[id]);
+        }
+        return results[id];
+    }
+
+    /**
+     * Returns the error message of the latest evaluation of an expression,
+     * the same "error: " line evaluateFile() writes for it.
+     * @param id: as returned by register()
+     * @return String, or null if the evaluation succeeded
+     * Complexity: Theta(1)
+     */
+    public String getError(int id) {
+        if (id < 0 || id >= programs.size()) {
+            throw new RuntimeException("error: no expression " + id);
+        }
+        return errors[id];
+    }
+
+    public int getSize() {
+        return programs.size();
+    }
+
+    /**
+     * Returns the number of expression evaluations done so far, which shows
+     * how much work the updates saved.
+     * @return long
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public OrderedMap getVariableTree() {
+        return variableTree;
+    }
+
+    /**
+     * Compiles and indexes an expression and marks it dirty.
+     */
+    private int add(String expression) {
+        CompiledExpression program = evaluator.compile(expression);
+        for (int slot : program.writeSlots()) {
+            Integer writer = writers.get(program.variableId(slot));
+            if (writer != null) {
+                throw new RuntimeException("error: " + program.variable(slot) + " is already assigned by \""
+                        + programs.get(writer).getSource() + "\"");
+            }
+        }
+        int id = programs.size();
+        programs.add(program);
+        if (id == results.length) {
+            results = Arrays.copyOf(results, id * 2);
+            errors = Arrays.copyOf(errors, id * 2);
+        }
+        for (int slot : program.readSlots()) {
+            ids(readers, program.variableId(slot)).add(id);
+        }
+        for (int slot : program.writeSlots()) {
+            writers.put(program.variableId(slot), id);
+        }
+        dirty.set(id);
+        return id;
+    }
+
+    /**
+     * Re-evaluates the dirty expressions in topological order.
+     */
+    private void recompute() {
+        if (ordered < programs.size()) {
+            sort();
+        }
+        PriorityQueue<Integer> queue = new PriorityQueue<>(16, (a, b) -> Integer.compare(rank[a], rank[b]));
+        for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+            queue.add(id);
+        }
+        while (!queue.isEmpty()) {
+            int id = queue.poll();
+            dirty.clear(id);
+            CompiledExpression program = programs.get(id);
+            int[] writes = program.writeSlots();
+            BigInteger[] before = new BigInteger[writes.length];
+            for (int i = 0; i < writes.length; i++) {
+                before[i] = valueOf(program.variable(writes[i]));
+            }
+            evaluate(id, program);
+            for (int i = 0; i < writes.length; i++) {
+                BigInteger after = valueOf(program.variable(writes[i]));
+                if (after != null && !after.equals(before[i])) {
+                    for (int reader : markReaders(program.variableId(writes[i]), id)) {
+                        queue.add(reader);
+                    }
+                }
+            }
+        }
+    }
+
+    private void evaluate(int id, CompiledExpression program) {
+        evaluations++;
+        stack.reset();
+        try {
+            results[id] = evaluator.execute(program, stack);
+            errors[id] = null;
+        } catch (RuntimeException e) {
+            results[id] = null;
+            errors[id] = ReversePolishNotation.errorMessage(e);
+        }
+    }
+
+    /**
+     * Marks the readers of a variable dirty, except the expression self.
+     * @param variable: SymbolTable id; -1, a name no program refers to, has
+     * no readers
+     * @return the ids newly marked
+     */
+    private List<Integer> markReaders(int variable, int self) {
+        List<Integer> marked = new ArrayList<>();
+        Ids ids = readers.get(variable);
+        if (ids != null) {
+            for (int i = 0; i < ids.size; i++) {
+                int reader = ids.ids[i];
+                if (reader != self && !dirty.get(reader)) {
+                    dirty.set(reader);
+                    marked.add(reader);
+                }
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Sorts all expressions topologically by Kahn's algorithm, preferring the
+     * lowest id among the ready ones. If the expressions added since the last
+     * sort close a cycle, they are unregistered again.
+     * Complexity: Theta((n + e) log(n))
+     */
+    private void sort() {
+        int n = programs.size();
+        int[][] successors = new int[n][];
+        int[] seen = new int[n];
+        int[] indegree = new int[n];
+        for (int id = 0; id < n; id++) {
+            successors[id] = successors(id, seen);
+            for (int successor : successors[id]) {
+                indegree[successor]++;
+            }
+        }
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int id = 0; id < n; id++) {
+            if (indegree[id] == 0) {
+                ready.add(id);
+            }
+        }
+        int[] newRank = new int[n];
+        int next = 0;
+        while (!ready.isEmpty()) {
+            int id = ready.poll();
+            newRank[id] = next++;
+            for (int successor : successors[id]) {
+                if (--indegree[successor] == 0) {
+                    ready.add(successor);
+                }
+            }
+        }
+        if (next < n) {
+            String source = null;
+            for (int id = 0; id < n && source == null; id++) {
+                if (indegree[id] > 0) {
+                    source = programs.get(id).getSource();
+                }
+            }
+            removeUnsorted();
+            throw new RuntimeException("error: circular dependency through \"" + source + "\"");
+        }
+        rank = newRank;
+        ordered = n;
+    }
+
+    /**
+     * Returns the ids of the expressions that read a variable assigned by id,
+     * without duplicates or id itself.
+     * @param seen: scratch array; seen[x] == id + 1 marks x as already listed
+     */
+    private int[] successors(int id, int[] seen) {
+        CompiledExpression program = programs.get(id);
+        Ids out = new Ids();
+        seen[id] = id + 1;
+        for (int slot : program.writeSlots()) {
+            Ids ids = readers.get(program.variableId(slot));
+            for (int i = 0; ids != null && i < ids.size; i++) {
+                if (seen[ids.ids[i]] != id + 1) {
+                    seen[ids.ids[i]] = id + 1;
+                    out.add(ids.ids[i]);
+                }
+            }
+        }
+        return Arrays.copyOf(out.ids, out.size);
+    }
+
+    /**
+     * Unregisters the expressions added since the last successful sort.
+     */
+    private void removeUnsorted() {
+        for (int id = programs.size() - 1; id >= ordered; id--) {
+            CompiledExpression program = programs.remove(id);
+            for (int slot : program.readSlots()) {
+                readers.get(program.variableId(slot)).removeLast(id);
+            }
+            for (int slot : program.writeSlots()) {
+                writers.remove(program.variableId(slot), id);
+            }
+            dirty.clear(id);
+            results[id] = null;
+            errors[id] = null;
+        }
+    }
+
+    private BigInteger valueOf(String variable) {
+        return variableTree.contains(variable) ? variableTree.lookup(variable) : null;
+    }
+
+    private static Ids ids(Map<Integer, Ids> index, int variable) {
+        Ids ids = index.get(variable);
+        if (ids == null) {
+            ids = new Ids();
+            index.put(variable, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * A growable list of expression ids, in ascending order.
+     */
+    private static final class Ids {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void removeLast(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                size--;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package rsachde1;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A lock-free latency histogram with power-of-two nanosecond buckets. Bucket 0
+ * counts samples of 0ns and bucket i counts samples in [2^(i-1), 2^i) ns, so
+ * percentiles are accurate to a factor of two, which is enough to tell a
+ * 100ns operator from a 10us one.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final LongAdder totalNanos;
+
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        count = new LongAdder();
+        totalNanos = new LongAdder();
+    }
+
+    /**
+     * Records one sample.
+     * @param nanos: latency in nanoseconds
+     * Complexity: Theta(1)
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean latency in nanoseconds, 0 if there are no samples.
+     * @return double
+     */
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile: the top of the first
+     * bucket at which the cumulative count reaches it.
+     * @param percentile: in (0, 100]
+     * @return long: nanoseconds
+     * Complexity: Theta(1)
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= target) {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public void reset() {
+        for (LongAdder b : buckets) {
+            b.reset();
+        }
+        count.reset();
+        totalNanos.reset();
+    }
+}
@@ -0,0 +1,178 @@
+package rsachde1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Drives an EvaluationServer with many concurrent clients. Each client
+ * keeps up to 'depth' expressions in flight on its connection and checks
+ * every answer, so answers out of order or lost assignments are counted
+ * as errors.
+ *
+ * Client c alternates between assigning its request number i to one of 16
+ * variables of its own and incrementing the variable assigned by request
+ * i - 1, so every answer is i and depends on the previous one.
+ */
+public class LoadGenerator {
+
+    private static final int VARIABLES = 16;        //variables per client
+
+    private final int port;
+    private final int clients;
+    private final int requests;                     //expressions per client
+    private final int depth;                        //expressions in flight per client
+    private final LatencyHistogram latency;
+    private long errors;
+    private long elapsedNanos;
+
+    /**
+     * @param port: the server's loopback port
+     * @param clients: concurrent connections
+     * @param requests: expressions sent by each client
+     * @param depth: expressions a client sends before waiting for an answer
+     * PreCondition: clients, requests and depth should be positive.
+     */
+    public LoadGenerator(int port, int clients, int requests, int depth) {
+        if (clients < 1 || requests < 1 || depth < 1) {
+            throw new RuntimeException("error: clients, requests and depth should be positive");
+        }
+        this.port = port;
+        this.clients = clients;
+        this.requests = requests;
+        this.depth = depth;
+        latency = new LatencyHistogram();
+    }
+
+    /**
+     * Connects every client, runs them to completion and disconnects.
+     * @throws IOException if a client cannot connect or the server hangs up
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        ExecutorService pool = EvaluationServer.newVirtualThreadExecutor();
+        if (pool == null) {
+            pool = EvaluationServer.newPlatformThreadExecutor("rsachde1-load-client");
+        }
+        List<Future<Long>> results = new ArrayList<>(clients);
+        long start = System.nanoTime();
+        try {
+            for (int c = 0; c < clients; c++) {
+                final int client = c;
+                results.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return runClient(client);
+                    }
+                }));
+            }
+            for (Future<Long> result : results) {
+                errors += result.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause
+                    : new IOException("error: client failed", cause);
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs one client.
+     * @return long: the number of wrong answers
+     */
+    private long runClient(int client) throws IOException {
+        long[] sentAt = new long[depth];
+        long wrong = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter out = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            int sent = 0;
+            for (int received = 0; received < requests; received++) {
+                while (sent < requests && sent - received < depth) {
+                    sentAt[sent % depth] = System.nanoTime();
+                    out.write(expression(client, sent));
+                    out.write('\n');
+                    sent++;
+                }
+                out.flush();
+                String answer = in.readLine();
+                if (answer == null) {
+                    throw new IOException("error: server closed the connection of client " + client);
+                }
+                latency.record(System.nanoTime() - sentAt[received % depth]);
+                if (!answer.equals(Integer.toString(received))) {
+                    wrong++;
+                }
+            }
+        }
+        return wrong;
+    }
+
+    /**
+     * Returns request i of a client; its answer is i.
+     */
+    static String expression(int client, int i) {
+        if (i % 2 == 0) {
+            return "c" + client + "v" + (i / 2 % VARIABLES) + " " + i + " =";
+        }
+        return "c" + client + "v" + ((i - 1) / 2 % VARIABLES) + " 1 +";
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Runs a load test against a server on this machine and prints the
+     * throughput and latency.
+     * @param args: port, clients (default 1000), expressions per client
+     * (default 1000) and depth (default 16)
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("usage: LoadGenerator port [clients] [requests] [depth]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        LoadGenerator load = new LoadGenerator(port, clients, requests, depth);
+        load.run();
+        LatencyHistogram latency = load.getLatency();
+        double seconds = load.getElapsedNanos() / 1e9;
+        System.out.printf("%d clients x %d expressions, depth %d: %.2fs, %.0f expressions/s, %d wrong%n",
+                clients, requests, depth, seconds, latency.getCount() / seconds, load.getErrors());
+        System.out.printf("latency mean %.1fus, p50 <= %dus, p99 <= %dus%n", latency.getMeanNanos() / 1000,
+                latency.getPercentileNanos(50) / 1000, latency.getPercentileNanos(99) / 1000);
+    }
+}
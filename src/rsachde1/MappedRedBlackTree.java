@@ -0,0 +1,666 @@
+package rsachde1;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A Red Black Tree whose nodes live off-heap in a memory-mapped file. Nodes,
+ * keys and values are carved out of one append-only region of the file:
+ * <pre>
+ *   header | nil node | node | key | value | node | key | value | ...
+ * </pre>
+ * A node is six longs (left, right, parent, key offset, value offset, color)
+ * addressed by its byte offset in the file. Keys are stored as a char count
+ * followed by UTF-16 chars, so they compare exactly like String.compareTo
+ * without being decoded. Values are a byte count followed by the two's
+ * complement bytes of the BigInteger. Reopening a file only maps it and reads
+ * the header; there is no deserialization pass.
+ *
+ * When syncOnCommit is set, every insert is a commit: changes to existing
+ * nodes are buffered, written to a redo journal next to the file and forced
+ * before they are applied, so a crash leaves either the old or the new tree.
+ * Without it, writes go straight to the mapping and reach the disk when the
+ * OS flushes them, or on sync() and close().
+ *
+ * Every segment of the file is mapped when it is opened, and new ones only by
+ * the insert that grows the file, so lookups write nothing but the
+ * getRecentCompares() statistic and may run concurrently with each other
+ * under a shared lock, as ExpressionScheduler runs them. Inserts need the
+ * tree to themselves.
+ */
+public class MappedRedBlackTree implements OrderedMap, Closeable {
+
+    private static final long MAGIC = 0x5242545245453031L;     //"RBTREE01"
+    private static final long VERSION = 1;
+
+    private static final int SEGMENT_SHIFT = 26;               //file is mapped in 64MB segments
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    //header fields
+    private static final long H_MAGIC = 0;
+    private static final long H_VERSION = 8;
+    private static final long H_ROOT = 16;
+    private static final long H_SIZE = 24;
+    private static final long H_END = 32;
+    private static final long HEADER_BYTES = 64;
+
+    //node fields
+    private static final long LEFT = 0;
+    private static final long RIGHT = 8;
+    private static final long PARENT = 16;
+    private static final long KEY = 24;
+    private static final long VALUE = 32;
+    private static final long COLOR = 40;
+    private static final int NODE_BYTES = 48;
+
+    private static final long BLACK = 0;
+    private static final long RED = 1;
+    private static final long NIL = HEADER_BYTES;              //offset of the sentinel node
+
+    private final FileChannel channel;
+    private final FileChannel journal;          //redo journal, null unless syncOnCommit
+    private MappedByteBuffer[] segments;
+    private long root;                  //offset of the root node
+    private long size;                  //number of nodes in the tree
+    private long end;                   //first free byte of the file
+    private long committedEnd;          //end as of the last commit
+    private final Map<Long, Long> pending;      //buffered writes to committed bytes
+    private int recentCompares;
+
+    /**
+     * Opens the tree stored in file, creating an empty one if the file does
+     * not exist or is empty. Any other file must start with a tree header: it
+     * is checked before the journal is replayed or anything is mapped, so
+     * opening a file that is not a tree leaves it untouched.
+     * @param file
+     * @param syncOnCommit: if true, each insert is durable when it returns
+     * @throws IOException if the file cannot be opened or is not a tree file
+     */
+    public MappedRedBlackTree(Path file, boolean syncOnCommit) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments = new MappedByteBuffer[0];
+        pending = new HashMap<>();
+        FileChannel log = null;
+        try {
+            long fileSize = channel.size();
+            if (fileSize != 0 && !hasHeader(fileSize)) {
+                throw new IOException("error: " + file + " is not a tree file");
+            }
+            Path journalFile = Paths.get(file + ".journal");
+            if (fileSize == 0) {
+                //a journal only ever holds writes to committed bytes
+                Files.deleteIfExists(journalFile);
+                mapSegments(1);
+            } else {
+                mapSegments((int) ((fileSize + SEGMENT_MASK) >>> SEGMENT_SHIFT));
+                recover(journalFile);
+            }
+            if (syncOnCommit) {
+                log = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            journal = log;
+            if (fileSize == 0) {
+                format();
+            } else {
+                root = getLong(H_ROOT);
+                size = getLong(H_SIZE);
+                end = getLong(H_END);
+                committedEnd = end;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (log != null) {
+                log.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts a key value pair in the tree.
+     * @param insertPair
+     * Pre-Condition: insertPair should not be null
+     * Post-Condition: the pair will be stored in the tree, durably if the tree
+     * was opened with syncOnCommit.
+     */
+    public void insert(KeyValuePair insertPair) {
+        insert(insertPair.getKey(), insertPair.getValue());
+    }
+
+    /**
+     * Inserts a key and its value, replacing the value if the key is present.
+     * The bytes of a replaced value are not reclaimed.
+     * @param key
+     * @param value
+     * Complexity: Theta(log(n))
+     */
+    public void insert(String key, BigInteger value) {
+        long y = NIL;
+        long x = root;
+        int cmp = 0;
+        while (x != NIL) {
+            y = x;
+            cmp = compareKey(key, getLong(x + KEY));
+            if (cmp == 0) {
+                putLong(x + VALUE, writeValue(value));
+                commit();
+                return;
+            }
+            x = cmp < 0 ? getLong(x + LEFT) : getLong(x + RIGHT);
+        }
+        long keyOffset = writeKey(key);
+        long valueOffset = writeValue(value);
+        long z = allocate(NODE_BYTES);
+        putLong(z + LEFT, NIL);
+        putLong(z + RIGHT, NIL);
+        putLong(z + PARENT, y);
+        putLong(z + KEY, keyOffset);
+        putLong(z + VALUE, valueOffset);
+        putLong(z + COLOR, RED);
+        if (y == NIL) {
+            root = z;
+        } else if (cmp < 0) {
+            putLong(y + LEFT, z);
+        } else {
+            putLong(y + RIGHT, z);
+        }
+        insertFixup(z);
+        size++;
+        commit();
+    }
+
+    /**
+     * Checks if the tree contains the key 'v'.
+     * @param v
+     * @return boolean
+     * Complexity: Theta(log(n))
+     */
+    public boolean contains(String v) {
+        return find(v) != NIL;
+    }
+
+    /**
+     * Returns the value stored against the entered key.
+     * @param key
+     * @return BigInteger.
+     * PreCondition: The key should exist in the tree.
+     * Complexity: Theta(log(n))
+     */
+    public BigInteger lookup(String key) {
+        long x = find(key);
+        if (x == NIL) {
+            throw new RuntimeException("error: no variable " + key);
+        }
+        return readValue(getLong(x + VALUE));
+    }
+
+    /**
+     * Returns the number of comparisons made during the last search.
+     * @return integer
+     */
+    public int getRecentCompares() {
+        return recentCompares;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * @return integer
+     */
+    public int getSize() {
+        return (int) size;
+    }
+
+    /**
+     * Returns the height of the tree.
+     * @return Integer
+     */
+    public int height() {
+        return height(root);
+    }
+
+    /**
+     * Visits every entry in ascending key order, iteratively.
+     * @param visitor: called once per entry with a new KeyValuePair
+     * PreCondition: visitor should not modify the tree.
+     * Complexity: Theta(n)
+     */
+    public void inOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        long x = root;
+        while (x != NIL && getLong(x + LEFT) != NIL) {
+            x = getLong(x + LEFT);
+        }
+        while (x != NIL) {
+            visitor.accept(new KeyValuePair(readKey(getLong(x + KEY)), readValue(getLong(x + VALUE))));
+            if (getLong(x + RIGHT) != NIL) {
+                x = getLong(x + RIGHT);
+                while (getLong(x + LEFT) != NIL) {
+                    x = getLong(x + LEFT);
+                }
+            } else {
+                long y = getLong(x + PARENT);
+                while (y != NIL && x == getLong(y + RIGHT)) {
+                    x = y;
+                    y = getLong(y + PARENT);
+                }
+                x = y;
+            }
+        }
+    }
+
+    private int height(long t) {
+        if (t == NIL) {
+            return 0;
+        }
+        return 1 + Math.max(height(getLong(t + LEFT)), height(getLong(t + RIGHT)));
+    }
+
+    /**
+     * Forces all changes to the disk.
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        for (MappedByteBuffer seg : segments) {
+            seg.force();
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private long find(String key) {
+        int compares = 0;
+        long x = root;
+        while (x != NIL) {
+            compares++;
+            int cmp = compareKey(key, getLong(x + KEY));
+            if (cmp == 0) {
+                break;
+            }
+            x = cmp < 0 ? getLong(x + LEFT) : getLong(x + RIGHT);
+        }
+        recentCompares = compares;
+        return x;
+    }
+
+    /**
+     * Compares key with the key stored at offset, like key.compareTo(stored).
+     */
+    private int compareKey(String key, long offset) {
+        ByteBuffer seg = segment(offset);
+        int base = (int) (offset & SEGMENT_MASK);
+        int storedLength = seg.getInt(base);
+        int n = Math.min(key.length(), storedLength);
+        for (int i = 0; i < n; i++) {
+            char c1 = key.charAt(i);
+            char c2 = seg.getChar(base + 4 + 2 * i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return key.length() - storedLength;
+    }
+
+    private long writeKey(String key) {
+        long offset = allocate(4 + 2L * key.length());
+        ByteBuffer seg = segment(offset);
+        int base = (int) (offset & SEGMENT_MASK);
+        seg.putInt(base, key.length());
+        for (int i = 0; i < key.length(); i++) {
+            seg.putChar(base + 4 + 2 * i, key.charAt(i));
+        }
+        return offset;
+    }
+
+    private String readKey(long offset) {
+        ByteBuffer seg = segment(offset);
+        int base = (int) (offset & SEGMENT_MASK);
+        char[] chars = new char[seg.getInt(base)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = seg.getChar(base + 4 + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    private BigInteger readValue(long offset) {
+        ByteBuffer seg = segment(offset);
+        int base = (int) (offset & SEGMENT_MASK);
+        byte[] bytes = new byte[seg.getInt(base)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = seg.get(base + 4 + i);
+        }
+        return new BigInteger(bytes);
+    }
+
+    private long writeValue(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        long offset = allocate(4 + bytes.length);
+        ByteBuffer seg = segment(offset);
+        int base = (int) (offset & SEGMENT_MASK);
+        seg.putInt(base, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            seg.put(base + 4 + i, bytes[i]);
+        }
+        return offset;
+    }
+
+    /**
+     * Reserves length bytes at the end of the file, 8-byte aligned and never
+     * straddling two segments.
+     */
+    private long allocate(long length) {
+        if (length > SEGMENT_SIZE) {
+            throw new RuntimeException("error: entry of " + length + " bytes is too large");
+        }
+        long offset = end;
+        if ((offset >>> SEGMENT_SHIFT) != ((offset + length - 1) >>> SEGMENT_SHIFT)) {
+            offset = ((offset >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+        }
+        end = (offset + length + 7) & ~7L;
+        int count = (int) ((end - 1) >>> SEGMENT_SHIFT) + 1;
+        if (count > segments.length) {
+            mapSegments(count);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the mapped segment containing offset. Every segment of the file
+     * is mapped when it is opened or grown by allocate(), so lookups only read
+     * the array and can run concurrently under a shared lock.
+     */
+    private MappedByteBuffer segment(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)];
+    }
+
+    /**
+     * Maps segments up to count, growing the file. The new array is filled
+     * before it replaces the old one, and only inserts call this.
+     */
+    private void mapSegments(int count) {
+        try {
+            MappedByteBuffer[] grown = Arrays.copyOf(segments, count);
+            for (int i = segments.length; i < count; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+            segments = grown;
+        } catch (IOException e) {
+            throw new RuntimeException("error: cannot map tree file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the header through the channel, without mapping the file.
+     */
+    private boolean hasHeader(long fileSize) throws IOException {
+        if (fileSize < HEADER_BYTES) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate((int) HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+        return header.getLong((int) H_MAGIC) == MAGIC && header.getLong((int) H_VERSION) == VERSION;
+    }
+
+    private long getLong(long offset) {
+        if (!pending.isEmpty()) {
+            Long v = pending.get(offset);
+            if (v != null) {
+                return v;
+            }
+        }
+        return segment(offset).getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Writes a long. In sync mode, writes to already committed bytes are
+     * buffered until commit(); bytes past the last commit are invisible to a
+     * reopened file and are written directly.
+     */
+    private void putLong(long offset, long value) {
+        if (journal != null && offset < committedEnd) {
+            pending.put(offset, value);
+        } else {
+            segment(offset).putLong((int) (offset & SEGMENT_MASK), value);
+        }
+    }
+
+    private long color(long x) {
+        return getLong(x + COLOR);
+    }
+
+    /**
+     * Writes the header. In sync mode also makes the insert durable: force the
+     * new bytes, journal and force the buffered writes, apply them, force, and
+     * clear the journal.
+     */
+    private void commit() {
+        putLong(H_ROOT, root);
+        putLong(H_SIZE, size);
+        putLong(H_END, end);
+        if (journal == null) {
+            return;
+        }
+        try {
+            for (long s = committedEnd >>> SEGMENT_SHIFT; s <= (end - 1) >>> SEGMENT_SHIFT; s++) {
+                segment(s << SEGMENT_SHIFT).force();
+            }
+            writeJournal();
+            applyPending();
+            journal.truncate(0);
+            journal.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("error: commit failed: " + e.getMessage(), e);
+        }
+        committedEnd = end;
+    }
+
+    /**
+     * Journal layout: count, count (offset, value) pairs, CRC32 of all of it.
+     */
+    private void writeJournal() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8 + 16 * pending.size() + 8);
+        buf.putLong(pending.size());
+        for (Map.Entry<Long, Long> e : pending.entrySet()) {
+            buf.putLong(e.getKey());
+            buf.putLong(e.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putLong(crc.getValue());
+        buf.flip();
+        journal.truncate(0);
+        while (buf.hasRemaining()) {
+            journal.write(buf, buf.position());
+        }
+        journal.force(false);
+    }
+
+    private void applyPending() {
+        BitSet dirty = new BitSet();
+        for (Map.Entry<Long, Long> e : pending.entrySet()) {
+            long offset = e.getKey();
+            segment(offset).putLong((int) (offset & SEGMENT_MASK), e.getValue());
+            dirty.set((int) (offset >>> SEGMENT_SHIFT));
+        }
+        pending.clear();
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            segments[i].force();
+        }
+    }
+
+    /**
+     * Replays a complete journal left by a crash between journaling and
+     * clearing it. A torn journal is discarded: its writes never reached the
+     * file, so the file still holds the previous commit.
+     */
+    private void recover(Path journalFile) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(journalFile));
+        long count = buf.limit() >= 16 ? buf.getLong(0) : -1;
+        if (count >= 0 && 16 + 16 * count == buf.limit()) {
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 0, (int) (8 + 16 * count));
+            if (crc.getValue() == buf.getLong((int) (8 + 16 * count))) {
+                for (int i = 0; i < count; i++) {
+                    pending.put(buf.getLong(8 + 16 * i), buf.getLong(16 + 16 * i));
+                }
+                applyPending();
+            }
+        }
+        Files.delete(journalFile);
+    }
+
+    /**
+     * Writes the header and the nil node of an empty tree.
+     */
+    private void format() throws IOException {
+        putLong(H_MAGIC, MAGIC);
+        putLong(H_VERSION, VERSION);
+        end = NIL;
+        long nil = allocate(NODE_BYTES);
+        putLong(nil + LEFT, NIL);
+        putLong(nil + RIGHT, NIL);
+        putLong(nil + PARENT, NIL);
+        putLong(nil + COLOR, BLACK);
+        root = NIL;
+        size = 0;
+        putLong(H_ROOT, root);
+        putLong(H_SIZE, size);
+        putLong(H_END, end);
+        committedEnd = end;
+        sync();
+    }
+
+    private void insertFixup(long z) {
+        while (color(getLong(z + PARENT)) == RED) {
+            long p = getLong(z + PARENT);
+            long g = getLong(p + PARENT);
+            if (p == getLong(g + LEFT)) {
+                long y = getLong(g + RIGHT);
+                if (color(y) == RED) {
+                    putLong(p + COLOR, BLACK);
+                    putLong(y + COLOR, BLACK);
+                    putLong(g + COLOR, RED);
+                    z = g;
+                } else {
+                    if (z == getLong(p + RIGHT)) {
+                        z = p;
+                        leftRotate(z);
+                        p = getLong(z + PARENT);
+                    }
+                    putLong(p + COLOR, BLACK);
+                    putLong(g + COLOR, RED);
+                    rightRotate(g);
+                }
+            } else {
+                long y = getLong(g + LEFT);
+                if (color(y) == RED) {
+                    putLong(p + COLOR, BLACK);
+                    putLong(y + COLOR, BLACK);
+                    putLong(g + COLOR, RED);
+                    z = g;
+                } else {
+                    if (z == getLong(p + LEFT)) {
+                        z = p;
+                        rightRotate(z);
+                        p = getLong(z + PARENT);
+                    }
+                    putLong(p + COLOR, BLACK);
+                    putLong(g + COLOR, RED);
+                    leftRotate(g);
+                }
+            }
+        }
+        if (color(root) != BLACK) {
+            putLong(root + COLOR, BLACK);
+        }
+    }
+
+    private void leftRotate(long x) {
+        long y = getLong(x + RIGHT);
+        long yLeft = getLong(y + LEFT);
+        long xParent = getLong(x + PARENT);
+        putLong(x + RIGHT, yLeft);
+        if (yLeft != NIL) {
+            putLong(yLeft + PARENT, x);
+        }
+        putLong(y + PARENT, xParent);
+        if (xParent == NIL) {
+            root = y;
+        } else if (x == getLong(xParent + LEFT)) {
+            putLong(xParent + LEFT, y);
+        } else {
+            putLong(xParent + RIGHT, y);
+        }
+        putLong(y + LEFT, x);
+        putLong(x + PARENT, y);
+    }
+
+    private void rightRotate(long x) {
+        long y = getLong(x + LEFT);
+        long yRight = getLong(y + RIGHT);
+        long xParent = getLong(x + PARENT);
+        putLong(x + LEFT, yRight);
+        if (yRight != NIL) {
+            putLong(yRight + PARENT, x);
+        }
+        putLong(y + PARENT, xParent);
+        if (xParent == NIL) {
+            root = y;
+        } else if (x == getLong(xParent + RIGHT)) {
+            putLong(xParent + RIGHT, y);
+        } else {
+            putLong(xParent + LEFT, y);
+        }
+        putLong(y + RIGHT, x);
+        putLong(x + PARENT, y);
+    }
+
+    /**
+     * Driver method: inserts into and reopens a tree file.
+     * @param args: args[0] is the tree file
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "variables.rbt");
+        try (MappedRedBlackTree t = new MappedRedBlackTree(file, true)) {
+            for (int i = 1; i <= 50; i++) {
+                t.insert(String.valueOf(i), BigInteger.valueOf(i).pow(10));
+            }
+        }
+        try (MappedRedBlackTree t = new MappedRedBlackTree(file, false)) {
+            System.out.println("Size: " + t.getSize() + " Height: " + t.height());
+            System.out.println("25: " + t.lookup("25"));
+        }
+    }
+}
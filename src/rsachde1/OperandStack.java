@@ -0,0 +1,270 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A typed operand stack for the Reverse Polish Notation evaluator. Every slot
+ * carries a tag saying whether it holds a long, a BigInteger too wide for a
+ * long, or the name of a variable, and each kind lives in its own array, so
+ * no slot needs an instanceof check or a cast. Operands are addressed by
+ * their distance from the top: 0 is the top, 1 the one below it, and so on.
+ */
+public class OperandStack {
+
+    //slot tags
+    public static final byte LONG = 0;
+    public static final byte BIG_INTEGER = 1;
+    public static final byte VARIABLE = 2;
+
+    private static final int INITIAL_SIZE = 16;
+
+    private byte[] tags;
+    private long[] longs;               //value of the LONG slots
+    private BigInteger[] bigIntegers;   //value of the BIG_INTEGER slots, null elsewhere
+    private String[] variables;         //name in the VARIABLE slots, null elsewhere
+    private int size;                   //number of slots in use
+
+    public OperandStack() {
+        tags = new byte[INITIAL_SIZE];
+        longs = new long[INITIAL_SIZE];
+        bigIntegers = new BigInteger[INITIAL_SIZE];
+        variables = new String[INITIAL_SIZE];
+        size = 0;
+    }
+
+    /**
+     * Pushes a long value.
+     * @param v
+     * Complexity: Best Case: Theta(1)
+     *            Worst Case: Theta(n): When the arrays are resized.
+     */
+    public void push(long v) {
+        if (size == tags.length) {
+            grow();
+        }
+        tags[size] = LONG;
+        longs[size++] = v;
+    }
+
+    /**
+     * Pushes a BigInteger value, as a LONG slot if it fits in a long.
+     * @param v
+     * PreCondition: v should not be null.
+     * Complexity: Best Case: Theta(1)
+     *            Worst Case: Theta(n): When the arrays are resized.
+     */
+    public void push(BigInteger v) {
+        if (v.bitLength() < Long.SIZE) {
+            push(v.longValue());
+            return;
+        }
+        if (size == tags.length) {
+            grow();
+        }
+        tags[size] = BIG_INTEGER;
+        bigIntegers[size++] = v;
+    }
+
+    /**
+     * Pushes a reference to a variable.
+     * @param name
+     * PreCondition: name should not be null.
+     * Complexity: Best Case: Theta(1)
+     *            Worst Case: Theta(n): When the arrays are resized.
+     */
+    public void pushVariable(String name) {
+        if (size == tags.length) {
+            grow();
+        }
+        tags[size] = VARIABLE;
+        variables[size++] = name;
+    }
+
+    /**
+     * Removes the top operand.
+     * PreCondition: the stack should not be empty.
+     * Complexity: Theta(1)
+     */
+    public void pop() {
+        if (size == 0) {
+            throw new RuntimeException("error: stack underflow exception");
+        }
+        clear(--size);
+    }
+
+    /**
+     * Removes the top n operands.
+     * @param n
+     * PreCondition: the stack should hold at least n operands.
+     * Complexity: Theta(n)
+     */
+    public void pop(int n) {
+        if (n > size) {
+            throw new RuntimeException("error: stack underflow exception");
+        }
+        for (int i = 0; i < n; i++) {
+            clear(--size);
+        }
+    }
+
+    /**
+     * Returns the tag of the operand n slots below the top.
+     * @param n: 0 for the top
+     * @return LONG, BIG_INTEGER or VARIABLE
+     * PreCondition: the stack should hold more than n operands.
+     */
+    public byte peekTag(int n) {
+        return tags[slot(n)];
+    }
+
+    public byte peekTag() {
+        return peekTag(0);
+    }
+
+    /**
+     * @param n: 0 for the top
+     * @return long
+     * PreCondition: peekTag(n) should be LONG.
+     */
+    public long peekLong(int n) {
+        return longs[slot(n)];
+    }
+
+    public long peekLong() {
+        return peekLong(0);
+    }
+
+    /**
+     * Returns the value n slots below the top as a BigInteger, boxing a long.
+     * @param n: 0 for the top
+     * @return BigInteger
+     * PreCondition: peekTag(n) should not be VARIABLE.
+     */
+    public BigInteger peekBigInteger(int n) {
+        int i = slot(n);
+        return tags[i] == LONG ? BigInteger.valueOf(longs[i]) : bigIntegers[i];
+    }
+
+    public BigInteger peekBigInteger() {
+        return peekBigInteger(0);
+    }
+
+    /**
+     * @param n: 0 for the top
+     * @return String: variable name
+     * PreCondition: peekTag(n) should be VARIABLE.
+     */
+    public String peekVariable(int n) {
+        return variables[slot(n)];
+    }
+
+    public String peekVariable() {
+        return peekVariable(0);
+    }
+
+    /**
+     * Replaces the operand n slots below the top by a value, for example a
+     * variable reference by the variable's value.
+     * @param n: 0 for the top
+     * @param v
+     * PreCondition: v should not be null.
+     */
+    public void set(int n, BigInteger v) {
+        int i = slot(n);
+        clear(i);
+        if (v.bitLength() < Long.SIZE) {
+            tags[i] = LONG;
+            longs[i] = v.longValue();
+        } else {
+            tags[i] = BIG_INTEGER;
+            bigIntegers[i] = v;
+        }
+    }
+
+    /**
+     * Pushes a copy of the top operand.
+     * PreCondition: the stack should not be empty.
+     */
+    public void dup() {
+        int i = slot(0);
+        if (size == tags.length) {
+            grow();
+        }
+        tags[size] = tags[i];
+        longs[size] = longs[i];
+        bigIntegers[size] = bigIntegers[i];
+        variables[size++] = variables[i];
+    }
+
+    /**
+     * Exchanges the top two operands.
+     * PreCondition: the stack should hold at least two operands.
+     */
+    public void swap() {
+        int i = slot(0);
+        int j = slot(1);
+        byte tag = tags[i];
+        tags[i] = tags[j];
+        tags[j] = tag;
+        long l = longs[i];
+        longs[i] = longs[j];
+        longs[j] = l;
+        BigInteger b = bigIntegers[i];
+        bigIntegers[i] = bigIntegers[j];
+        bigIntegers[j] = b;
+        String v = variables[i];
+        variables[i] = variables[j];
+        variables[j] = v;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Empties the stack, keeping its arrays for reuse.
+     * Complexity: Theta(n) in the number of operands on the stack.
+     */
+    public void reset() {
+        Arrays.fill(bigIntegers, 0, size, null);
+        Arrays.fill(variables, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns the array index of the operand n slots below the top.
+     */
+    private int slot(int n) {
+        if (n >= size) {
+            throw new RuntimeException("error: stack underflow exception");
+        }
+        return size - 1 - n;
+    }
+
+    /**
+     * Drops the references held by slot i so they can be collected.
+     */
+    private void clear(int i) {
+        bigIntegers[i] = null;
+        variables[i] = null;
+    }
+
+    /**
+     * Doubles the capacity of the stack.
+     * Complexity: Theta(n)
+     */
+    private void grow() {
+        int capacity = tags.length * 2;
+        tags = Arrays.copyOf(tags, capacity);
+        longs = Arrays.copyOf(longs, capacity);
+        bigIntegers = Arrays.copyOf(bigIntegers, capacity);
+        variables = Arrays.copyOf(variables, capacity);
+    }
+}
@@ -0,0 +1,46 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A map from variable names to values, kept in key order. Every tree engine
+ * implements it, so ReversePolishNotation and IncrementalEvaluator can run
+ * on whichever engine suits the workload.
+ */
+public interface OrderedMap {
+
+    /**
+     * Inserts a key value pair, replacing the value of an existing key.
+     * @param insertPair
+     * Pre-Condition: insertPair should not be null
+     */
+    void insert(KeyValuePair insertPair);
+
+    /**
+     * Returns the value stored against the entered key.
+     * @param key
+     * @return BigInteger.
+     * PreCondition: The key should exist in the map.
+     */
+    BigInteger lookup(String key);
+
+    boolean contains(String key);
+
+    /**
+     * Returns the number of levels of the underlying tree.
+     * @return integer
+     */
+    int height();
+
+    int getSize();
+
+    /**
+     * Visits every entry in ascending key order.
+     * @param visitor: called once per entry
+     * PreCondition: visitor should not modify the map.
+     */
+    void inOrderTraversal(Consumer<? super KeyValuePair> visitor);
+}
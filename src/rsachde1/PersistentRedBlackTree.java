@@ -0,0 +1,374 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A persistent Red Black Tree. Nodes are immutable and have no parent
+ * pointers. An update copies only the nodes on the path from the root to the
+ * changed key, O(log(n)) of them, and shares every other node with the
+ * previous version. The current version is a single volatile reference, so
+ * readers never lock: each read works on whichever version was current when
+ * it started, and snapshot() hands out such a version in O(1).
+ * Insertion follows Okasaki's balance; deletion follows Kahrs.
+ */
+public class PersistentRedBlackTree implements OrderedMap {
+
+    private volatile Version current;   //root and size, replaced as a whole by each update
+    private boolean added;              //set by insert(Node, ...) when it adds a leaf; guarded by this
+
+    public PersistentRedBlackTree() {
+        current = Version.EMPTY;
+    }
+
+    private PersistentRedBlackTree(Version version) {
+        current = version;
+    }
+
+    /**
+     * Returns a tree holding the current entries. It shares all its nodes with
+     * this tree, and the two are independent afterwards: updating either one
+     * does not change the other.
+     * @return PersistentRedBlackTree
+     * Complexity: Theta(1)
+     */
+    public PersistentRedBlackTree snapshot() {
+        return new PersistentRedBlackTree(current);
+    }
+
+    /**
+     * Inserts a key value pair in the tree, replacing the value of an
+     * existing key. Writers are serialized; readers are never blocked.
+     * @param insertPair
+     * Pre-Condition: insertPair should not be null
+     * Post-Condition: the insertPair will be inserted in the Red Black Tree
+     * Complexity: Theta(log(n)) time and new nodes.
+     */
+    public synchronized void insert(KeyValuePair insertPair) {
+        Version v = current;
+        added = false;
+        Node root = blacken(insert(v.root, insertPair.getKey(), insertPair.getValue()));
+        current = new Version(root, added ? v.size + 1 : v.size);
+    }
+
+    /**
+     * Deletes the entry with the entered key.
+     * @param key
+     * @return boolean: true if an entry was deleted.
+     * Complexity: Theta(log(n)) time and new nodes.
+     */
+    public synchronized boolean delete(String key) {
+        Version v = current;
+        if (!contains(v.root, key)) {
+            return false;
+        }
+        current = new Version(blacken(delete(v.root, key)), v.size - 1);
+        return true;
+    }
+
+    /**
+     * Returns the value stored against the entered key.
+     * @param key
+     * @return BigInteger.
+     * PreCondition: A node with the entered key should exist in the RB Tree.
+     * Complexity: Theta(log(n))
+     */
+    public BigInteger lookup(String key) {
+        Node n = find(current.root, key);
+        if (n == null) {
+            throw new RuntimeException("error: no variable " + key);
+        }
+        return n.value;
+    }
+
+    /**
+     * Checks if the tree contains a node with the key 'v'.
+     * @param v
+     * @return boolean
+     * Complexity: Theta(log(n))
+     */
+    public boolean contains(String v) {
+        return contains(current.root, v);
+    }
+
+    public int getSize() {
+        return current.size;
+    }
+
+    /**
+     * Returns the height of the tree, 0 if it is empty.
+     * @return integer
+     * Complexity: Theta(n)
+     */
+    public int height() {
+        Node root = current.root;
+        if (root == null) {
+            return 0;
+        }
+        int height = 0;
+        ArrayDeque<Node> level = new ArrayDeque<>();
+        level.add(root);
+        while (!level.isEmpty()) {
+            height++;
+            for (int i = level.size(); i > 0; i--) {
+                Node n = level.poll();
+                if (n.left != null) {
+                    level.add(n.left);
+                }
+                if (n.right != null) {
+                    level.add(n.right);
+                }
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Visits every entry of the current version in ascending key order. The
+     * visitor may update the tree; the traversal does not see the updates.
+     * @param visitor: called once per entry with a new KeyValuePair
+     * Complexity: Theta(n)
+     */
+    public void inOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        ArrayDeque<Node> path = new ArrayDeque<>();
+        Node cur = current.root;
+        while (cur != null || !path.isEmpty()) {
+            while (cur != null) {
+                path.push(cur);
+                cur = cur.left;
+            }
+            cur = path.pop();
+            visitor.accept(new KeyValuePair(cur.key, cur.value));
+            cur = cur.right;
+        }
+    }
+
+    /**
+     * A root and the number of entries under it.
+     */
+    private static final class Version {
+
+        static final Version EMPTY = new Version(null, 0);
+
+        final Node root;
+        final int size;
+
+        Version(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    /**
+     * An immutable node. null stands for the black leaves.
+     */
+    private static final class Node {
+
+        final String key;
+        final BigInteger value;
+        final boolean black;
+        final Node left;
+        final Node right;
+
+        Node(String key, BigInteger value, boolean black, Node left, Node right) {
+            this.key = key;
+            this.value = value;
+            this.black = black;
+            this.left = left;
+            this.right = right;
+        }
+
+        Node withColor(boolean black) {
+            return this.black == black ? this : new Node(key, value, black, left, right);
+        }
+    }
+
+    private static Node find(Node n, String key) {
+        while (n != null) {
+            int cmp = key.compareTo(n.key);
+            if (cmp == 0) {
+                return n;
+            }
+            n = cmp < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    private static boolean contains(Node n, String key) {
+        return find(n, key) != null;
+    }
+
+    private static boolean isRed(Node n) {
+        return n != null && !n.black;
+    }
+
+    /**
+     * A non-null black node; null leaves do not count.
+     */
+    private static boolean isBlack(Node n) {
+        return n != null && n.black;
+    }
+
+    private static Node red(String key, BigInteger value, Node left, Node right) {
+        return new Node(key, value, false, left, right);
+    }
+
+    private static Node black(String key, BigInteger value, Node left, Node right) {
+        return new Node(key, value, true, left, right);
+    }
+
+    private static Node blacken(Node n) {
+        return n == null ? null : n.withColor(true);
+    }
+
+    private Node insert(Node n, String key, BigInteger value) {
+        if (n == null) {
+            added = true;
+            return red(key, value, null, null);
+        }
+        int cmp = key.compareTo(n.key);
+        if (cmp < 0) {
+            return balanceLeft(n.black, n.key, n.value, insert(n.left, key, value), n.right);
+        } else if (cmp > 0) {
+            return balanceRight(n.black, n.key, n.value, n.left, insert(n.right, key, value));
+        }
+        return new Node(key, value, n.black, n.left, n.right);
+    }
+
+    /**
+     * Rebuilds a node whose new left subtree may have a red-red violation.
+     */
+    private static Node balanceLeft(boolean black, String key, BigInteger value, Node l, Node r) {
+        if (isRed(l) && isRed(l.left)) {
+            return red(l.key, l.value, l.left.withColor(true), black(key, value, l.right, r));
+        } else if (isRed(l) && isRed(l.right)) {
+            return red(l.right.key, l.right.value, black(l.key, l.value, l.left, l.right.left),
+                    black(key, value, l.right.right, r));
+        }
+        return new Node(key, value, black, l, r);
+    }
+
+    /**
+     * Rebuilds a node whose new right subtree may have a red-red violation.
+     */
+    private static Node balanceRight(boolean black, String key, BigInteger value, Node l, Node r) {
+        if (isRed(r) && isRed(r.left)) {
+            return red(r.left.key, r.left.value, black(key, value, l, r.left.left),
+                    black(r.key, r.value, r.left.right, r.right));
+        } else if (isRed(r) && isRed(r.right)) {
+            return red(r.key, r.value, black(key, value, l, r.left), r.right.withColor(true));
+        }
+        return new Node(key, value, black, l, r);
+    }
+
+    /**
+     * Removes key from the subtree n.
+     * PreCondition: key should be in the subtree.
+     */
+    private static Node delete(Node n, String key) {
+        int cmp = key.compareTo(n.key);
+        if (cmp < 0) {
+            Node l = delete(n.left, key);
+            return isBlack(n.left) ? balanceLeftShort(n.key, n.value, l, n.right)
+                    : red(n.key, n.value, l, n.right);
+        } else if (cmp > 0) {
+            Node r = delete(n.right, key);
+            return isBlack(n.right) ? balanceRightShort(n.key, n.value, n.left, r)
+                    : red(n.key, n.value, n.left, r);
+        }
+        return append(n.left, n.right);
+    }
+
+    /**
+     * Restores the invariants around a 4-node or a red-red pair.
+     */
+    private static Node balance(String key, BigInteger value, Node l, Node r) {
+        if (isRed(l)) {
+            if (isRed(r)) {
+                return red(key, value, l.withColor(true), r.withColor(true));
+            } else if (isRed(l.left)) {
+                return red(l.key, l.value, l.left.withColor(true), black(key, value, l.right, r));
+            } else if (isRed(l.right)) {
+                return red(l.right.key, l.right.value, black(l.key, l.value, l.left, l.right.left),
+                        black(key, value, l.right.right, r));
+            }
+        } else if (isRed(r)) {
+            if (isRed(r.right)) {
+                return red(r.key, r.value, black(key, value, l, r.left), r.right.withColor(true));
+            } else if (isRed(r.left)) {
+                return red(r.left.key, r.left.value, black(key, value, l, r.left.left),
+                        black(r.key, r.value, r.left.right, r.right));
+            }
+        }
+        return black(key, value, l, r);
+    }
+
+    /**
+     * Rebuilds a node whose left subtree lost one black level.
+     */
+    private static Node balanceLeftShort(String key, BigInteger value, Node l, Node r) {
+        if (isRed(l)) {
+            return red(key, value, l.withColor(true), r);
+        } else if (isBlack(r)) {
+            return balance(key, value, l, r.withColor(false));
+        } else if (isRed(r) && isBlack(r.left)) {
+            return red(r.left.key, r.left.value, black(key, value, l, r.left.left),
+                    balance(r.key, r.value, r.left.right, redden(r.right)));
+        }
+        throw new RuntimeException("error: red black invariant violated");
+    }
+
+    /**
+     * Rebuilds a node whose right subtree lost one black level.
+     */
+    private static Node balanceRightShort(String key, BigInteger value, Node l, Node r) {
+        if (isRed(r)) {
+            return red(key, value, l, r.withColor(true));
+        } else if (isBlack(l)) {
+            return balance(key, value, l.withColor(false), r);
+        } else if (isRed(l) && isBlack(l.right)) {
+            return red(l.right.key, l.right.value, balance(l.key, l.value, redden(l.left), l.right.left),
+                    black(key, value, l.right.right, r));
+        }
+        throw new RuntimeException("error: red black invariant violated");
+    }
+
+    private static Node redden(Node n) {
+        if (!isBlack(n)) {
+            throw new RuntimeException("error: red black invariant violated");
+        }
+        return n.withColor(false);
+    }
+
+    /**
+     * Joins the subtrees of a deleted node, all of whose keys in l are less
+     * than those in r.
+     */
+    private static Node append(Node l, Node r) {
+        if (l == null) {
+            return r;
+        } else if (r == null) {
+            return l;
+        } else if (isRed(l) && isRed(r)) {
+            Node middle = append(l.right, r.left);
+            if (isRed(middle)) {
+                return red(middle.key, middle.value, red(l.key, l.value, l.left, middle.left),
+                        red(r.key, r.value, middle.right, r.right));
+            }
+            return red(l.key, l.value, l.left, red(r.key, r.value, middle, r.right));
+        } else if (isBlack(l) && isBlack(r)) {
+            Node middle = append(l.right, r.left);
+            if (isRed(middle)) {
+                return red(middle.key, middle.value, black(l.key, l.value, l.left, middle.left),
+                        black(r.key, r.value, middle.right, r.right));
+            }
+            return balanceLeftShort(l.key, l.value, l.left, black(r.key, r.value, middle, r.right));
+        } else if (isRed(r)) {
+            return red(r.key, r.value, append(l, r.left), r.right);
+        }
+        return red(l.key, l.value, l.left, append(l.right, r));
+    }
+}
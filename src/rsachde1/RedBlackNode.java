@@ -7,10 +7,12 @@ package rsachde1;
 public class RedBlackNode {
 
     private KeyValuePair data;
+    private long prefix;            //SymbolTable.prefix() of the key, 0 without data
     private Color color;            //Color can be RED or BLACK
     private RedBlackNode parent;    //points to the parent ofthe node
     private RedBlackNode left;      //points to the left child
     private RedBlackNode right;     //points to the right child
+    private int size;               //number of nodes in the subtree rooted here
 
     //Color of the node
     public enum Color {
@@ -19,6 +21,7 @@ public class RedBlackNode {
 
     public RedBlackNode(KeyValuePair data, Color color, RedBlackNode parent, RedBlackNode left, RedBlackNode right) {
         this.data = data;
+        this.prefix = data == null ? 0 : SymbolTable.prefix(data.getKey());
         this.color = color;
         this.parent = parent;
         this.left = left;
@@ -36,6 +39,16 @@ public class RedBlackNode {
 
     public void setData(KeyValuePair data) {
         this.data = data;
+        this.prefix = data == null ? 0 : SymbolTable.prefix(data.getKey());
+    }
+
+    /**
+     * Returns the packed first characters of the key, so a search can order
+     * most keys without reading the String.
+     * @return long
+     */
+    public long getPrefix() {
+        return prefix;
     }
 
     public Color getColor() {
@@ -69,4 +82,12 @@ public class RedBlackNode {
     public void setRight(RedBlackNode right) {
         this.right = right;
     }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
 }
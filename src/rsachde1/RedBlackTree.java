@@ -1,26 +1,55 @@
 package rsachde1;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 
  * @author Raj.Sachdev
  * This class defines a Red Black Tree.
  */
-public class RedBlackTree extends Object {
+public class RedBlackTree extends Object implements OrderedMap {
+
+    private static final Consumer<KeyValuePair> PRINT =
+            t -> System.out.println(t.getKey() + ": " + t.getValue());
+    private static final Comparator<KeyValuePair> ASCENDING_KEYS =
+            (a, b) -> a.getKey().compareTo(b.getKey());
+    private static final Comparator<KeyValuePair> DESCENDING_KEYS = ASCENDING_KEYS.reversed();
+    private static final int MAX_FINGER_BACKOFF = 6;    //after misses, skip the finger up to 2^6 - 1 times
 
     private RedBlackNode tree;          //root node of the tree
-    private static RedBlackNode nil;    //nil acts as a sentinel node
-    private int numberOfInsertions;     //number of nodes inserted so far in the tree
+    private final RedBlackNode nil;     //nil acts as a sentinel node, one per tree
     private int recentCompares;         //number of compares in the last search in the tree
+    private RedBlackNode finger;        //node reached by the last search or insert, nil if none
+    private boolean fingerSearch;       //start searches from finger rather than from the root
+    private int fingerMisses;           //finger searches in a row that gave up and restarted at the root
+    private int fingerSkips;            //searches to start at the root before trying the finger again
+    private RedBlackNode searchParent;  //last node visited by the last findNode(), nil if none
+    private int searchCmp;              //key of the last findNode() compared to searchParent's
+    private volatile boolean concurrentReads;   //lookups may run in parallel: they search from the root and write no field
+    private TreeMetrics metrics;        //cumulative counters, may be shared between trees
 
     public RedBlackTree() {
         //default constructor
-        nil = new RedBlackNode(null, RedBlackNode.Color.BLACK, nil, nil, nil);
+        nil = new RedBlackNode(null, RedBlackNode.Color.BLACK, null, null, null);
+        nil.setParent(nil);
+        nil.setLeft(nil);
+        nil.setRight(nil);
         tree = nil;
-        numberOfInsertions = 0;
         recentCompares = 0;
+        finger = nil;
+        fingerSearch = true;
+        searchParent = nil;
+        metrics = new TreeMetrics();
     }
     
     /**
@@ -30,27 +59,28 @@ public class RedBlackTree extends Object {
      * Post-Condition: the insertPair will be inserted in the Red Black Tree
      */
     public void insert(KeyValuePair insertPair) {
-        RedBlackNode y = nil;
-        RedBlackNode x = tree;
+        insertPair(insertPair);
+    }
+    
+    /**
+     * Helper method for insert() and insertAll().
+     * @param insertPair
+     */
+    private void insertPair(KeyValuePair insertPair) {
+        RedBlackNode x = findNode(insertPair.getKey());
+        if (x != nil) {
+            x.getData().setValue(insertPair.getValue());
+            metrics.recordInsert(recentCompares);
+            return;
+        }
+        RedBlackNode y = searchParent;
         RedBlackNode z = new RedBlackNode();
         z.setData(insertPair);
-        while (x != nil) {
-            y = x;
-            if (insertPair.getKey().equals(x.getData().getKey())) {
-                x.getData().setValue(insertPair.getValue());
-                return;
-            }
-            if (insertPair.getKey().compareTo(x.getData().getKey()) < 0) {
-                x = x.getLeft();
-            } else {
-                x = x.getRight();
-            }
-        }
         z.setParent(y);
         if (y == nil) {
             tree = z;
         } else {
-            if (insertPair.getKey().compareTo(y.getData().getKey()) < 0) {
+            if (searchCmp < 0) {
                 y.setLeft(z);
             } else {
                 y.setRight(z);
@@ -59,59 +89,241 @@ public class RedBlackTree extends Object {
         z.setLeft(nil);
         z.setRight(nil);
         z.setColor(RedBlackNode.Color.RED);
+        z.setSize(1);
+        for (RedBlackNode p = y; p != nil; p = p.getParent()) {
+            p.setSize(p.getSize() + 1);
+        }
         RBInsertFixup(z);
-        this.numberOfInsertions++;
+        finger = z;
+        metrics.recordInsert(recentCompares);
     }
     
     /**
-     * Performs an inorder traversal in the red black tree
+     * Builds a tree from n entries sorted by strictly ascending key, in linear
+     * time. The tree is perfectly balanced; every level is black except the
+     * deepest one when it is incomplete, which is red, so no fixup is needed.
+     * @param sorted: iterator over at least n entries in ascending key order
+     * @param n: number of entries to take from sorted
+     * @return RedBlackTree holding the n entries
+     * PreCondition: the keys should be strictly ascending.
+     * Complexity: Theta(n)
      */
-    public void inOrderTraversal() {
-        inOrderTraversal(tree);
+    public static RedBlackTree buildFromSorted(Iterator<KeyValuePair> sorted, int n) {
+        RedBlackTree t = new RedBlackTree();
+        t.build(sorted, n);
+        return t;
     }
     
     /**
-     * Helper method for inOrderTraversal() method. Recursively carries out inorder traversal 
-     * in the red black tree.
-     * @param t: Pointer to a node in the tree 
+     * Inserts a batch of entries. The batch is sorted first, with later
+     * entries winning over earlier ones with the same key. Large batches are
+     * merged with the existing entries and the tree is rebuilt in linear time;
+     * small ones are inserted one by one in key order.
+     * @param pairs
+     * PreCondition: pairs should not be null or contain nulls.
+     * PostCondition: the tree holds the same entries as after inserting each
+     * pair in turn.
+     * Complexity: Theta(k log(k) + min(k log(n), n + k)) for k pairs.
      */
-    private void inOrderTraversal(RedBlackNode t) {
-        if (t != nil) {
-            if (t.getLeft() != nil) {
-                inOrderTraversal(t.getLeft());
+    public void insertAll(Collection<? extends KeyValuePair> pairs) {
+        KeyValuePair[] batch = pairs.toArray(new KeyValuePair[pairs.size()]);
+        Arrays.sort(batch, ASCENDING_KEYS);     //stable, so equal keys keep their order
+        int k = 0;
+        for (int i = 0; i < batch.length; i++) {
+            if (k > 0 && batch[k - 1].getKey().equals(batch[i].getKey())) {
+                batch[k - 1] = batch[i];
+            } else {
+                batch[k++] = batch[i];
             }
-            System.out.println(t.getData().getKey() + ": " + t.getData().getValue());
-            if (t.getRight() != nil) {
-                inOrderTraversal(t.getRight());
+        }
+        int n = tree.getSize();
+        if (n == 0) {
+            build(Arrays.asList(batch).iterator(), k);
+        } else if ((long) k * (32 - Integer.numberOfLeadingZeros(n)) < (long) n + k) {
+            for (int i = 0; i < k; i++) {
+                insertPair(batch[i]);
+            }
+        } else {
+            KeyValuePair[] merged = new KeyValuePair[n + k];
+            int m = 0;
+            int i = 0;
+            for (RedBlackNode t = minimum(tree); t != nil; t = successor(t)) {
+                KeyValuePair existing = t.getData();
+                while (i < k && batch[i].getKey().compareTo(existing.getKey()) < 0) {
+                    merged[m++] = batch[i++];
+                }
+                if (i < k && batch[i].getKey().equals(existing.getKey())) {
+                    existing.setValue(batch[i++].getValue());
+                }
+                merged[m++] = existing;
             }
+            while (i < k) {
+                merged[m++] = batch[i++];
+            }
+            build(Arrays.asList(merged).iterator(), m);
         }
     }
     
     /**
-     * Performs a reverse inorder traversal in the Red Black Tree.
+     * Replaces the contents of this tree with n entries from sorted.
+     * @param sorted
+     * @param n
+     */
+    private void build(Iterator<KeyValuePair> sorted, int n) {
+        KeyValuePair[] last = new KeyValuePair[1];
+        tree = build(sorted, 0, 0, n - 1, redLevel(n), last);
+        tree.setParent(nil);
+        finger = nil;
+    }
+    
+    /**
+     * Recursively builds a balanced subtree from the entries at positions
+     * lo..hi of sorted, consuming them in order.
+     * @param level: depth of the subtree root, 0 for the tree root
+     * @param redLevel: depth whose nodes are colored red
+     * @param last: last entry consumed, to check the order
+     * @return RedBlackNode: root of the subtree, nil if lo > hi.
+     */
+    private RedBlackNode build(Iterator<KeyValuePair> sorted, int level, int lo, int hi,
+            int redLevel, KeyValuePair[] last) {
+        if (hi < lo) {
+            return nil;
+        }
+        int mid = (lo + hi) >>> 1;
+        RedBlackNode left = build(sorted, level + 1, lo, mid - 1, redLevel, last);
+        KeyValuePair data = sorted.next();
+        if (last[0] != null && last[0].getKey().compareTo(data.getKey()) >= 0) {
+            throw new RuntimeException("error: keys are not strictly ascending at " + data.getKey());
+        }
+        last[0] = data;
+        RedBlackNode.Color color = level == redLevel ? RedBlackNode.Color.RED : RedBlackNode.Color.BLACK;
+        RedBlackNode middle = new RedBlackNode(data, color, nil, left, nil);
+        if (left != nil) {
+            left.setParent(middle);
+        }
+        RedBlackNode right = build(sorted, level + 1, mid + 1, hi, redLevel, last);
+        middle.setRight(right);
+        if (right != nil) {
+            right.setParent(middle);
+        }
+        middle.setSize(hi - lo + 1);
+        return middle;
+    }
+    
+    /**
+     * Returns the depth of the deepest level of a balanced tree of n nodes if
+     * that level is incomplete, or a depth below the tree if it is full. Only
+     * that level is colored red, which keeps the black heights equal.
+     * @param n
+     * @return integer
+     */
+    private static int redLevel(int n) {
+        int level = 0;
+        for (int m = n - 1; m >= 0; m = m / 2 - 1) {
+            level++;
+        }
+        return level;
+    }
+    
+    /**
+     * Performs an inorder traversal in the red black tree, printing each entry.
+     */
+    public void inOrderTraversal() {
+        inOrderTraversal(PRINT);
+    }
+    
+    /**
+     * Visits every entry in ascending key order. The traversal is iterative,
+     * following parent pointers, so it uses constant stack and heap space.
+     * @param visitor: called once per entry
+     * PreCondition: visitor should not modify the tree.
+     * Complexity: Theta(n)
+     */
+    public void inOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        if (tree == nil) {
+            return;
+        }
+        for (RedBlackNode t = minimum(tree); t != nil; t = successor(t)) {
+            visitor.accept(t.getData());
+        }
+    }
+    
+    /**
+     * Performs a reverse inorder traversal in the Red Black Tree, printing
+     * each entry.
      */
     public void reverseOrderTraversal() {
-        reverseOrderTraversal(tree);
+        reverseOrderTraversal(PRINT);
     }
     
     /**
-     * Helper method for reverseOrderTraversal() method. Recursively 
-     * carries out reverse inorder traversal in the red black tree.
-     * @param t: Pointer to a node in the tree 
+     * Visits every entry in descending key order, iteratively.
+     * @param visitor: called once per entry
+     * PreCondition: visitor should not modify the tree.
+     * Complexity: Theta(n)
      */
-    private void reverseOrderTraversal(RedBlackNode t) {
-        if (t != nil) {
-            if (t.getRight() != nil) {
-                inOrderTraversal(t.getRight());
-            }
-            System.out.println(t.getData().getKey() + ": " + t.getData().getValue());
-            if (t.getLeft() != nil) {
-                inOrderTraversal(t.getLeft());
-            }
-
+    public void reverseOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        if (tree == nil) {
+            return;
+        }
+        for (RedBlackNode t = maximum(tree); t != nil; t = predecessor(t)) {
+            visitor.accept(t.getData());
         }
     }
     
+    /**
+     * Returns a sized, splittable Spliterator over the entries in ascending
+     * key order. Splitting uses the subtree sizes to cut the remaining range
+     * in half in O(log(n)).
+     * @return Spliterator
+     * PreCondition: the tree should not be modified while it is in use.
+     */
+    public Spliterator<KeyValuePair> spliterator() {
+        return new TreeSpliterator(false);
+    }
+    
+    /**
+     * Returns a sized, splittable Spliterator over the entries in descending
+     * key order.
+     * @return Spliterator
+     * PreCondition: the tree should not be modified while it is in use.
+     */
+    public Spliterator<KeyValuePair> descendingSpliterator() {
+        return new TreeSpliterator(true);
+    }
+    
+    /**
+     * Returns a sequential Stream of the entries in ascending key order.
+     * @return Stream
+     */
+    public Stream<KeyValuePair> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+    
+    /**
+     * Returns a parallel Stream of the entries in ascending key order.
+     * @return Stream
+     */
+    public Stream<KeyValuePair> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+    
+    /**
+     * Returns a sequential Stream of the entries in descending key order.
+     * @return Stream
+     */
+    public Stream<KeyValuePair> descendingStream() {
+        return StreamSupport.stream(descendingSpliterator(), false);
+    }
+    
+    /**
+     * Returns a parallel Stream of the entries in descending key order.
+     * @return Stream
+     */
+    public Stream<KeyValuePair> descendingParallelStream() {
+        return StreamSupport.stream(descendingSpliterator(), true);
+    }
+    
     /**
      * Checks if the tree contains a node with the key 'v'.
      * @param v
@@ -122,27 +334,19 @@ public class RedBlackTree extends Object {
      * Complexity: Theta(log(n))
      */
     public boolean contains(String v) {
-        this.recentCompares = 0;
-        RedBlackNode cur = tree;
-        boolean found = false;
-        while (cur != nil) {
-            this.recentCompares++;
-            if (cur.getData().getKey().equals(v)) {
-                found = true;
-                break;
-            }
-            if (cur.getData().getKey().compareTo(v) < 0) {
-                cur = cur.getLeft();
-            } else {
-                cur = cur.getRight();
-            }
+        if (concurrentReads) {
+            return findShared(v) != nil;
         }
+        boolean found = findNode(v) != nil;
+        metrics.recordLookup(recentCompares);
         return found;
     }
     
     /**
-     * Returns the number of comparisons made during the last search
-     * in the red black tree.
+     * Returns the number of comparisons made during the last search, insert
+     * or delete in the red black tree. This is a plain field, so with several
+     * threads it is only meaningful to the thread that ran the operation;
+     * use getMetrics() for cumulative counts.
      * @return integer
      * Complexity: Theta(1)
      */
@@ -150,44 +354,161 @@ public class RedBlackTree extends Object {
         return this.recentCompares;
     }
     
+    /**
+     * Returns the cumulative counters of this tree.
+     * @return TreeMetrics
+     */
+    public TreeMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Makes this tree count into metrics, for example to share one set of
+     * counters between several trees.
+     * @param metrics
+     * PreCondition: metrics should not be null.
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
     /**
      * Returns the number of nodes in the RB Tree.
      * @return integer
      * Complexity: Theta(1)
      */
     public int getSize() {
-        return numberOfInsertions;
+        return tree.getSize();
     }
     
     /**
-     * Returns the height of the RB Tree.
-     * @return Integer
+     * Returns the number of keys in the RB Tree that are less than key.
+     * @param key
+     * @return integer
+     * PreCondition: key should not be null.
+     * Complexity: Theta(log(n))
      */
-    public int height() {
-        return height(this.tree);
+    public int rank(String key) {
+        return rankOf(key);
     }
     
     /**
-     * Helper method for the height() method.
-     * @param t: a node in the RB tree
-     * @return Integer: height of the tree.
+     * Returns the entry with the k-th smallest key, counting from 0.
+     * @param k
+     * @return KeyValuePair
+     * PreCondition: 0 <= k < getSize()
+     * Complexity: Theta(log(n))
      */
-    private int height(RedBlackNode t) {
-        if (t == nil) {
-            return 0;
+    public KeyValuePair select(int k) {
+        if (k < 0 || k >= tree.getSize()) {
+            throw new RuntimeException("error: no key at index " + k);
         }
-        int lHeight = 1;
-        int rHeight = 1;
-        if (t.getLeft() != nil) {
-            lHeight = 1 + height(t.getLeft());
+        return selectNode(k).getData();
+    }
+    
+    /**
+     * Returns the number of keys with lo <= key < hi.
+     * @param lo: inclusive lower bound
+     * @param hi: exclusive upper bound
+     * @return integer
+     * Complexity: Theta(log(n))
+     */
+    public int countInRange(String lo, String hi) {
+        return Math.max(0, rankOf(hi) - rankOf(lo));
+    }
+    
+    /**
+     * Helper method for rank() and countInRange().
+     * @param key
+     * @return integer: number of keys less than key.
+     */
+    private int rankOf(String key) {
+        int rank = 0;
+        RedBlackNode cur = tree;
+        while (cur != nil) {
+            if (key.compareTo(cur.getData().getKey()) <= 0) {
+                cur = cur.getLeft();
+            } else {
+                rank += cur.getLeft().getSize() + 1;
+                cur = cur.getRight();
+            }
         }
-        if (t.getRight() != nil) {
-            rHeight = 1 + height(t.getRight());
+        return rank;
+    }
+    
+    /**
+     * Returns the node with the k-th smallest key, counting from 0.
+     * @param k
+     * PreCondition: 0 <= k < getSize()
+     */
+    RedBlackNode selectNode(int k) {
+        RedBlackNode cur = tree;
+        while (true) {
+            int leftSize = cur.getLeft().getSize();
+            if (k < leftSize) {
+                cur = cur.getLeft();
+            } else if (k == leftSize) {
+                return cur;
+            } else {
+                k -= leftSize + 1;
+                cur = cur.getRight();
+            }
         }
-        if (lHeight > rHeight) {
-            return lHeight;
-        } else {
-            return rHeight;
+    }
+    
+    /**
+     * Returns the root node of the tree, nil if the tree is empty.
+     * @return RedBlackNode
+     */
+    RedBlackNode getRoot() {
+        return tree;
+    }
+    
+    /**
+     * Returns the sentinel node of this tree.
+     * @return RedBlackNode
+     */
+    RedBlackNode getNil() {
+        return nil;
+    }
+    
+    /**
+     * Returns the height of the RB Tree. Walks the tree in order through the
+     * parent pointers, tracking the depth, instead of recursing.
+     * @return Integer
+     * Complexity: Theta(n)
+     */
+    public int height() {
+        if (tree == nil) {
+            return 0;
+        }
+        RedBlackNode t = tree;
+        int depth = 1;
+        while (t.getLeft() != nil) {
+            t = t.getLeft();
+            depth++;
+        }
+        int max = depth;
+        while (true) {
+            if (t.getRight() != nil) {
+                t = t.getRight();
+                depth++;
+                while (t.getLeft() != nil) {
+                    t = t.getLeft();
+                    depth++;
+                }
+                max = Math.max(max, depth);
+            } else {
+                while (t.getParent() != nil && t == t.getParent().getRight()) {
+                    t = t.getParent();
+                    depth--;
+                }
+                t = t.getParent();
+                depth--;
+                if (t == nil) {
+                    return max;
+                }
+            }
         }
     }
     
@@ -201,23 +522,442 @@ public class RedBlackTree extends Object {
      * Complexity: Theta(log(n))
      */
     public BigInteger lookup(String key) {
+        RedBlackNode node;
+        if (concurrentReads) {
+            node = findShared(key);
+        } else {
+            node = findNode(key);
+            metrics.recordLookup(recentCompares);
+        }
+        if (node == nil) {
+            throw new RuntimeException("error: no variable " + key);
+        }
+        return node.getData().getValue();
+    }
+    
+    /**
+     * Deletes the node with the entered key from the RB Tree.
+     * @param key
+     * @return boolean: true if a node was deleted, false if the key was absent.
+     * PreCondition: key should not be null.
+     * PostCondition: No node with the key remains and the tree is a valid RB Tree.
+     * Complexity: Theta(log(n))
+     */
+    public boolean delete(String key) {
+        RedBlackNode z = findNode(key);
+        metrics.recordDelete(recentCompares);
+        if (z == nil) {
+            return false;
+        }
+        finger = nil;
+        RedBlackNode y = z;
+        RedBlackNode.Color yOriginalColor = y.getColor();
+        RedBlackNode x;
+        if (z.getLeft() == nil) {
+            x = z.getRight();
+            transplant(z, z.getRight());
+        } else if (z.getRight() == nil) {
+            x = z.getLeft();
+            transplant(z, z.getLeft());
+        } else {
+            y = minimum(z.getRight());
+            yOriginalColor = y.getColor();
+            x = y.getRight();
+            if (y.getParent() == z) {
+                x.setParent(y);
+            } else {
+                transplant(y, y.getRight());
+                y.setRight(z.getRight());
+                y.getRight().setParent(y);
+            }
+            transplant(z, y);
+            y.setLeft(z.getLeft());
+            y.getLeft().setParent(y);
+            y.setColor(z.getColor());
+        }
+        // every subtree that lost a node is on the path from x's parent to the root
+        for (RedBlackNode p = x.getParent(); p != nil; p = p.getParent()) {
+            p.setSize(p.getLeft().getSize() + p.getRight().getSize() + 1);
+        }
+        if (yOriginalColor == RedBlackNode.Color.BLACK) {
+            RBDeleteFixup(x);
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the entry with the greatest key less than or equal to key.
+     * @param key
+     * @return KeyValuePair, or null if there is no such key.
+     * Complexity: Theta(log(n))
+     */
+    public KeyValuePair floor(String key) {
+        return dataOf(floorNode(key, true));
+    }
+    
+    /**
+     * Returns the entry with the greatest key strictly less than key.
+     * @param key
+     * @return KeyValuePair, or null if there is no such key.
+     * Complexity: Theta(log(n))
+     */
+    public KeyValuePair lower(String key) {
+        return dataOf(floorNode(key, false));
+    }
+    
+    /**
+     * Returns the entry with the least key greater than or equal to key.
+     * @param key
+     * @return KeyValuePair, or null if there is no such key.
+     * Complexity: Theta(log(n))
+     */
+    public KeyValuePair ceiling(String key) {
+        return dataOf(ceilingNode(key, true));
+    }
+    
+    /**
+     * Returns the entry with the least key strictly greater than key.
+     * @param key
+     * @return KeyValuePair, or null if there is no such key.
+     * Complexity: Theta(log(n))
+     */
+    public KeyValuePair higher(String key) {
+        return dataOf(ceilingNode(key, false));
+    }
+    
+    /**
+     * Returns a lazy iterator over the entries with from <= key < to, in
+     * ascending key order. The iterator steps with parent pointers, so each
+     * step is O(1) amortized and allocates nothing.
+     * @param from: inclusive lower bound
+     * @param to: exclusive upper bound
+     * @return Iterator over the KeyValuePairs in the range.
+     * PreCondition: from and to should not be null, and the tree should not be
+     * modified while the iterator is in use.
+     * Complexity: Theta(log(n)) to start, Theta(1) amortized per step.
+     */
+    public Iterator<KeyValuePair> range(String from, final String to) {
+        final RedBlackNode first = ceilingNode(from, true);
+        return new Iterator<KeyValuePair>() {
+            private RedBlackNode next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next != nil && next.getData().getKey().compareTo(to) < 0;
+            }
+
+            @Override
+            public KeyValuePair next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                KeyValuePair data = next.getData();
+                next = successor(next);
+                return data;
+            }
+        };
+    }
+    
+    /**
+     * Returns the node holding key, or nil. Sets recentCompares, and leaves
+     * the last node visited and the side key belongs on in searchParent and
+     * searchCmp for insertPair().
+     *
+     * Each level costs one three-way compare, which the node prefixes usually
+     * settle without reading the Strings. Every key in the subtree being
+     * searched lies between the nearest ancestors key went right and left
+     * of, so it shares with key at least as many leading characters as key
+     * shares with both of them, and the compare skips those.
+     *
+     * With finger search on, the search starts at the node the previous one
+     * ended at. Say key is greater than the finger's. Then it climbs, and at
+     * each ancestor it reaches from a left child, which bounds the subtree
+     * below from above, it compares key: if key is smaller, key lies in that
+     * subtree, and the search descends from there. For keys d positions
+     * apart that is O(log(d)) compares. A distant key would climb to the root
+     * and pay up to twice a search from the root, so the climb gives up after
+     * half the height of a balanced tree of this size and the search restarts
+     * at the root. A finger search that costs more compares than that height
+     * is a miss, and each miss in a row doubles the number of following
+     * searches that start at the root directly, up to 2^MAX_FINGER_BACKOFF,
+     * so a random stream of keys rarely pays for the finger.
+     * @param key
+     * @return RedBlackNode
+     */
+    private RedBlackNode findNode(String key) {
+        long prefix = SymbolTable.prefix(key);
+        RedBlackNode parent = nil;
         RedBlackNode cur = tree;
-        BigInteger value = null;
+        int cmp = 0;
+        int lowCommon = 0;      //characters key shares with the greatest key it is known to be above
+        int highCommon = 0;     //characters key shares with the least key it is known to be below
+        int compares = 0;
+        RedBlackNode f = finger;
+        boolean useFinger = fingerSearch && f != nil;
+        if (useFinger && fingerSkips > 0) {
+            fingerSkips--;
+            useFinger = false;
+        }
+        int balancedHeight = 32 - Integer.numberOfLeadingZeros(tree.getSize());
+        if (useFinger) {
+            int climbLimit = Math.max(2, balancedHeight / 2);
+            compares++;
+            cmp = SymbolTable.compare(key, prefix, f.getData().getKey(), f.getPrefix(), 0);
+            if (cmp == 0) {
+                this.recentCompares = compares;
+                return f;
+            }
+            if (cmp < 0) {
+                highCommon = -cmp - 1;
+            } else {
+                lowCommon = cmp - 1;
+            }
+            parent = f;
+            for (RedBlackNode x = f, p = f.getParent(); p != nil; x = p, p = p.getParent()) {
+                if ((x == p.getLeft()) != (cmp > 0)) {
+                    continue;   //p is beyond the other end of x's subtree, so it bounds nothing new
+                }
+                compares++;
+                int c = SymbolTable.compare(key, prefix, p.getData().getKey(), p.getPrefix(), 0);
+                if (c == 0) {
+                    this.recentCompares = compares;
+                    finger = p;
+                    return p;
+                }
+                if (c < 0) {
+                    highCommon = -c - 1;
+                } else {
+                    lowCommon = c - 1;
+                }
+                if ((c > 0) != (cmp > 0)) {
+                    break;      //key lies in the subtree of parent
+                }
+                parent = p;
+                if (compares > climbLimit) {
+                    parent = nil;   //too far: search from the root
+                    break;
+                }
+            }
+            if (parent == nil) {
+                lowCommon = 0;
+                highCommon = 0;
+            } else {
+                cur = cmp > 0 ? parent.getRight() : parent.getLeft();
+            }
+        }
         while (cur != nil) {
-            if (cur.getData().getKey().equals(key)) {
-                value = cur.getData().getValue();
+            parent = cur;
+            compares++;
+            cmp = SymbolTable.compare(key, prefix, cur.getData().getKey(), cur.getPrefix(),
+                    Math.min(lowCommon, highCommon));
+            if (cmp == 0) {
                 break;
             }
-            if (key.compareTo(cur.getData().getKey()) < 0) {
+            if (cmp < 0) {
+                highCommon = -cmp - 1;
                 cur = cur.getLeft();
             } else {
+                lowCommon = cmp - 1;
                 cur = cur.getRight();
             }
         }
-        if (value == null) {
-            throw new RuntimeException("error: no variable " + key);
+        if (useFinger) {
+            if (compares > balancedHeight) {
+                fingerMisses = Math.min(fingerMisses + 1, MAX_FINGER_BACKOFF);
+                fingerSkips = (1 << fingerMisses) - 1;
+            } else {
+                fingerMisses = 0;
+            }
+        }
+        this.recentCompares = compares;
+        searchParent = parent;
+        searchCmp = cmp;
+        finger = cur != nil ? cur : parent;
+        return cur;
+    }
+    
+    /**
+     * Returns the node holding key, or nil, searching from the root as
+     * findNode() does but without reading or moving the finger or writing
+     * any field, so that several threads may run it at once.
+     * @param key
+     * @return RedBlackNode
+     */
+    private RedBlackNode findShared(String key) {
+        long prefix = SymbolTable.prefix(key);
+        RedBlackNode cur = tree;
+        int lowCommon = 0;
+        int highCommon = 0;
+        int compares = 0;
+        while (cur != nil) {
+            compares++;
+            int cmp = SymbolTable.compare(key, prefix, cur.getData().getKey(), cur.getPrefix(),
+                    Math.min(lowCommon, highCommon));
+            if (cmp == 0) {
+                break;
+            }
+            if (cmp < 0) {
+                highCommon = -cmp - 1;
+                cur = cur.getLeft();
+            } else {
+                lowCommon = cmp - 1;
+                cur = cur.getRight();
+            }
+        }
+        metrics.recordLookup(compares);
+        return cur;
+    }
+    
+    /**
+     * Declares whether lookup() and contains() may run concurrently with
+     * each other, for instance under the shared side of a read-write lock.
+     * While they may, they search from the root and write no field of the
+     * tree; getRecentCompares() then only reflects inserts and deletes.
+     * Inserts and deletes still need exclusive access.
+     * @param enabled
+     */
+    public void setConcurrentReads(boolean enabled) {
+        concurrentReads = enabled;
+    }
+    
+    public boolean isConcurrentReads() {
+        return concurrentReads;
+    }
+    
+    /**
+     * Turns finger search on (the default) or off. With it off, every
+     * search starts from the root.
+     * @param enabled
+     */
+    public void setFingerSearch(boolean enabled) {
+        fingerSearch = enabled;
+    }
+    
+    public boolean isFingerSearch() {
+        return fingerSearch;
+    }
+    
+    /**
+     * Returns the node with the greatest key below key (or equal to it, if
+     * inclusive), or nil.
+     */
+    private RedBlackNode floorNode(String key, boolean inclusive) {
+        RedBlackNode cur = tree;
+        RedBlackNode best = nil;
+        while (cur != nil) {
+            int cmp = key.compareTo(cur.getData().getKey());
+            if (cmp == 0 && inclusive) {
+                return cur;
+            }
+            if (cmp > 0) {
+                best = cur;
+                cur = cur.getRight();
+            } else {
+                cur = cur.getLeft();
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Returns the node with the least key above key (or equal to it, if
+     * inclusive), or nil.
+     */
+    private RedBlackNode ceilingNode(String key, boolean inclusive) {
+        RedBlackNode cur = tree;
+        RedBlackNode best = nil;
+        while (cur != nil) {
+            int cmp = key.compareTo(cur.getData().getKey());
+            if (cmp == 0 && inclusive) {
+                return cur;
+            }
+            if (cmp < 0) {
+                best = cur;
+                cur = cur.getLeft();
+            } else {
+                cur = cur.getRight();
+            }
         }
-        return value;
+        return best;
+    }
+    
+    private KeyValuePair dataOf(RedBlackNode t) {
+        return t == nil ? null : t.getData();
+    }
+    
+    /**
+     * Returns the node with the smallest key in the subtree rooted at t.
+     * @param t
+     * PreCondition: t should not be nil
+     */
+    private RedBlackNode minimum(RedBlackNode t) {
+        while (t.getLeft() != nil) {
+            t = t.getLeft();
+        }
+        return t;
+    }
+    
+    /**
+     * Returns the in-order successor of t, or nil if t holds the largest key.
+     * @param t
+     * PreCondition: t should not be nil
+     */
+    private RedBlackNode successor(RedBlackNode t) {
+        if (t.getRight() != nil) {
+            return minimum(t.getRight());
+        }
+        RedBlackNode p = t.getParent();
+        while (p != nil && t == p.getRight()) {
+            t = p;
+            p = p.getParent();
+        }
+        return p;
+    }
+    
+    /**
+     * Returns the node with the largest key in the subtree rooted at t.
+     * @param t
+     * PreCondition: t should not be nil
+     */
+    private RedBlackNode maximum(RedBlackNode t) {
+        while (t.getRight() != nil) {
+            t = t.getRight();
+        }
+        return t;
+    }
+    
+    /**
+     * Returns the in-order predecessor of t, or nil if t holds the smallest key.
+     * @param t
+     * PreCondition: t should not be nil
+     */
+    private RedBlackNode predecessor(RedBlackNode t) {
+        if (t.getLeft() != nil) {
+            return maximum(t.getLeft());
+        }
+        RedBlackNode p = t.getParent();
+        while (p != nil && t == p.getLeft()) {
+            t = p;
+            p = p.getParent();
+        }
+        return p;
+    }
+    
+    /**
+     * Replaces the subtree rooted at u with the subtree rooted at v.
+     * @param u
+     * @param v
+     * PostCondition: v's parent is u's old parent, even when v is nil.
+     */
+    private void transplant(RedBlackNode u, RedBlackNode v) {
+        if (u.getParent() == nil) {
+            tree = v;
+        } else if (u == u.getParent().getLeft()) {
+            u.getParent().setLeft(v);
+        } else {
+            u.getParent().setRight(v);
+        }
+        v.setParent(u.getParent());
     }
     
     /**
@@ -228,7 +968,10 @@ public class RedBlackTree extends Object {
      * PostCondition: The tree will be fixed as per the rules of an RB tree.
      */
     private void RBInsertFixup(RedBlackNode z) {
+        int iterations = 0;
+        int recolored = 0;
         while (z.getParent().getColor() == RedBlackNode.Color.RED) {
+            iterations++;
             if (z.getParent() == z.getParent().getParent().getLeft()) {
                 RedBlackNode y = z.getParent().getParent().getRight();
                 if (y.getColor() == RedBlackNode.Color.RED) {
@@ -236,6 +979,7 @@ public class RedBlackTree extends Object {
                     y.setColor(RedBlackNode.Color.BLACK);
                     z.getParent().getParent().setColor(RedBlackNode.Color.RED);
                     z = z.getParent().getParent();
+                    recolored += 3;
                 } else {
                     if (z == z.getParent().getRight()) {
                         z = z.getParent();
@@ -244,6 +988,7 @@ public class RedBlackTree extends Object {
                     }
                     z.getParent().setColor(RedBlackNode.Color.BLACK);
                     z.getParent().getParent().setColor(RedBlackNode.Color.RED);
+                    recolored += 2;
                     rightRotate(z.getParent().getParent());
                     //RIGHT-Rotate(z.getParent().getParent())
                 }
@@ -254,6 +999,7 @@ public class RedBlackTree extends Object {
                     y.setColor(RedBlackNode.Color.BLACK);
                     z.getParent().getParent().setColor(RedBlackNode.Color.RED);
                     z = z.getParent().getParent();
+                    recolored += 3;
                 } else {
                     if (z == z.getParent().getLeft()) {
                         z = z.getParent();
@@ -262,12 +1008,95 @@ public class RedBlackTree extends Object {
                     }
                     z.getParent().setColor(RedBlackNode.Color.BLACK);
                     z.getParent().getParent().setColor(RedBlackNode.Color.RED);
+                    recolored += 2;
                     leftRotate(z.getParent().getParent());
                     //LEFT-Rotate(z.getParent().getParent());
                 }
             }
         }
-        tree.setColor(RedBlackNode.Color.BLACK);
+        if (tree.getColor() == RedBlackNode.Color.RED) {
+            tree.setColor(RedBlackNode.Color.BLACK);
+            recolored++;
+        }
+        metrics.recordFixup(iterations, recolored);
+    }
+    
+    /**
+     * Helper method for the delete() method. Fixes the RB Tree after a black
+     * node was removed from above x.
+     * @param x : Node that took the place of the removed node.
+     * PostCondition: The tree will be fixed as per the rules of an RB tree.
+     */
+    private void RBDeleteFixup(RedBlackNode x) {
+        int iterations = 0;
+        int recolored = 0;
+        while (x != tree && x.getColor() == RedBlackNode.Color.BLACK) {
+            iterations++;
+            if (x == x.getParent().getLeft()) {
+                RedBlackNode w = x.getParent().getRight();
+                if (w.getColor() == RedBlackNode.Color.RED) {
+                    w.setColor(RedBlackNode.Color.BLACK);
+                    x.getParent().setColor(RedBlackNode.Color.RED);
+                    recolored += 2;
+                    leftRotate(x.getParent());
+                    w = x.getParent().getRight();
+                }
+                if (w.getLeft().getColor() == RedBlackNode.Color.BLACK
+                        && w.getRight().getColor() == RedBlackNode.Color.BLACK) {
+                    w.setColor(RedBlackNode.Color.RED);
+                    x = x.getParent();
+                    recolored++;
+                } else {
+                    if (w.getRight().getColor() == RedBlackNode.Color.BLACK) {
+                        w.getLeft().setColor(RedBlackNode.Color.BLACK);
+                        w.setColor(RedBlackNode.Color.RED);
+                        recolored += 2;
+                        rightRotate(w);
+                        w = x.getParent().getRight();
+                    }
+                    w.setColor(x.getParent().getColor());
+                    x.getParent().setColor(RedBlackNode.Color.BLACK);
+                    recolored += 3;
+                    w.getRight().setColor(RedBlackNode.Color.BLACK);
+                    leftRotate(x.getParent());
+                    x = tree;
+                }
+            } else {
+                RedBlackNode w = x.getParent().getLeft();
+                if (w.getColor() == RedBlackNode.Color.RED) {
+                    w.setColor(RedBlackNode.Color.BLACK);
+                    x.getParent().setColor(RedBlackNode.Color.RED);
+                    recolored += 2;
+                    rightRotate(x.getParent());
+                    w = x.getParent().getLeft();
+                }
+                if (w.getRight().getColor() == RedBlackNode.Color.BLACK
+                        && w.getLeft().getColor() == RedBlackNode.Color.BLACK) {
+                    w.setColor(RedBlackNode.Color.RED);
+                    x = x.getParent();
+                    recolored++;
+                } else {
+                    if (w.getLeft().getColor() == RedBlackNode.Color.BLACK) {
+                        w.getRight().setColor(RedBlackNode.Color.BLACK);
+                        w.setColor(RedBlackNode.Color.RED);
+                        recolored += 2;
+                        leftRotate(w);
+                        w = x.getParent().getLeft();
+                    }
+                    w.setColor(x.getParent().getColor());
+                    x.getParent().setColor(RedBlackNode.Color.BLACK);
+                    recolored += 3;
+                    w.getLeft().setColor(RedBlackNode.Color.BLACK);
+                    rightRotate(x.getParent());
+                    x = tree;
+                }
+            }
+        }
+        if (x.getColor() == RedBlackNode.Color.RED) {
+            x.setColor(RedBlackNode.Color.BLACK);
+            recolored++;
+        }
+        metrics.recordFixup(iterations, recolored);
     }
     
     /**
@@ -279,7 +1108,9 @@ public class RedBlackTree extends Object {
     private void leftRotate(RedBlackNode x) {
         RedBlackNode y = x.getRight();
         x.setRight(y.getLeft());
-        y.getLeft().setParent(x);
+        if (y.getLeft() != nil) {
+            y.getLeft().setParent(x);
+        }
         y.setParent(x.getParent());
 
         if (x.getParent() == nil) {
@@ -293,6 +1124,9 @@ public class RedBlackTree extends Object {
         }
         y.setLeft(x);
         x.setParent(y);
+        metrics.recordRotation();
+        y.setSize(x.getSize());
+        x.setSize(x.getLeft().getSize() + x.getRight().getSize() + 1);
     }
     
     /**
@@ -304,7 +1138,9 @@ public class RedBlackTree extends Object {
     private void rightRotate(RedBlackNode x) {
         RedBlackNode y = x.getLeft();
         x.setLeft(y.getRight());
-        y.getRight().setParent(x);
+        if (y.getRight() != nil) {
+            y.getRight().setParent(x);
+        }
         y.setParent(x.getParent());
 
         // if x is at root then y becomes new root
@@ -321,6 +1157,86 @@ public class RedBlackTree extends Object {
         }
         y.setRight(x);
         x.setParent(y);
+        metrics.recordRotation();
+        y.setSize(x.getSize());
+        x.setSize(x.getLeft().getSize() + x.getRight().getSize() + 1);
+    }
+    
+    /**
+     * Spliterator over a range of the traversal order. The range is given by
+     * positions in that order, so a split point is found with selectNode()
+     * and both halves know their exact size.
+     */
+    private final class TreeSpliterator implements Spliterator<KeyValuePair> {
+
+        private final boolean descending;
+        private RedBlackNode current;   //node at position index
+        private int index;              //position of the next entry to visit
+        private int fence;              //one past the last position to visit
+
+        TreeSpliterator(boolean descending) {
+            this(descending, 0, tree.getSize());
+        }
+
+        private TreeSpliterator(boolean descending, int index, int fence) {
+            this.descending = descending;
+            this.index = index;
+            this.fence = fence;
+            this.current = index < fence ? nodeAt(index) : nil;
+        }
+
+        private RedBlackNode nodeAt(int position) {
+            return selectNode(descending ? tree.getSize() - 1 - position : position);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super KeyValuePair> action) {
+            if (index >= fence) {
+                return false;
+            }
+            action.accept(current.getData());
+            if (++index < fence) {
+                current = descending ? predecessor(current) : successor(current);
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super KeyValuePair> action) {
+            while (index < fence) {
+                action.accept(current.getData());
+                if (++index < fence) {
+                    current = descending ? predecessor(current) : successor(current);
+                }
+            }
+        }
+
+        @Override
+        public Spliterator<KeyValuePair> trySplit() {
+            int mid = (index + fence) >>> 1;
+            if (mid <= index) {
+                return null;
+            }
+            TreeSpliterator prefix = new TreeSpliterator(descending, index, mid);
+            index = mid;
+            current = nodeAt(mid);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL | DISTINCT;
+        }
+
+        @Override
+        public Comparator<? super KeyValuePair> getComparator() {
+            return descending ? DESCENDING_KEYS : ASCENDING_KEYS;
+        }
     }
     
     /**
@@ -5,8 +5,21 @@
  */
 package rsachde1;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
 
 /**
  *
@@ -15,20 +28,95 @@ import java.util.Scanner;
 public class ReversePolishNotation {
 
     private static final Scanner INPUT = new Scanner(System.in);
-    private String[] expression;                //stores each element of the postfix expression 
+    private static final int DEFAULT_CACHE_CAPACITY = 4096;
+    private static final int BATCH_SIZE = 8192;         //expressions read ahead between two writes
+    private static final int BATCH_LEAF_SIZE = 256;     //expressions compiled by one fork-join task
+    private String expression;                  //the postfix expression to evaluate
     private final Stack operandStack;           //Object stack
-    private final RedBlackTree variableTree;    //Tree which stores variables and their values
+    private final OperandStack operands;        //typed stack of the long fast path
+    private boolean longFastPath;               //evaluate on the typed stack
+    private final OrderedMap variableTree;      //Tree which stores variables and their values
+    private final SymbolTable symbols;          //canonical variable names, those of expressionCache
+    private final ExpressionCache expressionCache;  //compiled programs keyed by source text
+    private EvaluatorMetrics metrics;           //operator latencies, null until enableMetrics()
+    private volatile VariableCache lookupCache; //hot variable values, null until enableLookupCache()
+    private ForkJoinPool batchPool;             //compiles batches and runs their independent expressions
+    private final ThreadLocal<OperandStack> batchStacks;   //operand stack of each batch thread
+    private final WriteAheadLog log;            //records assignments, null unless persistent
 
     public ReversePolishNotation() {
+        this(new RedBlackTree());
+    }
+    
+    /**
+     * Creates an evaluator that stores its variables in variableTree, which
+     * may be any tree engine: a RedBlackTree, a BPlusTree for large variable
+     * sets, and so on. With a thread-safe engine, a ConcurrentRedBlackTree, a
+     * ShardedRedBlackTree or a PersistentRedBlackTree, evaluateAll() can run
+     * independent assignments at the same time; with any other, it runs each
+     * assignment alone.
+     * @param variableTree
+     * PreCondition: variableTree should not be null.
+     */
+    public ReversePolishNotation(OrderedMap variableTree) {
+        this(variableTree, null, null);
+    }
+    
+    /**
+     * Creates an evaluator whose variables persist in log: it starts with
+     * the variables recovered from the log's directory, logs every
+     * assignment, and takes a checkpoint whenever the log's checkpoint
+     * interval has passed after an evaluation.
+     * @param log
+     * PreCondition: log should not be used by another evaluator.
+     */
+    public ReversePolishNotation(WriteAheadLog log) {
+        this(log.getRecoveredTree(), log, null);
+    }
+    
+    /**
+     * Creates an evaluator that compiles through a cache it may share with
+     * other evaluators, so a program compiled for one is reused by all.
+     * @param variableTree
+     * @param expressionCache
+     * PreCondition: neither argument should be null.
+     */
+    ReversePolishNotation(OrderedMap variableTree, ExpressionCache expressionCache) {
+        this(variableTree, null, expressionCache);
+    }
+    
+    private ReversePolishNotation(OrderedMap variableTree, WriteAheadLog log, ExpressionCache expressionCache) {
         operandStack = new Stack();
-        variableTree = new RedBlackTree();
+        operands = new OperandStack();
+        longFastPath = true;
+        this.variableTree = variableTree;
+        this.log = log;
+        this.expressionCache = expressionCache != null ? expressionCache
+                : new ExpressionCache(DEFAULT_CACHE_CAPACITY);
+        symbols = this.expressionCache.getSymbols();
+        batchPool = ForkJoinPool.commonPool();
+        batchStacks = new ThreadLocal<OperandStack>() {
+            @Override
+            protected OperandStack initialValue() {
+                return new OperandStack();
+            }
+        };
     }
     
     /**
-     * Accepts input from the user and sets the expression[] array
+     * Accepts input from the user and sets the expression
      */
     public void getInputsAndSetExpression() {
-        expression = INPUT.nextLine().split("\\s+");
+        setExpression(INPUT.nextLine());
+    }
+    
+    /**
+     * Sets the expression from a line of postfix input.
+     * @param line: whitespace separated postfix expression
+     * Precondition: line should not be null.
+     */
+    public void setExpression(String line) {
+        expression = line;
     }
     
     /**
@@ -39,35 +127,79 @@ public class ReversePolishNotation {
      * Complexity: Theta(n)
      */
     public BigInteger evaluateExpression() {
-        for (String x : expression) {
-            if (x.matches("[+-/%~#=]") || x.equals("*")) {
-                //operator
-                switch (x) {
-                    case "+":
-                    case "-":
-                    case "/":
-                    case "*":
-                    case "%":
-                        handleBinaryOperator(x);
-                        break;
-                    case "~":
-                        handleUnaryMinus();
-                        break;
-                    case "#":
-                        handlePowerMod();
-                        break;
-                    case "=":
-                        handleAssignmentOperator();
-                        break;
-                    default:
-                }
-            } else {
-                //variable or digit
-                if (isInteger(x)) {
-                    operandStack.push(new BigInteger(x));
-                } else {
-                    operandStack.push(x);
-                }
+        return evaluate(expression);
+    }
+    
+    /**
+     * Evaluates a postfix expression. The expression is compiled once and
+     * kept in an LRU cache, so evaluating the same text again skips parsing.
+     * @param source: whitespace separated postfix expression
+     * @return BigInteger: Result of the expression.
+     * Precondition: The expression should be a valid postfix expression.
+     * Complexity: Theta(n)
+     */
+    public BigInteger evaluate(String source) {
+        return execute(expressionCache.get(source));
+    }
+    
+    /**
+     * Runs a compiled program against the variable tree.
+     * @param program
+     * @return BigInteger: Result of the expression.
+     * Complexity: Theta(n) in the length of the program.
+     */
+    public BigInteger execute(CompiledExpression program) {
+        BigInteger result = execute(program, longFastPath ? operands : null);
+        if (log != null) {
+            log.checkpointIfDue(variableTree);
+        }
+        return result;
+    }
+    
+    /**
+     * Runs a compiled program on the given typed stack, or on the Object stack
+     * if stack is null.
+     * Complexity: Theta(n) in the length of the program.
+     */
+    BigInteger execute(CompiledExpression program, OperandStack stack) {
+        EvaluatorMetrics m = metrics;
+        long begin = m == null ? 0 : System.nanoTime();
+        BigInteger result = stack != null ? executeLong(program, m, stack) : executeBigInteger(program, m);
+        if (m != null) {
+            m.recordEvaluation(System.nanoTime() - begin);
+        }
+        return result;
+    }
+    
+    /**
+     * Runs a program with every operand as a BigInteger on the Object stack.
+     * Complexity: Theta(n) in the length of the program.
+     */
+    private BigInteger executeBigInteger(CompiledExpression program, EvaluatorMetrics m) {
+        for (int pc = 0; pc < program.length(); pc++) {
+            int opcode = program.opcode(pc);
+            long start = m == null || opcode < CompiledExpression.ADD ? 0 : System.nanoTime();
+            switch (opcode) {
+                case CompiledExpression.PUSH_CONSTANT:
+                    operandStack.push(program.constant(program.operand(pc)));
+                    break;
+                case CompiledExpression.PUSH_VARIABLE:
+                    operandStack.push(program.variable(program.operand(pc)));
+                    break;
+                case CompiledExpression.NEGATE:
+                    handleUnaryMinus();
+                    break;
+                case CompiledExpression.POWER_MOD:
+                    handlePowerMod();
+                    break;
+                case CompiledExpression.ASSIGN:
+                    handleAssignmentOperator();
+                    break;
+                default:
+                    handleBinaryOperator(opcode);
+            }
+            if (start != 0) {
+                m.recordOperator(opcode, System.nanoTime() - start);
             }
         }
 
@@ -76,24 +208,371 @@ public class ReversePolishNotation {
         if (result instanceof BigInteger) {
             finalReturnValue = (BigInteger) result;
         } else {
-            finalReturnValue = variableTree.lookup((String) result);
+            finalReturnValue = lookupVariable((String) result);
+        }
+        return finalReturnValue;
+    }
+    
+    /**
+     * Runs a program on the typed operand stack. Operands that fit in a long are
+     * computed with overflow checks and only promoted to BigInteger when a
+     * result does not fit, so the common case allocates nothing but the
+     * returned BigInteger. Results, errors and what is left on the stack
+     * after an error are the same as executeBigInteger().
+     * Complexity: Theta(n) in the length of the program.
+     */
+    private BigInteger executeLong(CompiledExpression program, EvaluatorMetrics m, OperandStack operands) {
+        for (int pc = 0; pc < program.length(); pc++) {
+            int opcode = program.opcode(pc);
+            long start = m == null || opcode < CompiledExpression.ADD ? 0 : System.nanoTime();
+            switch (opcode) {
+                case CompiledExpression.PUSH_CONSTANT:
+                    int index = program.operand(pc);
+                    if (program.isLongConstant(index)) {
+                        operands.push(program.longConstant(index));
+                    } else {
+                        operands.push(program.constant(index));
+                    }
+                    break;
+                case CompiledExpression.PUSH_VARIABLE:
+                    operands.pushVariable(program.variable(program.operand(pc)));
+                    break;
+                case CompiledExpression.NEGATE:
+                    longUnaryMinus(operands);
+                    break;
+                case CompiledExpression.POWER_MOD:
+                    longPowerMod(operands);
+                    break;
+                case CompiledExpression.ASSIGN:
+                    longAssignment(operands);
+                    break;
+                default:
+                    longBinaryOperator(operands, opcode);
+            }
+            if (start != 0) {
+                m.recordOperator(opcode, System.nanoTime() - start);
+            }
         }
 
+        resolveOperands(operands, 1);
+        BigInteger finalReturnValue = operands.peekBigInteger();
+        operands.pop();
         return finalReturnValue;
     }
     
+    /**
+     * Selects the primitive long evaluator (the default) or the original
+     * all-BigInteger evaluator. Both give the same results; each keeps its own
+     * operand stack, so operands left over by one are not seen by the other.
+     * @param enabled
+     */
+    public void setLongFastPath(boolean enabled) {
+        longFastPath = enabled;
+    }
+    
+    public boolean isLongFastPath() {
+        return longFastPath;
+    }
+    
+    /**
+     * Evaluates a sequence of expressions and writes one line per expression,
+     * in input order: its result, or the error message if it failed.
+     * Expressions are read in windows of BATCH_SIZE. Within a window an
+     * expression only waits for earlier ones that write a variable it reads
+     * or writes, or read a variable it writes, so independent expressions
+     * run concurrently on the batch pool, including assignments when the
+     * variable tree is thread-safe. The outputs and the final
+     * variables are those of evaluating the expressions one by one in input
+     * order. Unlike evaluateExpression(), every expression starts on an empty
+     * stack, and the typed stack is used even if the long fast path is
+     * turned off.
+     * @param expressions: whitespace separated postfix expressions
+     * @param out: receives the results; flushed, but not closed, on return
+     * @throws IOException if writing fails
+     * PreCondition: nothing else should modify the variable tree meanwhile.
+     * Complexity: Theta(n) in the total length of the expressions.
+     */
+    public void evaluateAll(Iterator<String> expressions, Writer out) throws IOException {
+        BufferedWriter writer = out instanceof BufferedWriter ? (BufferedWriter) out : new BufferedWriter(out);
+        ExpressionScheduler scheduler = new ExpressionScheduler(this, batchPool, isThreadSafe(variableTree));
+        String[] sources = new String[BATCH_SIZE];
+        CompiledExpression[] programs = new CompiledExpression[BATCH_SIZE];
+        String[] results = new String[BATCH_SIZE];
+        RedBlackTree readShared = null;     //a plain tree whose lookups the scheduler runs in parallel
+        if (!isThreadSafe(variableTree) && variableTree instanceof RedBlackTree
+                && !((RedBlackTree) variableTree).isConcurrentReads()) {
+            readShared = (RedBlackTree) variableTree;
+            readShared.setConcurrentReads(true);
+        }
+        try {
+            while (expressions.hasNext()) {
+                int n = 0;
+                while (n < BATCH_SIZE && expressions.hasNext()) {
+                    sources[n++] = expressions.next();
+                }
+                batchPool.invoke(new CompileTask(sources, programs, symbols, 0, n));
+                scheduler.run(programs, results, n);
+                if (log != null) {
+                    log.checkpointIfDue(variableTree);
+                }
+                for (int i = 0; i < n; i++) {
+                    writer.write(results[i]);
+                    writer.newLine();
+                    programs[i] = null;
+                    results[i] = null;
+                }
+            }
+        } finally {
+            if (readShared != null) {
+                readShared.setConcurrentReads(false);
+            }
+        }
+        writer.flush();
+    }
+    
+    /**
+     * Stream version of evaluateAll(Iterator, Writer).
+     * @param expressions
+     * @param out
+     * @throws IOException if writing fails
+     */
+    public void evaluateAll(Stream<String> expressions, Writer out) throws IOException {
+        evaluateAll(expressions.iterator(), out);
+    }
+    
+    /**
+     * Evaluates every line of input and writes the results, one per line, to
+     * output. Both files are UTF-8.
+     * @param input
+     * @param output: created, or truncated if it exists
+     * @throws IOException if reading or writing fails
+     */
+    public void evaluateFile(Path input, Path output) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            evaluateAll(reader.lines().iterator(), writer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Sets the pool that compiles and evaluates the expressions of a batch.
+     * The common pool is used by default.
+     * @param pool
+     */
+    public void setBatchPool(ForkJoinPool pool) {
+        batchPool = pool;
+    }
+    
+    /**
+     * Tells whether map may be read and written by several threads at once.
+     * @param map
+     * @return boolean
+     */
+    static boolean isThreadSafe(OrderedMap map) {
+        return map instanceof ConcurrentRedBlackTree || map instanceof ShardedRedBlackTree
+                || map instanceof PersistentRedBlackTree;
+    }
+    
+    /**
+     * Runs one expression of a batch on an empty stack.
+     * @return String: the result, or the error message
+     */
+    String evaluateLine(CompiledExpression program, OperandStack stack) {
+        stack.reset();
+        try {
+            return execute(program, stack).toString();
+        } catch (RuntimeException e) {
+            return errorMessage(e);
+        }
+    }
+    
+    /**
+     * Returns the "error: " line reported for an expression that failed.
+     * The evaluator's own errors and BigInteger's arithmetic errors carry
+     * their message; anything else is a bug and is reported by its class
+     * alone, since the JVM may drop the message of an exception it throws
+     * often.
+     * @param e
+     * @return String
+     */
+    static String errorMessage(RuntimeException e) {
+        String message = e.getMessage();
+        if (message != null && message.startsWith("error: ")) {
+            return message;
+        }
+        if (message != null && e instanceof ArithmeticException) {
+            return "error: " + message;     //division by zero, a modulus that is not positive, ...
+        }
+        return "error: " + e.getClass().getName();
+    }
+    
+    /**
+     * Returns the operand stack of the current batch thread.
+     * @return OperandStack
+     */
+    OperandStack batchStack() {
+        return batchStacks.get();
+    }
+    
+    /**
+     * Compiles the sources [from, to) of a batch, splitting the range in
+     * halves down to BATCH_LEAF_SIZE. Batches bypass the expression cache,
+     * whose lock the pool threads would otherwise all queue on.
+     */
+    private static final class CompileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] sources;
+        private final CompiledExpression[] programs;
+        private final SymbolTable symbols;
+        private final int from;
+        private final int to;
+
+        CompileTask(String[] sources, CompiledExpression[] programs, SymbolTable symbols, int from, int to) {
+            this.sources = sources;
+            this.programs = programs;
+            this.symbols = symbols;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    programs[i] = CompiledExpression.compile(sources[i], symbols);
+                    sources[i] = null;
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CompileTask(sources, programs, symbols, from, mid),
+                        new CompileTask(sources, programs, symbols, mid, to));
+            }
+        }
+    }
+    
+    /**
+     * Compiles source with the variable names of this evaluator, bypassing
+     * the expression cache.
+     * @param source
+     * @return CompiledExpression
+     */
+    CompiledExpression compile(String source) {
+        return CompiledExpression.compile(source, symbols);
+    }
+
+    /**
+     * Returns the table that numbers the variable names of this evaluator's
+     * programs.
+     * @return SymbolTable
+     */
+    SymbolTable getSymbols() {
+        return symbols;
+    }
+    
+    /**
+     * Returns the cache of compiled expressions.
+     * @return ExpressionCache
+     */
+    public ExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
+    
+    /**
+     * Starts timing every evaluation and operator. Metrics are off by default
+     * so that an evaluator which nobody observes never reads the clock.
+     * @return EvaluatorMetrics: the metrics now being recorded
+     */
+    public EvaluatorMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new EvaluatorMetrics();
+        }
+        return metrics;
+    }
+    
+    /**
+     * Returns the evaluator metrics, or null if enableMetrics() was not called.
+     * @return EvaluatorMetrics
+     */
+    public EvaluatorMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Puts a bounded cache of variable values in front of the variable tree,
+     * so hot variables are read without a tree descent. Assignments made by
+     * this evaluator keep the cache up to date; after changing the variable
+     * tree any other way, call getLookupCache().clear().
+     * @param capacity: maximum number of variables cached
+     * @return VariableCache: the new cache, for its hit rate
+     */
+    public VariableCache enableLookupCache(int capacity) {
+        lookupCache = new VariableCache(capacity);
+        return lookupCache;
+    }
+    
+    public void disableLookupCache() {
+        lookupCache = null;
+    }
+    
+    /**
+     * Returns the lookup cache, or null if enableLookupCache() was not called.
+     * @return VariableCache
+     */
+    public VariableCache getLookupCache() {
+        return lookupCache;
+    }
+    
+    /**
+     * Returns the write-ahead log of the variables, or null if they are not
+     * persistent.
+     * @return WriteAheadLog
+     */
+    public WriteAheadLog getWriteAheadLog() {
+        return log;
+    }
+    
+    /**
+     * Writes a snapshot of the variables, so recovery need not replay the log
+     * before it.
+     * PreCondition: the evaluator was created with a WriteAheadLog, and no
+     * evaluation is in progress.
+     */
+    public void checkpoint() {
+        if (log == null) {
+            throw new RuntimeException("error: variables are not persistent");
+        }
+        log.checkpoint(variableTree);
+    }
+    
+    /**
+     * Returns the counters of the variable tree.
+     * @return TreeMetrics, or null if the variable tree is not a RedBlackTree
+     */
+    public TreeMetrics getTreeMetrics() {
+        return variableTree instanceof RedBlackTree ? ((RedBlackTree) variableTree).getMetrics() : null;
+    }
+
+    
     /**
      * Handles the assignment operations.
      * Complexity: Theta(1)
      */
     private void handleAssignmentOperator() {
-        BigInteger v = (BigInteger) operandStack.pop();
+        Object value = operandStack.pop();
+        if (!(value instanceof BigInteger)) {
+            throw new RuntimeException("error: " + value + " is not a value");
+        }
+        BigInteger v = (BigInteger) value;
         Object key = operandStack.pop();
         if(!(key instanceof String)) {
             throw new RuntimeException("error: "+key+" is not an lvalue");
         }
         String k = (String) key;
-        variableTree.insert(new KeyValuePair(k, v));
+        assign(k, v);
         operandStack.push(k);
     }
     
@@ -109,17 +588,17 @@ public class ReversePolishNotation {
         BigInteger b;
         BigInteger c;
         if (o1 instanceof String) {
-            a = variableTree.lookup((String) o1);
+            a = lookupVariable((String) o1);
         } else {
             a = (BigInteger) o1;
         }
         if (o2 instanceof String) {
-            b = variableTree.lookup((String) o2);
+            b = lookupVariable((String) o2);
         } else {
             b = (BigInteger) o2;
         }
         if (o3 instanceof String) {
-            c = variableTree.lookup((String) o3);
+            c = lookupVariable((String) o3);
         } else {
             c = (BigInteger) o3;
         }
@@ -136,7 +615,7 @@ public class ReversePolishNotation {
         Object o = operandStack.pop();
         BigInteger a;
         if (o instanceof String) {
-            a = variableTree.lookup((String) o);
+            a = lookupVariable((String) o);
         } else {
             a = (BigInteger) o;
         }
@@ -147,65 +626,270 @@ public class ReversePolishNotation {
     //
     /**
      * Handles the Binary operations.
-     * precondition: operator should be +,-,*,/
+     * precondition: opcode should be ADD, SUBTRACT, MULTIPLY, DIVIDE or MOD
      * Postcondition: A valid result will be computed and pushed into stack.
      * Complexity: Theta(1)
      */
-    private void handleBinaryOperator(String operator) {
+    private void handleBinaryOperator(int opcode) {
         Object o2 = operandStack.pop();
         Object o1 = operandStack.pop();
         BigInteger a;
         BigInteger b;
         if (o1 instanceof String) {
-            a = variableTree.lookup((String) o1);
+            a = lookupVariable((String) o1);
         } else {
             a = (BigInteger) o1;
         }
         if (o2 instanceof String) {
-            b = variableTree.lookup((String) o2);
+            b = lookupVariable((String) o2);
         } else {
             b = (BigInteger) o2;
         }
         BigInteger result = null;
-        switch (operator) {
-            case "+":
+        switch (opcode) {
+            case CompiledExpression.ADD:
                 result = a.add(b);
                 break;
-            case "-":
+            case CompiledExpression.SUBTRACT:
                 result = a.subtract(b);
                 break;
-            case "*":
+            case CompiledExpression.MULTIPLY:
                 result = a.multiply(b);
                 break;
-            case "/":
+            case CompiledExpression.DIVIDE:
                 result = a.divide(b);
                 break;
-            case "%":
+            case CompiledExpression.MOD:
                 result = a.mod(b);
         }
         operandStack.push(result);
     }
     
     /**
-     * Checks if the str is a valid BigInteger.
-     * @param str
-     * @return Boolean
+     * Returns the value of a variable, through the lookup cache if enabled.
+     * PreCondition: the variable should exist.
      */
-    private boolean isInteger(String str) {
-        try {
-            BigInteger d = new BigInteger(str);
-        } catch (NumberFormatException nfe) {
-            return false;
+    private BigInteger lookupVariable(String name) {
+        VariableCache cache = lookupCache;
+        return cache == null ? variableTree.lookup(name) : cache.lookup(name, variableTree);
+    }
+    
+    /**
+     * Logs a variable if the variables are persistent, stores it in the tree
+     * and drops its cached value. The record is appended first, so a failed
+     * append leaves the tree as it was and no value is ever visible that
+     * recovery would not restore.
+     * Complexity: Theta(log(n))
+     */
+    private void assign(String name, BigInteger value) {
+        if (log != null) {
+            log.append(name, value);
+        }
+        variableTree.insert(new KeyValuePair(name, value));
+        VariableCache cache = lookupCache;
+        if (cache != null) {
+            cache.invalidate(name);
+        }
+    }
+    
+    /**
+     * Replaces the variable references among the top n operands by their
+     * values, deepest first. As with the Object stack, operands are consumed
+     * even when this fails: all of them on a stack underflow, and the top n
+     * when a variable is not defined.
+     * @param n: number of operands the operator takes
+     * PostCondition: none of the top n operands is a VARIABLE.
+     */
+    private void resolveOperands(OperandStack operands, int n) {
+        if (operands.getSize() < n) {
+            operands.reset();
+            throw new RuntimeException("error: stack underflow exception");
+        }
+        for (int k = n - 1; k >= 0; k--) {
+            if (operands.peekTag(k) == OperandStack.VARIABLE) {
+                BigInteger v;
+                try {
+                    v = lookupVariable(operands.peekVariable(k));
+                } catch (RuntimeException undefined) {
+                    operands.pop(n);
+                    throw undefined;
+                }
+                operands.set(k, v);
+            }
+        }
+    }
+    
+    /**
+     * Typed stack version of handleAssignmentOperator().
+     * Complexity: Theta(log(n)) for the tree insert.
+     */
+    private void longAssignment(OperandStack operands) {
+        if (operands.peekTag() == OperandStack.VARIABLE) {
+            String value = operands.peekVariable();
+            operands.pop();
+            throw new RuntimeException("error: " + value + " is not a value");
+        }
+        BigInteger v = operands.peekBigInteger();
+        operands.pop();
+        if (operands.peekTag() != OperandStack.VARIABLE) {
+            String key = operands.peekBigInteger().toString();
+            operands.pop();
+            throw new RuntimeException("error: " + key + " is not an lvalue");
+        }
+        String k = operands.peekVariable();
+        operands.pop();
+        assign(k, v);
+        operands.pushVariable(k);
+    }
+    
+    /**
+     * Typed stack version of handleUnaryMinus(). Only -Long.MIN_VALUE needs
+     * a BigInteger.
+     * Complexity: Theta(1)
+     */
+    private void longUnaryMinus(OperandStack operands) {
+        resolveOperands(operands, 1);
+        if (operands.peekTag() == OperandStack.LONG && operands.peekLong() != Long.MIN_VALUE) {
+            long a = operands.peekLong();
+            operands.pop();
+            operands.push(-a);
+        } else {
+            BigInteger a = operands.peekBigInteger();
+            operands.pop();
+            operands.push(a.negate());
         }
-        return true;
     }
     
     /**
-     * Driver method
+     * Typed stack version of handlePowerMod(). Square and multiply runs on
+     * longs when 0 < c < 2^31, so that every product is below 2^62, and
+     * b >= 0; anything else is left to BigInteger.modPow().
+     * Complexity: Theta(log(b))
+     */
+    private void longPowerMod(OperandStack operands) {
+        resolveOperands(operands, 3);
+        if (operands.peekTag(2) == OperandStack.LONG && operands.peekTag(1) == OperandStack.LONG
+                && operands.peekTag(0) == OperandStack.LONG
+                && operands.peekLong(0) > 0 && operands.peekLong(0) <= Integer.MAX_VALUE
+                && operands.peekLong(1) >= 0) {
+            long c = operands.peekLong(0);
+            long b = operands.peekLong(1);
+            long base = Math.floorMod(operands.peekLong(2), c);
+            long result = 1 % c;
+            while (b > 0) {
+                if ((b & 1) != 0) {
+                    result = result * base % c;
+                }
+                base = base * base % c;
+                b >>= 1;
+            }
+            operands.pop(3);
+            operands.push(result);
+        } else {
+            BigInteger a = operands.peekBigInteger(2);
+            BigInteger b = operands.peekBigInteger(1);
+            BigInteger c = operands.peekBigInteger(0);
+            operands.pop(3);
+            operands.push(a.modPow(b, c));
+        }
+    }
+    
+    /**
+     * Typed stack version of handleBinaryOperator(). Falls back to
+     * BigInteger when an operand is wide, a result overflows, and for the
+     * cases where BigInteger throws (division by zero, non-positive modulus).
+     * precondition: opcode should be ADD, SUBTRACT, MULTIPLY, DIVIDE or MOD
+     * Complexity: Theta(1)
+     */
+    private void longBinaryOperator(OperandStack operands, int opcode) {
+        resolveOperands(operands, 2);
+        if (operands.peekTag(1) == OperandStack.LONG && operands.peekTag(0) == OperandStack.LONG) {
+            long a = operands.peekLong(1);
+            long b = operands.peekLong(0);
+            operands.pop(2);
+            switch (opcode) {
+                case CompiledExpression.ADD:
+                    long sum = a + b;
+                    if (((a ^ sum) & (b ^ sum)) >= 0) {
+                        operands.push(sum);
+                        return;
+                    }
+                    break;
+                case CompiledExpression.SUBTRACT:
+                    long difference = a - b;
+                    if (((a ^ b) & (a ^ difference)) >= 0) {
+                        operands.push(difference);
+                        return;
+                    }
+                    break;
+                case CompiledExpression.MULTIPLY:
+                    long product = a * b;
+                    if (((Math.abs(a) | Math.abs(b)) >>> 31 == 0)
+                            || ((b == 0 || product / b == a) && !(a == Long.MIN_VALUE && b == -1))) {
+                        operands.push(product);
+                        return;
+                    }
+                    break;
+                case CompiledExpression.DIVIDE:
+                    if (b != 0 && !(a == Long.MIN_VALUE && b == -1)) {
+                        operands.push(a / b);
+                        return;
+                    }
+                    break;
+                case CompiledExpression.MOD:
+                    if (b > 0) {
+                        operands.push(Math.floorMod(a, b));
+                        return;
+                    }
+            }
+            handleWideBinaryOperator(operands, opcode, BigInteger.valueOf(a), BigInteger.valueOf(b));
+            return;
+        }
+        BigInteger a = operands.peekBigInteger(1);
+        BigInteger b = operands.peekBigInteger(0);
+        operands.pop(2);
+        handleWideBinaryOperator(operands, opcode, a, b);
+    }
+    
+    /**
+     * Computes a binary operator in BigInteger and pushes the result.
+     */
+    private void handleWideBinaryOperator(OperandStack operands, int opcode, BigInteger a, BigInteger b) {
+        BigInteger result = null;
+        switch (opcode) {
+            case CompiledExpression.ADD:
+                result = a.add(b);
+                break;
+            case CompiledExpression.SUBTRACT:
+                result = a.subtract(b);
+                break;
+            case CompiledExpression.MULTIPLY:
+                result = a.multiply(b);
+                break;
+            case CompiledExpression.DIVIDE:
+                result = a.divide(b);
+                break;
+            case CompiledExpression.MOD:
+                result = a.mod(b);
+        }
+        operands.push(result);
+    }
+    
+    /**
+     * Driver method. With two arguments, evaluates every line of the file
+     * args[0] into the file args[1]; otherwise reads expressions from the
+     * console one line at a time. With one argument, the variables are kept
+     * in the write-ahead log directory args[0] and survive a restart.
      * @param args 
      */
-    public static void main(String args[]) {
-        ReversePolishNotation mainObj = new ReversePolishNotation();
+    public static void main(String args[]) throws IOException {
+        ReversePolishNotation mainObj = args.length == 1
+                ? new ReversePolishNotation(new WriteAheadLog(Paths.get(args[0]), false))
+                : new ReversePolishNotation();
+        if (args.length == 2) {
+            mainObj.evaluateFile(Paths.get(args[0]), Paths.get(args[1]));
+            return;
+        }
         while (true) {
             mainObj.getInputsAndSetExpression();
             System.out.println(mainObj.evaluateExpression());
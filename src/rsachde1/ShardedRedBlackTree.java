@@ -0,0 +1,373 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A thread-safe map that range partitions the key space across independent
+ * ConcurrentRedBlackTrees, so writers to different shards never share a
+ * lock. A key is routed to its shard by a binary search over the shard
+ * boundaries, and lookups keep the optimistic, lock-free descent of
+ * ConcurrentRedBlackTree.
+ *
+ * The boundaries come from the keys themselves: rebalance() splits the
+ * entries into shards of equal size. An insert samples the size of its
+ * shard now and then, and rebalances when the map has grown enough to be
+ * split, or when one shard holds SKEW times its share of the entries.
+ * Rebalancing rebuilds every shard in Theta(n) while writers wait; keys
+ * that keep arriving past the last boundary, such as var0, var1, ..., grow
+ * the map by about SKEW / shards between rebalances, so each insert costs
+ * about shards / SKEW copies amortized.
+ *
+ * The shards and their boundaries form an immutable Partition that a
+ * rebalance replaces as a whole. Each shard has a gate that writers hold
+ * shared; a rebalance holds every gate of the old partition exclusively,
+ * so no write is lost while the entries are copied, and marks the old
+ * shards retired before it releases them. Readers take no gate: the old
+ * shards keep every entry until the new partition is published, so a read
+ * only has to be retried if the partition changed under it.
+ */
+public class ShardedRedBlackTree implements OrderedMap {
+
+    private static final int DEFAULT_SHARDS = 16;
+    private static final int MIN_SHARD_SIZE = 1 << 12;  //entries per shard before the map is split
+    private static final int SKEW = 4;                  //a shard may hold SKEW times its share
+    private static final int SAMPLE_MASK = 0xFF;        //one insert in 256 checks the balance
+
+    private final int shardCount;                       //shards once the map is large enough
+    private final ReentrantLock rebalanceLock;          //one rebalance at a time
+    private volatile Partition partition;
+    private volatile int rebalances;                    //completed rebalances
+
+    public ShardedRedBlackTree() {
+        this(DEFAULT_SHARDS);
+    }
+
+    /**
+     * Creates an empty map that is split into shardCount shards once it
+     * holds MIN_SHARD_SIZE entries per shard. Until then it has one shard.
+     * @param shardCount
+     * PreCondition: shardCount should be positive; about the number of
+     * cores writing concurrently is a good choice.
+     */
+    public ShardedRedBlackTree(int shardCount) {
+        if (shardCount < 1) {
+            throw new RuntimeException("error: shard count should be positive, not " + shardCount);
+        }
+        this.shardCount = shardCount;
+        rebalanceLock = new ReentrantLock();
+        partition = new Partition(new String[0], new Shard[] {new Shard()});
+    }
+
+    /**
+     * Inserts a key value pair in the shard of its key.
+     * @param insertPair
+     * Pre-Condition: insertPair should not be null
+     * Post-Condition: the insertPair will be inserted in the map
+     * Complexity: Theta(log(n)), plus an occasional rebalance.
+     */
+    @Override
+    public void insert(KeyValuePair insertPair) {
+        String key = insertPair.getKey();
+        while (true) {
+            Partition p = partition;
+            Shard shard = p.route(key);
+            long stamp = shard.gate.readLock();
+            try {
+                if (!shard.retired) {
+                    shard.tree.insert(insertPair);
+                    break;
+                }
+            } finally {
+                shard.gate.unlockRead(stamp);
+            }
+        }
+        if ((ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0) {
+            rebalanceIfSkewed();
+        }
+    }
+
+    /**
+     * Deletes the entry with the entered key.
+     * @param key
+     * @return boolean: true if an entry was deleted.
+     * Complexity: Theta(log(n))
+     */
+    public boolean delete(String key) {
+        while (true) {
+            Partition p = partition;
+            Shard shard = p.route(key);
+            long stamp = shard.gate.readLock();
+            try {
+                if (!shard.retired) {
+                    return shard.tree.delete(key);
+                }
+            } finally {
+                shard.gate.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the value stored against the entered key.
+     * @param key
+     * @return BigInteger.
+     * PreCondition: The key should exist in the map.
+     * Complexity: Theta(log(n)), without locking unless a writer interferes.
+     */
+    @Override
+    public BigInteger lookup(String key) {
+        while (true) {
+            Partition p = partition;
+            try {
+                BigInteger value = p.route(key).tree.lookup(key);
+                if (p == partition) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                if (p == partition) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        while (true) {
+            Partition p = partition;
+            boolean found = p.route(key).tree.contains(key);
+            if (p == partition) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the entries with
+     * from <= key < to, in ascending key order. Shards are disjoint and
+     * ordered, so the scan walks one shard after the other and opens the
+     * next one only when the previous is used up; each is routed in the
+     * partition current at that moment, so a rebalance during the scan
+     * neither repeats nor skips a key range.
+     * @param from: inclusive lower bound
+     * @param to: exclusive upper bound
+     * @return Iterator over the KeyValuePairs in the range.
+     * Complexity: Theta(log(n)) per shard visited, Theta(1) amortized per step.
+     */
+    public Iterator<KeyValuePair> range(final String from, final String to) {
+        return new Iterator<KeyValuePair>() {
+            private Iterator<KeyValuePair> current = Collections.emptyIterator();
+            private String start = from.compareTo(to) < 0 ? from : null;   //first key not yet scanned, null when done
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && start != null) {
+                    Partition p = partition;
+                    int i = p.index(start);
+                    String end = i < p.bounds.length && p.bounds[i].compareTo(to) < 0 ? p.bounds[i] : to;
+                    current = p.shards[i].tree.range(start, end);
+                    start = end == to ? null : end;
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public KeyValuePair next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of levels of the tallest shard.
+     * @return integer
+     */
+    @Override
+    public int height() {
+        int height = 0;
+        for (Shard shard : partition.shards) {
+            height = Math.max(height, shard.tree.height());
+        }
+        return height;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Shard shard : partition.shards) {
+            size += shard.tree.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Visits every entry in ascending key order, one shard at a time under
+     * that shard's read lock.
+     * @param visitor: called once per entry
+     * PreCondition: visitor should not modify the map.
+     */
+    @Override
+    public void inOrderTraversal(Consumer<? super KeyValuePair> visitor) {
+        for (Shard shard : partition.shards) {
+            shard.tree.inOrderTraversal(visitor);
+        }
+    }
+
+    /**
+     * Returns the number of shards the keys are currently split into.
+     * @return integer
+     */
+    public int getShardCount() {
+        return partition.shards.length;
+    }
+
+    /**
+     * Returns the number of rebalances so far.
+     * @return integer
+     */
+    public int getRebalanceCount() {
+        return rebalances;
+    }
+
+    /**
+     * Splits the entries into shards of equal size, at most shardCount and at
+     * most one per entry. Writers wait until it is done; readers do not.
+     * Complexity: Theta(n)
+     */
+    public void rebalance() {
+        rebalanceLock.lock();
+        try {
+            rebalance(partition);
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     * Rebalances if the map has outgrown its partition. Gives up at once if
+     * another thread is rebalancing.
+     */
+    private void rebalanceIfSkewed() {
+        Partition p = partition;
+        int total = 0;
+        int largest = 0;
+        for (Shard shard : p.shards) {
+            int size = shard.tree.getSize();
+            total += size;
+            largest = Math.max(largest, size);
+        }
+        boolean due = p.shards.length < shardCount ? (long) total >= (long) shardCount * MIN_SHARD_SIZE
+                : largest > MIN_SHARD_SIZE && (long) largest * shardCount > (long) SKEW * total;
+        if (due && rebalanceLock.tryLock()) {
+            try {
+                if (p == partition) {
+                    rebalance(p);
+                }
+            } finally {
+                rebalanceLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replaces old by a partition of its entries into shards of equal size.
+     * PreCondition: the caller holds rebalanceLock and old is the current
+     * partition.
+     */
+    private void rebalance(Partition old) {
+        long[] stamps = new long[old.shards.length];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = old.shards[i].gate.writeLock();
+        }
+        try {
+            int total = 0;
+            for (Shard shard : old.shards) {
+                total += shard.tree.getSize();
+            }
+            final KeyValuePair[] entries = new KeyValuePair[total];
+            final int[] n = new int[1];
+            for (Shard shard : old.shards) {
+                shard.tree.inOrderTraversal(pair -> entries[n[0]++] = pair);
+            }
+            int m = Math.max(1, Math.min(shardCount, total));
+            String[] bounds = new String[m - 1];
+            Shard[] shards = new Shard[m];
+            for (int j = 0; j < m; j++) {
+                int lo = (int) ((long) j * total / m);
+                int hi = (int) ((long) (j + 1) * total / m);
+                shards[j] = new Shard();
+                shards[j].tree.insertAll(Arrays.asList(entries).subList(lo, hi));
+                if (j > 0) {
+                    bounds[j - 1] = entries[lo].getKey();
+                }
+            }
+            for (Shard shard : old.shards) {
+                shard.retired = true;
+            }
+            partition = new Partition(bounds, shards);
+            rebalances++;
+        } finally {
+            for (int i = stamps.length - 1; i >= 0; i--) {
+                old.shards[i].gate.unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * A tree and the gate that lets a rebalance shut its writers out.
+     */
+    private static final class Shard {
+        final ConcurrentRedBlackTree tree = new ConcurrentRedBlackTree();
+        final StampedLock gate = new StampedLock();     //held shared by writers, exclusive by a rebalance
+        boolean retired;                                //set under the exclusive gate, read under the shared one
+    }
+
+    /**
+     * Shards in key order; shard i holds the keys k with
+     * bounds[i - 1] <= k < bounds[i].
+     */
+    private static final class Partition {
+        final String[] bounds;      //lowest key of shards[1..]
+        final Shard[] shards;
+
+        Partition(String[] bounds, Shard[] shards) {
+            this.bounds = bounds;
+            this.shards = shards;
+        }
+
+        /**
+         * Returns the index of the shard of key: the number of bounds <= key.
+         * Complexity: Theta(log(shards))
+         */
+        int index(String key) {
+            int lo = 0;
+            int hi = bounds.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (bounds[mid].compareTo(key) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        Shard route(String key) {
+            return shards[index(key)];
+        }
+    }
+}
@@ -11,7 +11,7 @@ public class Stack {
     private int top;        //top of the stack  
     private Object[] s;     //array that stores stack elements
     private int size;       //size of the stack
-    private static int thresholdSize;   //size reached after which stack is resized.
+    private int thresholdSize;          //size reached after which stack is resized.
 
     public Stack() {
         thresholdSize = 6;
@@ -48,7 +48,10 @@ public class Stack {
         if (isEmpty()) {
             throw new RuntimeException("error: stack underflow exception");
         }
-        return s[top--];
+        Object o = s[top];
+        s[top--] = null;
+        size--;
+        return o;
     }
 
     public boolean isEmpty() {
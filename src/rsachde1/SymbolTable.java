@@ -0,0 +1,141 @@
+package rsachde1;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Interns variable names, so that equal names share one canonical String,
+ * and numbers them with stable int ids. Each evaluator compiles its
+ * expressions against its own table, so the tree node that holds a variable
+ * they assigned holds the very same String, and a lookup recognizes its key
+ * by reference instead of scanning it. Code that indexes programs by the
+ * variables they touch keys on the ids instead of hashing the names. Names
+ * are held weakly: one that no tree node or compiled program refers to any
+ * more drops out of the table, so names sent by clients cannot pile up. A
+ * name keeps its id as long as it stays in the table, and ids are never
+ * reused, so two names in the table never share one.
+ *
+ * Also holds the key comparison used by the tree engines. A key is summarized
+ * by its first four characters packed into a long; comparing two such
+ * prefixes orders most pairs of keys with one primitive compare. The rest are
+ * compared character by character, skipping the characters the search already
+ * knows to be equal.
+ */
+public class SymbolTable {
+
+    static final int PREFIX_CHARS = 4;      //characters packed by prefix()
+
+    private final WeakHashMap<String, Symbol> names;    //guarded by this
+    private int nextId;                                 //id of the next new name, guarded by this
+
+    public SymbolTable() {
+        names = new WeakHashMap<>();
+    }
+
+    /**
+     * Returns the canonical String equal to name, making name canonical if it
+     * is new.
+     * @param name
+     * @return String
+     * PreCondition: name should not be null.
+     * Complexity: Theta(n) in the length of name.
+     */
+    public synchronized String intern(String name) {
+        Symbol symbol = names.get(name);
+        String canonical = symbol == null ? null : symbol.name.get();
+        if (canonical == null) {
+            if (nextId == Integer.MAX_VALUE) {
+                throw new RuntimeException("error: symbol table is full");
+            }
+            names.put(name, new Symbol(name, nextId++));
+            canonical = name;
+        }
+        return canonical;
+    }
+
+    /**
+     * Returns the id of an interned name.
+     * @param name
+     * @return integer: the id given when the name was interned, or -1 if it
+     * is not in the table
+     * Complexity: Theta(n) in the length of name.
+     */
+    public synchronized int id(String name) {
+        Symbol symbol = names.get(name);
+        return symbol == null || symbol.name.get() == null ? -1 : symbol.id;
+    }
+
+    /**
+     * Returns the number of names still referred to, roughly: names that
+     * were dropped are only removed on the next call.
+     * @return integer
+     */
+    public synchronized int getSize() {
+        return names.size();
+    }
+
+    /**
+     * An entry of the table. It refers to its name weakly: a strong reference
+     * from the value would keep the key of the WeakHashMap alive.
+     */
+    private static final class Symbol {
+
+        private final WeakReference<String> name;
+        private final int id;
+
+        Symbol(String name, int id) {
+            this.name = new WeakReference<>(name);
+            this.id = id;
+        }
+    }
+
+    /**
+     * Packs the first four characters of key into a long, big-endian and
+     * padded with zeros. If two prefixes differ, comparing them unsigned
+     * orders the keys as String.compareTo() does; if they are equal, the keys
+     * agree on their first min(4, lengths) characters.
+     * @param key
+     * @return long
+     */
+    static long prefix(String key) {
+        long p = 0;
+        int n = Math.min(key.length(), PREFIX_CHARS);
+        for (int i = 0; i < n; i++) {
+            p |= (long) key.charAt(i) << (48 - 16 * i);
+        }
+        return p;
+    }
+
+    /**
+     * Three-way compares key with other, given their prefixes, without
+     * reading the first skip characters, which the caller knows they share.
+     * @return 0 if the keys are equal, else a value with the sign of
+     * key.compareTo(other) whose magnitude is one more than the length of
+     * the common prefix of the two keys.
+     * PreCondition: key and other should agree on their first skip
+     * characters.
+     */
+    static int compare(String key, long prefix, String other, long otherPrefix, int skip) {
+        if (key == other) {
+            return 0;
+        }
+        if (prefix != otherPrefix) {
+            int common = Long.numberOfLeadingZeros(prefix ^ otherPrefix) >>> 4;
+            return Long.compareUnsigned(prefix, otherPrefix) < 0 ? -(common + 1) : common + 1;
+        }
+        int n = Math.min(key.length(), other.length());
+        for (int i = Math.max(skip, Math.min(n, PREFIX_CHARS)); i < n; i++) {
+            char a = key.charAt(i);
+            char b = other.charAt(i);
+            if (a != b) {
+                return a < b ? -(i + 1) : i + 1;
+            }
+        }
+        if (key.length() == other.length()) {
+            return 0;
+        }
+        return key.length() < other.length() ? -(n + 1) : n + 1;
+    }
+}
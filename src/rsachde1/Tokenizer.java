@@ -0,0 +1,261 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A single pass scanner over a postfix expression. It yields the tokens of
+ * source.split("\\s+") one at a time without building them, classified by
+ * their first character: operators are returned as a char and integer
+ * literals are parsed as they are scanned, into a long if they have at most
+ * 18 digits and into a BigInteger otherwise. Only variable names become
+ * Strings. Nothing is matched with a regex, and no exception is thrown for
+ * a token that is not a number.
+ *
+ * The tokens and their classes are exactly those ReversePolishNotation has
+ * always used: whitespace is [ \t\n\x0B\f\r]; leading whitespace yields an
+ * empty first token if any token follows, and an empty source yields one
+ * empty token; a single character in the range '+'..'/' or one of "%~#=*"
+ * is an operator; a token BigInteger can parse, an optional sign followed
+ * by decimal digits of any script, is a constant; anything else is a
+ * variable.
+ *
+ * A ByteBuffer source is read as UTF-8. Bytes of multi-byte characters are
+ * never whitespace, so tokens are split on bytes; a token holding such
+ * bytes is decoded before it is classified.
+ */
+public final class Tokenizer {
+
+    //token types
+    public static final int END = 0;
+    public static final int OPERATOR = 1;   //operator() is the char
+    public static final int CONSTANT = 2;   //isLong() tells whether longValue() or bigValue() holds it
+    public static final int VARIABLE = 3;   //text() is the name
+
+    private static final int LONG_DIGITS = 18;     //every number of this many digits fits in a long
+
+    private final CharSequence chars;       //source, null if it is bytes
+    private final ByteBuffer bytes;         //source, null if it is chars
+    private final Latin1 ascii;             //bytes seen as chars, null if the source is chars
+    private final int limit;                //end of the source
+    private int position;                   //start of the next token, after any whitespace
+    private boolean emptyToken;             //the next token is the empty one split() yields
+    private int start;                      //current token is [start, end) of the source
+    private int end;
+    private int type;
+    private char operator;
+    private boolean isLong;
+    private long longValue;
+    private BigInteger bigValue;
+    private String text;                    //the token, if it was decoded or asked for
+
+    /**
+     * Scans a sequence of chars.
+     * @param source
+     * PreCondition: source should not be modified while it is scanned.
+     */
+    public Tokenizer(CharSequence source) {
+        this(source, null, source.length(), 0);
+    }
+
+    /**
+     * Scans the remaining bytes of a buffer as UTF-8, without moving its
+     * position.
+     * @param source
+     * PreCondition: source should not be modified while it is scanned.
+     */
+    public Tokenizer(ByteBuffer source) {
+        this(null, source, source.limit(), source.position());
+    }
+
+    private Tokenizer(CharSequence chars, ByteBuffer bytes, int limit, int position) {
+        this.chars = chars;
+        this.bytes = bytes;
+        ascii = bytes == null ? null : new Latin1(bytes);
+        this.limit = limit;
+        int i = skipWhitespace(position);
+        emptyToken = i == position ? position == limit : i < limit;
+        this.position = i;
+    }
+
+    /**
+     * Advances to the next token.
+     * @return int: the type of the token, END after the last one
+     * Complexity: Theta(k) in the length k of the token and the whitespace
+     * after it.
+     */
+    public int next() {
+        text = null;
+        bigValue = null;
+        if (emptyToken) {
+            emptyToken = false;
+            start = position;
+            end = position;
+            text = "";
+            return type = VARIABLE;
+        }
+        if (position == limit) {
+            start = limit;
+            end = limit;
+            return type = END;
+        }
+        start = position;
+        int i = start;
+        boolean asciiOnly = true;
+        while (i < limit) {
+            int c = at(i);
+            if (isWhitespace(c)) {
+                break;
+            }
+            asciiOnly &= c < 0x80;
+            i++;
+        }
+        end = i;
+        position = skipWhitespace(i);
+        if (!asciiOnly && bytes != null) {
+            byte[] token = new byte[end - start];
+            for (int k = 0; k < token.length; k++) {
+                token[k] = bytes.get(start + k);
+            }
+            text = new String(token, StandardCharsets.UTF_8);
+            return type = classify(text, 0, text.length());
+        }
+        return type = classify(chars != null ? chars : ascii, start, end);
+    }
+
+    /**
+     * Returns the type of the current token.
+     * @return int
+     */
+    public int type() {
+        return type;
+    }
+
+    public char operator() {
+        return operator;
+    }
+
+    /**
+     * Tells whether the current constant fits in a long.
+     * @return boolean
+     */
+    public boolean isLong() {
+        return isLong;
+    }
+
+    public long longValue() {
+        return longValue;
+    }
+
+    /**
+     * Returns the current constant as a BigInteger.
+     * @return BigInteger
+     */
+    public BigInteger bigValue() {
+        if (bigValue == null) {
+            bigValue = BigInteger.valueOf(longValue);
+        }
+        return bigValue;
+    }
+
+    /**
+     * Returns the current token as a String.
+     * @return String
+     */
+    public String text() {
+        if (text == null) {
+            text = chars != null ? chars.subSequence(start, end).toString() : ascii.substring(start, end);
+        }
+        return text;
+    }
+
+    /**
+     * Classifies the token s[from, to) and parses it if it is a constant.
+     * @return int: the type of the token
+     */
+    private int classify(CharSequence s, int from, int to) {
+        char first = s.charAt(from);
+        if (to - from == 1 && (first >= '+' && first <= '/' || first == '%' || first == '~' || first == '#'
+                || first == '=' || first == '*')) {
+            operator = first;
+            return OPERATOR;
+        }
+        boolean negative = first == '-';
+        int i = negative || first == '+' ? from + 1 : from;
+        if (i == to || digit(s.charAt(i)) < 0) {
+            return VARIABLE;
+        }
+        long value = 0;
+        for (int k = i; k < to; k++) {
+            int d = digit(s.charAt(k));
+            if (d < 0) {
+                return VARIABLE;
+            }
+            value = value * 10 + d;     //wraps past 18 digits, where it is not used
+        }
+        isLong = to - i <= LONG_DIGITS;
+        if (isLong) {
+            longValue = negative ? -value : value;
+        } else {
+            bigValue = new BigInteger(s.subSequence(from, to).toString());
+        }
+        return CONSTANT;
+    }
+
+    private static int digit(char c) {
+        return c >= '0' && c <= '9' ? c - '0' : c < 0x80 ? -1 : Character.digit(c, 10);
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c >= '\t' && c <= '\r';
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < limit && isWhitespace(at(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private int at(int i) {
+        return chars != null ? chars.charAt(i) : bytes.get(i) & 0xFF;
+    }
+
+    /**
+     * The bytes of an ASCII token seen as chars.
+     */
+    private static final class Latin1 implements CharSequence {
+
+        private final ByteBuffer bytes;
+
+        Latin1(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return substring(from, to);
+        }
+
+        String substring(int from, int to) {
+            char[] token = new char[to - from];
+            for (int k = 0; k < token.length; k++) {
+                token[k] = charAt(from + k);
+            }
+            return new String(token);
+        }
+    }
+}
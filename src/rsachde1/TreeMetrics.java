@@ -0,0 +1,270 @@
+package rsachde1;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Cumulative counters for a Red Black Tree. The counters are LongAdders, so
+ * threads updating the same instance do not contend on one cache line. The
+ * tree adds its counts once per operation rather than once per node visited.
+ * Several trees may share one instance.
+ *
+ * The rates of the MBean are measured over fixed windows of about a second,
+ * so every reader sees the same rate however often it polls. A caller that
+ * wants the rate over its own interval takes a snapshot() at each end and
+ * compares them.
+ */
+public class TreeMetrics implements TreeMetricsMBean {
+
+    private static final long RATE_WINDOW_NANOS = 1000000000L;    //rates are measured over windows this long or longer
+
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder recolorings = new LongAdder();
+    private final LongAdder fixupIterations = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private Snapshot rateFrom = snapshot();         //start of the latest complete rate window, or of the first one
+    private Snapshot rateTo;                        //end of the latest complete rate window, null before the first
+
+    /**
+     * Records a lookup (or contains) that compared against compares keys.
+     * @param compares
+     */
+    public void recordLookup(int compares) {
+        lookups.increment();
+        comparisons.add(compares);
+    }
+
+    /**
+     * Records an insert that compared against compares keys.
+     * @param compares
+     */
+    public void recordInsert(int compares) {
+        inserts.increment();
+        comparisons.add(compares);
+    }
+
+    /**
+     * Records a delete that compared against compares keys.
+     * @param compares
+     */
+    public void recordDelete(int compares) {
+        deletes.increment();
+        comparisons.add(compares);
+    }
+
+    public void recordRotation() {
+        rotations.increment();
+    }
+
+    /**
+     * Records one run of an insert or delete fixup.
+     * @param iterations: number of times the fixup loop ran
+     * @param recolored: number of nodes whose color was changed
+     */
+    public void recordFixup(int iterations, int recolored) {
+        fixupIterations.add(iterations);
+        recolorings.add(recolored);
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations.sum();
+    }
+
+    @Override
+    public long getRecolorings() {
+        return recolorings.sum();
+    }
+
+    @Override
+    public long getFixupIterations() {
+        return fixupIterations.sum();
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getInserts() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getDeletes() {
+        return deletes.sum();
+    }
+
+    @Override
+    public synchronized double getLookupsPerSecond() {
+        return rateWindowEnd().lookupsPerSecond(rateFrom);
+    }
+
+    @Override
+    public synchronized double getInsertsPerSecond() {
+        return rateWindowEnd().insertsPerSecond(rateFrom);
+    }
+
+    /**
+     * Closes the current rate window if it is RATE_WINDOW_NANOS old, and
+     * returns the end of the latest complete window. Until the first window
+     * closes, returns the present, so the rates cover the time since the
+     * counters started.
+     * PreCondition: the caller holds this.
+     * @return Snapshot: the window is rateFrom to it
+     */
+    private Snapshot rateWindowEnd() {
+        Snapshot now = snapshot();
+        Snapshot start = rateTo != null ? rateTo : rateFrom;
+        if (now.getNanoTime() - start.getNanoTime() >= RATE_WINDOW_NANOS) {
+            rateFrom = start;
+            rateTo = now;
+        }
+        return rateTo != null ? rateTo : now;
+    }
+
+    @Override
+    public void reset() {
+        comparisons.reset();
+        rotations.reset();
+        recolorings.reset();
+        fixupIterations.reset();
+        lookups.reset();
+        inserts.reset();
+        deletes.reset();
+        synchronized (this) {
+            rateFrom = snapshot();
+            rateTo = null;
+        }
+    }
+
+    /**
+     * Returns the current value of every counter. Rates are computed by
+     * comparing two snapshots.
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Registers this instance with the platform MBean server as
+     * rsachde1:type=TreeMetrics,name=<name>.
+     * @param name
+     * @return ObjectName it was registered under
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("rsachde1:type=TreeMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("error: cannot register tree metrics " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * An immutable copy of the counters at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final long nanoTime;
+        private final long comparisons;
+        private final long rotations;
+        private final long recolorings;
+        private final long fixupIterations;
+        private final long lookups;
+        private final long inserts;
+        private final long deletes;
+
+        private Snapshot(TreeMetrics m) {
+            nanoTime = System.nanoTime();
+            comparisons = m.comparisons.sum();
+            rotations = m.rotations.sum();
+            recolorings = m.recolorings.sum();
+            fixupIterations = m.fixupIterations.sum();
+            lookups = m.lookups.sum();
+            inserts = m.inserts.sum();
+            deletes = m.deletes.sum();
+        }
+
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        public long getComparisons() {
+            return comparisons;
+        }
+
+        public long getRotations() {
+            return rotations;
+        }
+
+        public long getRecolorings() {
+            return recolorings;
+        }
+
+        public long getFixupIterations() {
+            return fixupIterations;
+        }
+
+        public long getLookups() {
+            return lookups;
+        }
+
+        public long getInserts() {
+            return inserts;
+        }
+
+        public long getDeletes() {
+            return deletes;
+        }
+
+        /**
+         * Returns the lookup rate between an earlier snapshot and this one.
+         * @param earlier
+         * @return double: lookups per second
+         */
+        public double lookupsPerSecond(Snapshot earlier) {
+            return perSecond(lookups - earlier.lookups, earlier);
+        }
+
+        /**
+         * Returns the insert rate between an earlier snapshot and this one.
+         * @param earlier
+         * @return double: inserts per second
+         */
+        public double insertsPerSecond(Snapshot earlier) {
+            return perSecond(inserts - earlier.inserts, earlier);
+        }
+
+        /**
+         * Returns the average number of comparisons per lookup, insert or
+         * delete between an earlier snapshot and this one.
+         * @param earlier
+         * @return double
+         */
+        public double comparisonsPerOperation(Snapshot earlier) {
+            long ops = (lookups - earlier.lookups) + (inserts - earlier.inserts) + (deletes - earlier.deletes);
+            return ops == 0 ? 0 : (double) (comparisons - earlier.comparisons) / ops;
+        }
+
+        private double perSecond(long delta, Snapshot earlier) {
+            long nanos = nanoTime - earlier.nanoTime;
+            return nanos <= 0 ? 0 : delta * 1e9 / nanos;
+        }
+    }
+}
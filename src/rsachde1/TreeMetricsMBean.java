@@ -0,0 +1,36 @@
+package rsachde1;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * JMX view of the counters of a TreeMetrics instance.
+ */
+public interface TreeMetricsMBean {
+
+    long getComparisons();
+
+    long getRotations();
+
+    long getRecolorings();
+
+    long getFixupIterations();
+
+    long getLookups();
+
+    long getInserts();
+
+    long getDeletes();
+
+    /**
+     * Lookups per second over the latest complete window of about a second,
+     * or since the start until the first window closes.
+     */
+    double getLookupsPerSecond();
+
+    /**
+     * Inserts per second over the same window as getLookupsPerSecond().
+     */
+    double getInsertsPerSecond();
+
+    void reset();
+}
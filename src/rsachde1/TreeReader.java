@@ -0,0 +1,234 @@
+package rsachde1;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Streams the entries written by a TreeWriter back from a channel, in key
+ * order. A block is checked against its CRC32 before any of its entries is
+ * returned, and the end marker is checked when the last entry is returned,
+ * so a damaged or truncated dump fails instead of yielding wrong entries.
+ *
+ * The entry count is known after the header, so the reader can be handed
+ * straight to RedBlackTree.buildFromSorted(); readTree() does that.
+ */
+public class TreeReader implements Iterator<KeyValuePair> {
+
+    private final ReadableByteChannel channel;
+    private final CRC32 crc;
+    private ByteBuffer in;          //bytes read from the channel and not consumed yet
+    private ByteBuffer block;       //unread payload of the current block
+    private final long count;       //entries announced in the header
+    private long read;              //entries returned so far
+    private int blockEntries;       //entries left in the current block
+    private long blockIndex;        //number of the current block, for error messages
+    private char[] key;             //chars of the last key, for front coding
+    private int keyLength;
+
+    /**
+     * Reads and checks the header.
+     * @param channel: holds the dump
+     * @throws IOException if the channel does not start with a tree dump of
+     * a known version
+     */
+    public TreeReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        crc = new CRC32();
+        in = ByteBuffer.allocate(2 * BinaryFormat.BLOCK_BYTES);
+        in.flip();
+        key = new char[64];
+        require(5);
+        if (in.getInt() != BinaryFormat.MAGIC) {
+            throw new IOException("error: not a tree dump");
+        }
+        byte version = in.get();
+        if (version != BinaryFormat.VERSION) {
+            throw new IOException("error: unknown tree dump version " + version);
+        }
+        count = readVarint();
+        ByteBuffer header = ByteBuffer.allocate(5 + BinaryFormat.MAX_VARINT_BYTES);
+        header.putInt(BinaryFormat.MAGIC);
+        header.put(version);
+        BinaryFormat.putVarint(header, count);
+        crc.update(header.array(), 0, header.position());
+        require(4);
+        if (in.getInt() != (int) crc.getValue()) {
+            throw new IOException("error: tree dump header is corrupt");
+        }
+        if (count == 0) {
+            readEnd();
+        }
+    }
+
+    /**
+     * Builds a tree from the dump in channel.
+     * @param channel
+     * @return RedBlackTree holding the entries of the dump
+     * @throws IOException if the dump is damaged
+     * Complexity: Theta(n) in the size of the dump.
+     */
+    public static RedBlackTree readTree(ReadableByteChannel channel) throws IOException {
+        TreeReader reader = new TreeReader(channel);
+        if (reader.getCount() > Integer.MAX_VALUE) {
+            throw new IOException("error: " + reader.getCount() + " entries do not fit in a tree");
+        }
+        try {
+            return RedBlackTree.buildFromSorted(reader, (int) reader.getCount());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the dump.
+     * @return long
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return read < count;
+    }
+
+    /**
+     * Returns the next entry, as read() does.
+     * @throws UncheckedIOException if the dump is damaged
+     */
+    @Override
+    public KeyValuePair next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the next entry, or null after the last one.
+     * @return KeyValuePair
+     * @throws IOException if the dump is damaged or truncated
+     * Complexity: Theta(1) amortized in the number of entries.
+     */
+    public KeyValuePair read() throws IOException {
+        if (read == count) {
+            return null;
+        }
+        while (blockEntries == 0) {
+            nextBlock();
+            if (blockEntries == 0) {
+                throw new IOException("error: tree dump ends after " + read + " of " + count + " entries");
+            }
+        }
+        KeyValuePair pair;
+        try {
+            int shared = BinaryFormat.checkLength(BinaryFormat.getVarint(block), keyLength);
+            int suffixBytes = BinaryFormat.checkLength(BinaryFormat.getVarint(block), block.remaining());
+            if (key.length < shared + suffixBytes) {
+                char[] larger = new char[Math.max(shared + suffixBytes, 2 * key.length)];
+                System.arraycopy(key, 0, larger, 0, shared);
+                key = larger;
+            }
+            keyLength = BinaryFormat.getUtf(block, suffixBytes, key, shared);
+            BigInteger value = BinaryFormat.getValue(block);
+            pair = new KeyValuePair(new String(key, 0, keyLength), value);
+        } catch (RuntimeException e) {
+            throw new IOException("error: block " + blockIndex + " of tree dump is malformed", e);
+        }
+        read++;
+        blockEntries--;
+        if (blockEntries == 0 && block.hasRemaining()) {
+            throw new IOException("error: block " + blockIndex + " of tree dump is malformed");
+        }
+        if (read == count) {
+            readEnd();
+        }
+        return pair;
+    }
+
+    /**
+     * Checks that the end marker follows the last entry.
+     */
+    private void readEnd() throws IOException {
+        if (blockEntries != 0) {
+            throw new IOException("error: tree dump holds more than " + count + " entries");
+        }
+        nextBlock();
+        if (blockEntries != 0 || block.hasRemaining()) {
+            throw new IOException("error: tree dump holds more than " + count + " entries");
+        }
+    }
+
+    /**
+     * Reads the next block and checks its CRC32.
+     */
+    private void nextBlock() throws IOException {
+        blockIndex++;
+        int payload = BinaryFormat.checkLength(readVarint(), Integer.MAX_VALUE - 4);
+        long entries = readVarint();
+        if (entries > payload) {
+            throw new IOException("error: block " + blockIndex + " of tree dump is malformed");
+        }
+        require(payload + 4);
+        int start = in.position();
+        crc.reset();
+        crc.update(in.array(), start, payload);
+        if (in.getInt(start + payload) != (int) crc.getValue()) {
+            throw new IOException("error: block " + blockIndex + " of tree dump is corrupt");
+        }
+        block = in.duplicate();
+        block.limit(start + payload);
+        in.position(start + payload + 4);
+        blockEntries = (int) entries;
+        keyLength = 0;
+    }
+
+    private long readVarint() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            require(1);
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IOException("error: block " + blockIndex + " of tree dump is malformed");
+    }
+
+    /**
+     * Makes at least n bytes available in the buffer. Only called between
+     * blocks, since it moves the bytes of the buffer.
+     */
+    private void require(int n) throws IOException {
+        if (in.remaining() >= n) {
+            return;
+        }
+        in.compact();
+        while (in.position() < n) {
+            if (!in.hasRemaining()) {   //grow as bytes arrive, so a corrupt length cannot exhaust memory
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(n, 2L * in.capacity()));
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+            if (channel.read(in) < 0) {
+                throw new EOFException("error: tree dump is truncated");
+            }
+        }
+        in.flip();
+    }
+}
@@ -0,0 +1,200 @@
+package rsachde1;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Streams sorted entries to a channel in the binary format described in
+ * BinaryFormat: keys front coded, small values inlined as varints, and a
+ * CRC32 per block of about 64KB. Values are written as bytes, never as
+ * decimal text, so a value of n digits costs Theta(n) instead of the
+ * quadratic BigInteger.toString().
+ *
+ * The entry count goes in the header, so a TreeReader knows it before the
+ * first entry and can feed RedBlackTree.buildFromSorted() directly.
+ */
+public class TreeWriter implements Closeable {
+
+    private final WritableByteChannel channel;
+    private final long count;           //entries announced in the header
+    private final CRC32 crc;
+    private ByteBuffer block;           //payload of the open block
+    private final ByteBuffer out;       //framed blocks waiting to be written
+    private int blockEntries;           //entries in the open block
+    private long written;               //entries written so far
+    private String previous;            //last key written, null at the start of a block
+    private String lastKey;             //last key written, to check the order
+    private boolean closed;
+
+    /**
+     * Writes the header for count entries.
+     * @param channel: receives the entries; not closed by close()
+     * @param count: the exact number of entries that will be written
+     * @throws IOException
+     */
+    public TreeWriter(WritableByteChannel channel, long count) throws IOException {
+        if (count < 0) {
+            throw new RuntimeException("error: entry count should not be negative, not " + count);
+        }
+        this.channel = channel;
+        this.count = count;
+        crc = new CRC32();
+        block = ByteBuffer.allocate(2 * BinaryFormat.BLOCK_BYTES);
+        out = ByteBuffer.allocate(BinaryFormat.BLOCK_BYTES + 32);
+        out.putInt(BinaryFormat.MAGIC);
+        out.put(BinaryFormat.VERSION);
+        BinaryFormat.putVarint(out, count);
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Writes the entries of map in key order.
+     * @param map
+     * @param channel: receives the entries; not closed
+     * @throws IOException
+     * PreCondition: map should not be modified meanwhile.
+     * Complexity: Theta(n) in the size of map and its keys and values.
+     */
+    public static void write(OrderedMap map, WritableByteChannel channel) throws IOException {
+        final TreeWriter writer = new TreeWriter(channel, map.getSize());
+        try {
+            map.inOrderTraversal(pair -> writer.writeUnchecked(pair.getKey(), pair.getValue()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.close();
+    }
+
+    public void write(KeyValuePair pair) throws IOException {
+        write(pair.getKey(), pair.getValue());
+    }
+
+    /**
+     * Appends an entry.
+     * @param key
+     * @param value
+     * @throws IOException
+     * PreCondition: key should be greater than every key written before, and
+     * fewer than count entries should have been written.
+     * Complexity: Theta(1) amortized in the number of entries.
+     */
+    public void write(String key, BigInteger value) throws IOException {
+        if (closed) {
+            throw new RuntimeException("error: tree writer is closed");
+        }
+        if (written == count) {
+            throw new RuntimeException("error: more than " + count + " entries written");
+        }
+        if (lastKey != null && lastKey.compareTo(key) >= 0) {
+            throw new RuntimeException("error: keys are not strictly ascending at " + key);
+        }
+        int shared = 0;
+        if (previous != null) {
+            int n = Math.min(previous.length(), key.length());
+            while (shared < n && previous.charAt(shared) == key.charAt(shared)) {
+                shared++;
+            }
+        }
+        int suffixBytes = BinaryFormat.utfLength(key, shared);
+        int needed = 2 * BinaryFormat.MAX_VARINT_BYTES + suffixBytes + BinaryFormat.valueBytes(value);
+        if (block.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(block.position() + needed);
+            block.flip();
+            larger.put(block);
+            block = larger;
+        }
+        BinaryFormat.putVarint(block, shared);
+        BinaryFormat.putVarint(block, suffixBytes);
+        BinaryFormat.putUtf(block, key, shared);
+        BinaryFormat.putValue(block, value);
+        blockEntries++;
+        written++;
+        previous = key;
+        lastKey = key;
+        if (block.position() >= BinaryFormat.BLOCK_BYTES) {
+            finishBlock();
+        }
+    }
+
+    /**
+     * Writes the last block and the end marker.
+     * @throws IOException, or RuntimeException if fewer than count entries
+     * were written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (written != count) {
+            throw new RuntimeException("error: " + written + " entries written, " + count + " announced");
+        }
+        if (blockEntries > 0) {
+            finishBlock();
+        }
+        finishBlock();      //the empty end block
+        drain();
+    }
+
+    private void writeUnchecked(String key, BigInteger value) {
+        try {
+            write(key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Frames the open block into out and starts a new one. An empty block
+     * is the end marker.
+     */
+    private void finishBlock() throws IOException {
+        int payload = block.position();
+        if (out.remaining() < 2 * BinaryFormat.MAX_VARINT_BYTES + 4) {
+            drain();
+        }
+        BinaryFormat.putVarint(out, payload);
+        BinaryFormat.putVarint(out, blockEntries);
+        crc.reset();
+        crc.update(block.array(), 0, payload);
+        block.flip();
+        while (block.hasRemaining()) {
+            if (!out.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(out.remaining(), block.remaining());
+            out.put(block.array(), block.position(), n);
+            block.position(block.position() + n);
+        }
+        if (out.remaining() < 4) {
+            drain();
+        }
+        out.putInt((int) crc.getValue());
+        block.clear();
+        if (block.capacity() > 2 * BinaryFormat.BLOCK_BYTES) {
+            block = ByteBuffer.allocate(2 * BinaryFormat.BLOCK_BYTES);
+        }
+        blockEntries = 0;
+        previous = null;
+        if (out.position() >= BinaryFormat.BLOCK_BYTES) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+}
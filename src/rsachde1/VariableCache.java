@@ -0,0 +1,250 @@
+package rsachde1;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * A bounded cache of variable values in front of a variable tree, so a hot
+ * variable resolves with one hash lookup instead of a tree descent. Entries
+ * are spread over independently locked stripes, and each stripe evicts with
+ * the CLOCK algorithm: a hit sets the entry's reference bit, and the hand
+ * clears bits until it finds an entry that was not used since its last pass.
+ *
+ * A value read from the tree is only cached if no variable of its stripe was
+ * invalidated since the read started, so a racing assignment can never be
+ * overwritten by the value it replaced. Every change to a variable must be
+ * followed by invalidate(); ReversePolishNotation does this for its
+ * assignments.
+ */
+public class VariableCache implements VariableCacheMBean {
+
+    private static final int MAX_STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param capacity: maximum number of variables cached
+     * PreCondition: capacity should be positive.
+     */
+    public VariableCache(int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("error: cache capacity should be positive, not " + capacity);
+        }
+        int n = Integer.highestOneBit(Math.min(capacity, MAX_STRIPES));
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe((capacity + n - 1) / n);
+        }
+        this.capacity = stripes[0].ring.length * n;
+    }
+
+    /**
+     * Returns the value of a variable, from the cache if present, else from
+     * tree, caching it.
+     * @param name
+     * @param tree: the tree this cache stands in front of
+     * @return BigInteger
+     * PreCondition: the variable should exist in tree.
+     * Complexity: Theta(1) on a hit, one tree lookup on a miss.
+     */
+    public BigInteger lookup(String name, OrderedMap tree) {
+        Stripe s = stripeOf(name);
+        long version;
+        synchronized (s) {
+            Entry e = s.index.get(name);
+            if (e != null) {
+                e.referenced = true;
+                hits.increment();
+                return e.value;
+            }
+            version = s.version;
+        }
+        misses.increment();
+        BigInteger value = tree.lookup(name);
+        synchronized (s) {
+            if (s.version == version) {
+                s.put(name, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops a variable from the cache. Call it after every change to the
+     * variable in the tree.
+     * @param name
+     * Complexity: Theta(1)
+     */
+    public void invalidate(String name) {
+        Stripe s = stripeOf(name);
+        synchronized (s) {
+            s.version++;
+            s.remove(name);
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * Drops every variable, for example after the tree was changed without
+     * going through invalidate().
+     */
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.version++;
+                s.index.clear();
+                Arrays.fill(s.ring, 0, s.count, null);
+                s.count = 0;
+                s.hand = 0;
+            }
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                size += s.count;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        invalidations.reset();
+    }
+
+    /**
+     * Registers this instance with the platform MBean server as
+     * rsachde1:type=VariableCache,name=<name>.
+     * @param name
+     * @return ObjectName it was registered under
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("rsachde1:type=VariableCache,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("error: cannot register variable cache " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Stripe stripeOf(String name) {
+        int h = name.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Entry {
+
+        final String name;
+        BigInteger value;
+        boolean referenced;     //used since the clock hand last passed
+        int slot;               //position in the ring
+
+        Entry(String name, BigInteger value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One lock's worth of entries. All fields are guarded by the stripe.
+     */
+    private final class Stripe {
+
+        final HashMap<String, Entry> index;
+        final Entry[] ring;     //ring[0..count) are the entries, swept by the clock hand
+        int count;
+        int hand;
+        long version;           //bumped by every invalidation
+
+        Stripe(int capacity) {
+            index = new HashMap<>(capacity * 2);
+            ring = new Entry[capacity];
+        }
+
+        void put(String name, BigInteger value) {
+            Entry e = index.get(name);
+            if (e != null) {
+                e.value = value;
+                return;
+            }
+            e = new Entry(name, value);
+            if (count < ring.length) {
+                e.slot = count++;
+            } else {
+                while (ring[hand].referenced) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % ring.length;
+                }
+                index.remove(ring[hand].name);
+                evictions.increment();
+                e.slot = hand;
+                hand = (hand + 1) % ring.length;
+            }
+            ring[e.slot] = e;
+            index.put(name, e);
+        }
+
+        void remove(String name) {
+            Entry e = index.remove(name);
+            if (e == null) {
+                return;
+            }
+            Entry last = ring[--count];
+            ring[e.slot] = last;
+            last.slot = e.slot;
+            ring[count] = null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package rsachde1;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * JMX view of the counters of a VariableCache.
+ */
+public interface VariableCacheMBean {
+
+    int getCapacity();
+
+    int getSize();
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    long getInvalidations();
+
+    /**
+     * Hits divided by lookups since the last reset(), 0 before any lookup.
+     */
+    double getHitRate();
+
+    void reset();
+}
@@ -0,0 +1,717 @@
+package rsachde1;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Makes the variables of a ReversePolishNotation survive a crash. Every
+ * assignment is appended to a log as a record numbered by a log sequence
+ * number (LSN), and now and then the whole variable tree is written to a
+ * snapshot. A directory holds:
+ * <pre>
+ *   snapshot-&lt;lsn&gt;.snap   every variable as of record lsn, written by a TreeWriter
+ *   wal-&lt;lsn&gt;.log        records lsn, lsn + 1, ... in order
+ * </pre>
+ * A record is its payload length, the CRC32 of its payload, and the payload:
+ * the LSN, the key length and the key in modified UTF-8, and the two's
+ * complement bytes of the value.
+ *
+ * Appending only copies the record into a buffer. A flusher thread writes the
+ * buffer to the log and forces it every flush interval, or as soon as someone
+ * waits for it, so one force commits every record appended meanwhile (group
+ * commit). When syncOnCommit is set, append() returns once its record is on
+ * disk; otherwise a crash loses at most the last flush interval.
+ *
+ * A checkpoint copies the entries of the tree in key order, starts a new log
+ * segment and hands the copy to a background thread, which writes the
+ * snapshot and then deletes the log segments it covers. Opening a directory
+ * recovers the variables: the log records after the latest snapshot are
+ * sorted and merged into its entries, and one balanced tree is built from
+ * the result in linear time. Replay stops at the first torn or corrupt record, which is where the
+ * writer crashed.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int RECORD_HEADER_BYTES = 8;       //payload length and CRC32
+    private static final int PAYLOAD_HEADER_BYTES = 12;     //LSN and key length
+    private static final int BUFFER_BYTES = 1 << 20;        //records buffered before appenders wait
+    private static final int IO_BUFFER_BYTES = 1 << 16;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 1000000;   //records between snapshots
+
+    private final Path directory;
+    private final boolean syncOnCommit;
+    private final long flushIntervalMillis;
+    private final RedBlackTree recoveredTree;   //the variables found on opening
+    private final CRC32 crc;                    //checksums records, guarded by this
+    private ByteBuffer buffer;          //records appended since the last flush, guarded by this
+    private ByteBuffer spare;           //buffer to swap in at the next flush, guarded by this
+    private long lastLsn;               //LSN of the last appended record, guarded by this
+    private long durableLsn;            //LSN of the last forced record, guarded by this
+    private long snapshotLsn;           //LSN of the last snapshot, guarded by this
+    private long checkpointInterval;    //records between automatic snapshots, guarded by this
+    private boolean flushRequested;     //someone waits for the flusher, guarded by this
+    private boolean closed;             //guarded by this
+    private IOException failure;        //first error of the flusher, guarded by this
+    private final Object channelLock;   //held while writing the log or starting a segment
+    private FileChannel channel;        //current log segment, guarded by channelLock
+    private final Thread flusher;
+    private Thread snapshotWriter;      //writes the last checkpoint, guarded by this
+    private IOException snapshotFailure;    //guarded by this
+
+    /**
+     * Opens the log in directory with a 10ms flush interval, creating the
+     * directory if needed, and recovers the variables stored there.
+     * @param directory
+     * @param syncOnCommit: if true, each append is durable when it returns
+     * @throws IOException if the directory cannot be read, or records that
+     * the latest snapshot does not cover are missing from the log
+     */
+    public WriteAheadLog(Path directory, boolean syncOnCommit) throws IOException {
+        this(directory, syncOnCommit, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param directory
+     * @param syncOnCommit: if true, each append is durable when it returns
+     * @param flushIntervalMillis: longest time an appended record stays in
+     * memory
+     * @throws IOException
+     * PreCondition: flushIntervalMillis should be positive.
+     */
+    public WriteAheadLog(Path directory, boolean syncOnCommit, long flushIntervalMillis) throws IOException {
+        if (flushIntervalMillis < 1) {
+            throw new RuntimeException("error: flush interval should be positive, not " + flushIntervalMillis);
+        }
+        this.directory = directory;
+        this.syncOnCommit = syncOnCommit;
+        this.flushIntervalMillis = flushIntervalMillis;
+        crc = new CRC32();
+        buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        spare = ByteBuffer.allocate(BUFFER_BYTES);
+        checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        channelLock = new Object();
+        Files.createDirectories(directory);
+        for (Path temp : list("*" + TEMP_SUFFIX)) {
+            Files.delete(temp);
+        }
+        recoveredTree = recover();
+        deleteCoveredSegments(snapshotLsn);
+        channel = openSegment(lastLsn + 1);
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        }, "rsachde1-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Returns the tree of variables recovered when the log was opened: those
+     * of the latest snapshot, updated by the records logged after it.
+     * @return RedBlackTree
+     */
+    public RedBlackTree getRecoveredTree() {
+        return recoveredTree;
+    }
+
+    /**
+     * Logs that key was set to value.
+     * @param key
+     * @param value
+     * @return long: the LSN of the record
+     * PostCondition: if syncOnCommit is set, the record is on disk.
+     * Complexity: Theta(1) in the size of the log, plus one force of the
+     * log shared with concurrent appends if syncOnCommit is set.
+     */
+    public long append(String key, BigInteger value) {
+        long lsn = append0(key, value);
+        if (syncOnCommit) {
+            awaitDurable(lsn);
+        }
+        return lsn;
+    }
+
+    /**
+     * Waits until the record lsn, and every record before it, is on disk.
+     * @param lsn
+     */
+    public synchronized void awaitDurable(long lsn) {
+        while (durableLsn < lsn) {
+            checkOpen();
+            flushRequested = true;
+            notifyAll();
+            waitInterruptibly();
+        }
+    }
+
+    /**
+     * Returns the LSN of the last appended record.
+     * @return long
+     */
+    public synchronized long getLastLsn() {
+        return lastLsn;
+    }
+
+    /**
+     * Returns the LSN of the last record known to be on disk.
+     * @return long
+     */
+    public synchronized long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Returns the LSN covered by the latest snapshot, or 0 if there is none.
+     * @return long
+     */
+    public synchronized long getSnapshotLsn() {
+        return snapshotLsn;
+    }
+
+    /**
+     * Sets how many records checkpointIfDue() lets pass between two
+     * snapshots.
+     * @param records
+     */
+    public synchronized void setCheckpointInterval(long records) {
+        checkpointInterval = records;
+    }
+
+    /**
+     * Takes a checkpoint if checkpointInterval records were appended since
+     * the last one and no snapshot is being written.
+     * @param tree: the tree the logged assignments were applied to
+     * @return boolean: true if a checkpoint was taken
+     * PreCondition: no assignment to tree should be in progress.
+     */
+    public boolean checkpointIfDue(OrderedMap tree) {
+        synchronized (this) {
+            if (lastLsn - snapshotLsn < checkpointInterval
+                    || (snapshotWriter != null && snapshotWriter.isAlive())) {
+                return false;
+            }
+        }
+        checkpoint(tree);
+        return true;
+    }
+
+    /**
+     * Copies the entries of tree in key order and writes them to a snapshot
+     * in the background, after which the log before it is deleted. Waits for
+     * the previous snapshot to be written first.
+     * @param tree: the tree the logged assignments were applied to
+     * PreCondition: no assignment to tree should be in progress.
+     * Complexity: Theta(n) to copy the entries; writing them does not block.
+     */
+    public void checkpoint(OrderedMap tree) {
+        awaitSnapshot();
+        final long lsn;
+        synchronized (this) {
+            checkOpen();
+            lsn = lastLsn;
+        }
+        final Capture capture = new Capture(tree.getSize());
+        tree.inOrderTraversal(capture);
+        flush(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(lsn, capture);
+                    deleteCoveredSegments(lsn);
+                } catch (IOException e) {
+                    synchronized (WriteAheadLog.this) {
+                        snapshotFailure = e;
+                    }
+                }
+            }
+        }, "rsachde1-wal-snapshot");
+        writer.setDaemon(true);
+        synchronized (this) {
+            snapshotWriter = writer;
+        }
+        writer.start();
+    }
+
+    /**
+     * Waits until the snapshot of the last checkpoint is written.
+     * @throws RuntimeException if writing it failed
+     */
+    public void awaitSnapshot() {
+        Thread writer;
+        synchronized (this) {
+            writer = snapshotWriter;
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("error: interrupted while writing a snapshot", e);
+            }
+        }
+        synchronized (this) {
+            if (snapshotFailure != null) {
+                IOException e = snapshotFailure;
+                snapshotFailure = null;
+                throw new RuntimeException("error: cannot write snapshot: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Forces every appended record to disk, waits for a pending snapshot and
+     * closes the log.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        try {
+            awaitSnapshot();
+            flush(false);
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (channelLock) {
+                channel.close();
+            }
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Encodes a record into the buffer, waiting for the flusher while the
+     * buffer is full.
+     */
+    private synchronized long append0(String key, BigInteger value) {
+        checkOpen();
+        int keyLength = BinaryFormat.utfLength(key, 0);
+        byte[] bytes = value.toByteArray();
+        int payloadLength = PAYLOAD_HEADER_BYTES + keyLength + bytes.length;
+        int recordLength = RECORD_HEADER_BYTES + payloadLength;
+        while (buffer.remaining() < recordLength) {
+            if (buffer.position() == 0) {
+                buffer = ByteBuffer.allocate(recordLength);     //one record larger than the buffer
+                break;
+            }
+            flushRequested = true;
+            notifyAll();
+            waitInterruptibly();
+            checkOpen();
+        }
+        long lsn = ++lastLsn;
+        int start = buffer.position();
+        buffer.putInt(payloadLength);
+        buffer.putInt(0);
+        buffer.putLong(lsn);
+        buffer.putInt(keyLength);
+        BinaryFormat.putUtf(buffer, key, 0);
+        buffer.put(bytes);
+        crc.reset();
+        crc.update(buffer.array(), start + RECORD_HEADER_BYTES, payloadLength);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return lsn;
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new RuntimeException("error: write-ahead log failed: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new RuntimeException("error: write-ahead log is closed");
+        }
+    }
+
+    private void waitInterruptibly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("error: interrupted while waiting for the write-ahead log", e);
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            synchronized (this) {
+                if (!flushRequested && !closed) {
+                    try {
+                        wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed || failure != null) {
+                    return;
+                }
+                flushRequested = false;
+            }
+            try {
+                flush(false);
+            } catch (RuntimeException e) {
+                return;     //failure is set; appenders see it
+            }
+        }
+    }
+
+    /**
+     * Writes and forces the buffered records, then starts a new log segment
+     * if roll is set. One caller at a time holds channelLock; appends go on
+     * into the other buffer meanwhile.
+     */
+    private void flush(boolean roll) {
+        synchronized (channelLock) {
+            ByteBuffer batch;
+            long upTo;
+            synchronized (this) {
+                checkOpen();
+                batch = buffer;
+                buffer = spare;
+                spare = null;
+                upTo = lastLsn;
+            }
+            try {
+                if (batch.position() > 0) {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                }
+                if (roll) {
+                    channel.close();
+                    channel = openSegment(upTo + 1);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    notifyAll();
+                }
+                throw new RuntimeException("error: write-ahead log failed: " + e.getMessage(), e);
+            }
+            batch.clear();
+            synchronized (this) {
+                spare = batch.capacity() == BUFFER_BYTES ? batch : ByteBuffer.allocate(BUFFER_BYTES);
+                durableLsn = upTo;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Opens a new log segment whose first record will be lsn. A file of that
+     * name can only hold a torn first record, so it is truncated.
+     */
+    private FileChannel openSegment(long lsn) throws IOException {
+        FileChannel segment = FileChannel.open(segmentPath(lsn), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        syncDirectory();
+        return segment;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file with a TreeWriter, forces it and
+     * renames it, so a snapshot file is always complete.
+     */
+    private void writeSnapshot(long lsn, Capture capture) throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_PREFIX + number(lsn) + TEMP_SUFFIX);
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            TreeWriter writer = new TreeWriter(file, capture.count);
+            for (int i = 0; i < capture.count; i++) {
+                writer.write(capture.keys[i], capture.values[i]);
+            }
+            writer.close();
+            file.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_PREFIX + number(lsn) + SNAPSHOT_SUFFIX),
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        synchronized (this) {
+            snapshotLsn = Math.max(snapshotLsn, lsn);
+        }
+    }
+
+    /**
+     * Deletes the snapshots older than the one at lsn, and the log segments
+     * whose records all precede lsn + 1. The current segment is never
+     * deleted.
+     */
+    private void deleteCoveredSegments(long lsn) throws IOException {
+        for (Path snapshot : list(SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            if (number(snapshot, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < lsn) {
+                Files.delete(snapshot);
+            }
+        }
+        List<Path> segments = list(LOG_PREFIX + "*" + LOG_SUFFIX);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (number(segments.get(i + 1), LOG_PREFIX, LOG_SUFFIX) <= lsn + 1) {
+                Files.delete(segments.get(i));
+            }
+        }
+    }
+
+    /**
+     * Loads the latest readable snapshot and the log after it, and builds
+     * one balanced tree of both. Sets snapshotLsn, lastLsn and durableLsn.
+     */
+    private RedBlackTree recover() throws IOException {
+        KeyValuePair[] entries = null;
+        List<Path> snapshots = list(SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX);
+        for (int i = snapshots.size() - 1; i >= 0 && entries == null; i--) {
+            entries = readSnapshot(snapshots.get(i));
+        }
+        if (entries == null) {
+            entries = new KeyValuePair[0];
+            snapshotLsn = 0;
+        }
+        lastLsn = snapshotLsn;
+        List<KeyValuePair> tail = new ArrayList<>();
+        List<Path> segments = list(LOG_PREFIX + "*" + LOG_SUFFIX);
+        for (int i = 0; i < segments.size(); i++) {
+            if (!replay(segments.get(i), tail)) {
+                for (int j = i + 1; j < segments.size(); j++) {
+                    Files.delete(segments.get(j));
+                }
+                break;
+            }
+        }
+        durableLsn = lastLsn;
+        KeyValuePair[] merged = merge(entries, tail);
+        return RedBlackTree.buildFromSorted(Arrays.asList(merged).iterator(), merged.length);
+    }
+
+    /**
+     * Merges log records into the sorted entries of a snapshot. A record
+     * replaces the entry with its key, and of several records with one key
+     * the last wins.
+     * @return the merged entries in key order
+     */
+    private static KeyValuePair[] merge(KeyValuePair[] entries, List<KeyValuePair> tail) {
+        if (tail.isEmpty()) {
+            return entries;
+        }
+        KeyValuePair[] batch = tail.toArray(new KeyValuePair[tail.size()]);
+        Arrays.sort(batch, new Comparator<KeyValuePair>() {
+            @Override
+            public int compare(KeyValuePair a, KeyValuePair b) {
+                return a.getKey().compareTo(b.getKey());
+            }
+        });     //stable, so records with one key stay in LSN order
+        KeyValuePair[] merged = new KeyValuePair[entries.length + batch.length];
+        int m = 0;
+        int i = 0;
+        int j = 0;
+        while (i < entries.length || j < batch.length) {
+            int cmp = i == entries.length ? 1 : j == batch.length ? -1
+                    : entries[i].getKey().compareTo(batch[j].getKey());
+            KeyValuePair next = cmp < 0 ? entries[i++] : batch[j++];
+            if (cmp == 0) {
+                i++;
+            }
+            if (m > 0 && merged[m - 1].getKey().equals(next.getKey())) {
+                merged[m - 1] = next;
+            } else {
+                merged[m++] = next;
+            }
+        }
+        return m == merged.length ? merged : Arrays.copyOf(merged, m);
+    }
+
+    /**
+     * Reads the entries of a snapshot file and sets snapshotLsn.
+     * @return the entries in key order, or null if the file is damaged
+     */
+    private KeyValuePair[] readSnapshot(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            TreeReader reader = new TreeReader(channel);
+            if (reader.getCount() > Files.size(file)) {
+                return null;    //an entry takes at least one byte
+            }
+            KeyValuePair[] entries = new KeyValuePair[(int) reader.getCount()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = reader.read();
+            }
+            snapshotLsn = number(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            return entries;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Collects the records of a log segment after lastLsn in tail, and
+     * advances lastLsn.
+     * @return false if the segment ends in a torn or corrupt record after
+     * the snapshot, which is cut off
+     * @throws IOException if the segment skips records
+     */
+    private boolean replay(Path file, List<KeyValuePair> tail) throws IOException {
+        long lsn = number(file, LOG_PREFIX, LOG_SUFFIX);
+        long length = Files.size(file);
+        long position = 0;
+        byte[] payload = new byte[256];
+        CRC32 check = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_BYTES))) {
+            while (position < length) {
+                if (length - position < RECORD_HEADER_BYTES) {
+                    break;
+                }
+                int payloadLength = in.readInt();
+                int checksum = in.readInt();
+                if (payloadLength < PAYLOAD_HEADER_BYTES
+                        || payloadLength > length - position - RECORD_HEADER_BYTES) {
+                    break;
+                }
+                if (payload.length < payloadLength) {
+                    payload = new byte[Math.max(payloadLength, 2 * payload.length)];
+                }
+                in.readFully(payload, 0, payloadLength);
+                check.reset();
+                check.update(payload, 0, payloadLength);
+                ByteBuffer record = ByteBuffer.wrap(payload, 0, payloadLength);
+                if ((int) check.getValue() != checksum || record.getLong() != lsn) {
+                    break;
+                }
+                int keyLength = record.getInt();
+                if (keyLength < 0 || keyLength > payloadLength - PAYLOAD_HEADER_BYTES) {
+                    break;
+                }
+                if (lsn > lastLsn + 1) {
+                    throw new IOException("error: records " + (lastLsn + 1) + " to " + (lsn - 1)
+                            + " are missing from the log in " + directory);
+                }
+                if (lsn == lastLsn + 1) {
+                    char[] key = new char[keyLength];
+                    int chars = BinaryFormat.getUtf(record, keyLength, key, 0);
+                    byte[] value = new byte[record.remaining()];
+                    record.get(value);
+                    tail.add(new KeyValuePair(new String(key, 0, chars), new BigInteger(value)));
+                    lastLsn = lsn;
+                }
+                lsn++;
+                position += RECORD_HEADER_BYTES + payloadLength;
+            }
+        }
+        if (position == length || lsn <= snapshotLsn) {
+            return true;    //a damaged record the snapshot covers does not end the log
+        }
+        try (FileChannel segment = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            segment.truncate(position);
+            segment.force(true);
+        }
+        return false;
+    }
+
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            //not every platform can force a directory; the rename is still atomic
+        }
+    }
+
+    /**
+     * Returns the files of the directory matching glob, in ascending order of
+     * the LSN in their names.
+     */
+    private List<Path> list(String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private Path segmentPath(long lsn) {
+        return directory.resolve(LOG_PREFIX + number(lsn) + LOG_SUFFIX);
+    }
+
+    /**
+     * Formats an LSN with leading zeros, so file names sort by LSN.
+     */
+    private static String number(long lsn) {
+        return String.format("%020d", lsn);
+    }
+
+    private static long number(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * The entries of a tree, copied in key order by a checkpoint. Values are
+     * immutable, so the copy is unaffected by later assignments.
+     */
+    private static final class Capture implements Consumer<KeyValuePair> {
+
+        String[] keys;
+        BigInteger[] values;
+        int count;
+
+        Capture(int capacity) {
+            keys = new String[Math.max(capacity, 16)];
+            values = new BigInteger[keys.length];
+        }
+
+        @Override
+        public void accept(KeyValuePair pair) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * count);
+                values = Arrays.copyOf(values, 2 * count);
+            }
+            keys[count] = pair.getKey();
+            values[count] = pair.getValue();
+            count++;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static rsachde1.TreeAssert.assertSameEntries;
+import static rsachde1.TreeAssert.keys;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks BPlusTree against a TreeMap, including keys that share their
+ * first four characters, which the packed prefixes cannot tell apart.
+ */
+public class BPlusTreeTest {
+
+    @Test
+    public void matchesTreeMap() {
+        Random random = new Random(2);
+        BPlusTree tree = new BPlusTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        for (int i = 0; i < 50000; i++) {
+            String key = random.nextBoolean() ? "var" + random.nextInt(20000)
+                    : Integer.toString(random.nextInt(20000), 36);
+            BigInteger value = BigInteger.valueOf(random.nextLong());
+            tree.insert(key, value);
+            expected.put(key, value);
+        }
+        assertSameEntries(expected, tree);
+        for (Map.Entry<String, BigInteger> e : expected.entrySet()) {
+            assertEquals(e.getValue(), tree.lookup(e.getKey()));
+        }
+        assertFalse(tree.contains("var20000"));
+        assertFalse(tree.contains(""));
+    }
+
+    @Test
+    public void rangeMatchesSubMap() {
+        Random random = new Random(3);
+        BPlusTree tree = new BPlusTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        for (int i = 0; i < 10000; i++) {
+            String key = "k" + random.nextInt(100000);
+            tree.insert(new KeyValuePair(key, BigInteger.valueOf(i)));
+            expected.put(key, BigInteger.valueOf(i));
+        }
+        for (int i = 0; i < 200; i++) {
+            String a = "k" + random.nextInt(100000);
+            String b = "k" + random.nextInt(100000);
+            String from = a.compareTo(b) < 0 ? a : b;
+            String to = a.compareTo(b) < 0 ? b : a;
+            assertEquals(new ArrayList<>(expected.subMap(from, true, to, false).keySet()),
+                    keys(tree.range(from, to)));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks the read and write sets CompiledExpression.analyze() computes: they
+ * must match the expected sets on hand-written programs, and cover every
+ * variable an actual run looks up or assigns, whatever the variable values.
+ */
+public class CompiledExpressionTest {
+
+    private static final String[] TOKENS = {
+        "a", "b", "c", "a", "b", "0", "1", "-1", "7", "9223372036854775808", "+", "-", "*", "/", "%", "~", "#", "="
+    };
+
+    @Test
+    public void analyzeFindsReadsAndWrites() {
+        assertSets("x 5 =", "x", "x");
+        assertSets("a b +", "a b", "");
+        assertSets("a", "a", "");
+        assertSets("x a 1 + =", "a x", "x");
+        assertSets("x y z 2 = =", "", "z");
+        assertSets("x 1 = y 2 = +", "x y", "x y");
+        assertSets("a b c #", "a b c", "");
+        assertSets("a ~", "a", "");
+        //runs that fail whatever the values stop the analysis
+        assertSets("x y =", "", "");
+        assertSets("1 x =", "", "");
+        assertSets("+ a", "", "");
+        assertSets("a b + x 1 = 1 y =", "a b", "x");
+    }
+
+    @Test
+    public void analyzeCoversEveryRun() {
+        Random random = new Random(14);
+        for (boolean longFastPath : new boolean[]{true, false}) {
+            for (int i = 0; i < 20000; i++) {
+                StringBuilder source = new StringBuilder();
+                for (int n = random.nextInt(10); n > 0; n--) {
+                    source.append(TOKENS[random.nextInt(TOKENS.length)]).append(' ');
+                }
+                final Set<String> read = new HashSet<>();
+                final Set<String> written = new HashSet<>();
+                RedBlackTree tree = new RedBlackTree() {
+                    @Override
+                    public BigInteger lookup(String key) {
+                        read.add(key);
+                        return super.lookup(key);
+                    }
+
+                    @Override
+                    public void insert(KeyValuePair insertPair) {
+                        written.add(insertPair.getKey());
+                        super.insert(insertPair);
+                    }
+                };
+                for (String name : new String[]{"a", "b", "c"}) {
+                    if (random.nextBoolean()) {
+                        tree.insert(new KeyValuePair(name, BigInteger.valueOf(random.nextInt(5) - 1)));
+                    }
+                }
+                read.clear();
+                written.clear();
+                ReversePolishNotation rpn = new ReversePolishNotation(tree);
+                rpn.setLongFastPath(longFastPath);
+                CompiledExpression program = CompiledExpression.compile(source.toString());
+                try {
+                    rpn.execute(program);
+                } catch (RuntimeException e) {
+                    //failed runs must stay within the sets too
+                }
+                assertTrue(source + ": " + read, names(program, program.readSlots()).containsAll(read));
+                assertTrue(source + ": " + written, names(program, program.writeSlots()).containsAll(written));
+                assertEquals(source.toString(), !program.assigns(), program.writeSlots().length == 0);
+            }
+        }
+    }
+
+    @Test
+    public void constantsKeepTheirValue() {
+        String source = "0 -1 9223372036854775807 -9223372036854775808 9223372036854775808 -9223372036854775809";
+        CompiledExpression program = CompiledExpression.compile(source);
+        String[] tokens = source.split(" ");
+        assertEquals(tokens.length, program.length());
+        for (int pc = 0; pc < tokens.length; pc++) {
+            assertEquals(CompiledExpression.PUSH_CONSTANT, program.opcode(pc));
+            int index = program.operand(pc);
+            BigInteger value = new BigInteger(tokens[pc]);
+            assertEquals(value, program.constant(index));
+            assertEquals(value.bitLength() < Long.SIZE, program.isLongConstant(index));
+            if (program.isLongConstant(index)) {
+                assertEquals(value.longValue(), program.longConstant(index));
+            }
+        }
+    }
+
+    /**
+     * Checks the read and write sets of source, given as space separated
+     * names.
+     */
+    private static void assertSets(String source, String reads, String writes) {
+        CompiledExpression program = CompiledExpression.compile(source);
+        assertEquals(source, split(reads), new TreeSet<>(names(program, program.readSlots())));
+        assertEquals(source, split(writes), new TreeSet<>(names(program, program.writeSlots())));
+    }
+
+    private static Set<String> split(String names) {
+        return new TreeSet<>(names.isEmpty() ? Arrays.<String>asList() : Arrays.asList(names.split(" ")));
+    }
+
+    private static Set<String> names(CompiledExpression program, int[] slots) {
+        Set<String> names = new HashSet<>();
+        for (int slot : slots) {
+            names.add(program.variable(slot));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,132 @@
+package rsachde1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Runs the EvaluationServer protocol over loopback: pipelined expressions
+ * are answered in order, over-long lines are answered with an error without
+ * ending the session, and variables are seen by every session with a shared
+ * store but only by their own session with scoped ones. On a JVM without
+ * virtual threads this runs the platform-thread sessions.
+ */
+public class EvaluationServerTest {
+
+    private EvaluationServer server;
+
+    @After
+    public void close() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void pipelinedAnswersKeepTheirOrder() throws Exception {
+        for (OrderedMap store : new OrderedMap[]{new ShardedRedBlackTree(), null}) {
+            server = new EvaluationServer(0, store);
+            LoadGenerator load = new LoadGenerator(server.getPort(), 8, 2000, 64);
+            load.run();
+            assertEquals(0, load.getErrors());
+            assertEquals(8, server.getSessionCount());
+            server.close();
+            assertEquals(0, server.getOpenSessions());
+        }
+    }
+
+    @Test
+    public void longLineIsAnsweredWithAnError() throws IOException {
+        server = new EvaluationServer(0, null);
+        char[] digits = new char[(1 << 16) + 1];
+        Arrays.fill(digits, '7');
+        try (Session session = new Session(server.getPort())) {
+            List<String> answers = session.send("x 2 =", new String(digits), "x 3 *", "1\r");
+            assertEquals(Arrays.asList("2", "error: line is longer than 65536 characters", "6", "1"), answers);
+            //exactly the limit is still evaluated
+            assertEquals(Arrays.asList(new String(digits, 1, 1 << 16)), session.send(new String(digits, 1, 1 << 16)));
+        }
+    }
+
+    @Test
+    public void sharedStoreIsSeenByEverySession() throws IOException {
+        server = new EvaluationServer(0, new ConcurrentRedBlackTree());
+        try (Session a = new Session(server.getPort()); Session b = new Session(server.getPort())) {
+            assertEquals(Arrays.asList("5"), a.send("x 5 ="));
+            assertEquals(Arrays.asList("5", "6"), b.send("x", "x x 1 + ="));
+            assertEquals(Arrays.asList("6"), a.send("x"));
+        }
+    }
+
+    @Test
+    public void scopedStoresAreDroppedWithTheSession() throws IOException {
+        server = new EvaluationServer(0, null);
+        try (Session a = new Session(server.getPort()); Session b = new Session(server.getPort())) {
+            assertEquals(Arrays.asList("5"), a.send("x 5 ="));
+            assertEquals(Arrays.asList("error: no variable x", "1"), b.send("x", "x 1 ="));
+            assertEquals(Arrays.asList("5"), a.send("x"));
+        }
+        try (Session c = new Session(server.getPort())) {
+            assertEquals(Arrays.asList("error: no variable x"), c.send("x"));
+        }
+    }
+
+    @Test
+    public void sharedStoreShouldBeThreadSafe() throws IOException {
+        try {
+            server = new EvaluationServer(0, new RedBlackTree());
+            assertNull("a plain RedBlackTree was accepted", server);
+        } catch (RuntimeException e) {
+            assertEquals("error: a shared variable store should be thread-safe, not a RedBlackTree", e.getMessage());
+        }
+    }
+
+    /**
+     * A client connection that sends a burst of lines before reading any
+     * answer.
+     */
+    private static final class Session implements AutoCloseable {
+
+        private final Socket socket;
+        private final BufferedReader in;
+        private final BufferedWriter out;
+
+        Session(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        List<String> send(String... lines) throws IOException {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+            out.flush();
+            List<String> answers = new ArrayList<>();
+            for (int i = 0; i < lines.length; i++) {
+                answers.add(in.readLine());
+            }
+            return answers;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package rsachde1;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static rsachde1.TreeAssert.assertSameEntries;
+import static rsachde1.TreeAssert.entries;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks that evaluateAll(), which runs a window of expressions concurrently
+ * through ExpressionScheduler, writes the same lines and leaves the same
+ * variables as evaluating the expressions one by one, on every tree engine.
+ * The expressions read after write, write after write and write after read
+ * the same few variables, and some of them fail part way through.
+ */
+public class ExpressionSchedulerTest {
+
+    private static final String[] NAMES = {"a", "b", "c", "d", "e"};
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void dependentExpressionsKeepTheirOrder() throws IOException {
+        List<String> lines = Arrays.asList(
+                "x 1 =",
+                "x",                        //read after write
+                "x x 1 + =",                //write after read and write
+                "y x 10 * =",
+                "x 7 =",                    //write after read
+                "y",
+                "z 5 = w =",                //assigns z, then fails
+                "z w +",                    //w is undefined
+                "z 0 /",
+                "1 z =",
+                "x y z + + x =",
+                "x");
+        for (OrderedMap tree : engines()) {
+            assertSameAsSequential(lines, tree);
+        }
+    }
+
+    @Test
+    public void randomWindowsMatchSequential() throws IOException {
+        Random random = new Random(16);
+        for (OrderedMap tree : engines()) {
+            List<String> lines = new ArrayList<>();
+            //more than one window of ReversePolishNotation.BATCH_SIZE
+            for (int i = 0; i < 20000; i++) {
+                lines.add(expression(random));
+            }
+            assertSameAsSequential(lines, tree);
+        }
+    }
+
+    @Test
+    public void failureEndsTheRunWithNoTaskLeft() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger after = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        RedBlackTree tree = new RedBlackTree() {
+            @Override
+            public BigInteger lookup(String key) {
+                if (failed.get()) {
+                    after.incrementAndGet();
+                }
+                active.incrementAndGet();
+                try {
+                    return super.lookup(key);
+                } finally {
+                    active.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void insert(KeyValuePair insertPair) {
+                if (insertPair.getKey().equals("boom")) {
+                    throw new AssertionError("boom");
+                }
+                super.insert(insertPair);
+            }
+        };
+        tree.insert(new KeyValuePair("x", BigInteger.ONE));
+        ReversePolishNotation rpn = new ReversePolishNotation(tree);
+        rpn.setBatchPool(pool);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            lines.add(i == 100 ? "boom 1 =" : "x x * x +");
+        }
+        try {
+            rpn.evaluateAll(lines.iterator(), new StringWriter());
+            fail("the failure was not reported");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("error: evaluation failed"));
+        }
+        failed.set(true);
+        assertEquals(0, active.get());
+        Thread.sleep(100);
+        assertEquals(0, after.get());
+        assertFalse(tree.isConcurrentReads());
+    }
+
+    private static OrderedMap[] engines() {
+        return new OrderedMap[]{
+            new RedBlackTree(), new ConcurrentRedBlackTree(), new ShardedRedBlackTree(4),
+            new PersistentRedBlackTree(), new BPlusTree()
+        };
+    }
+
+    /**
+     * Evaluates lines with evaluateAll() on tree, and one by one on a
+     * RedBlackTree, and compares the output and the final variables.
+     */
+    private void assertSameAsSequential(List<String> lines, OrderedMap tree) throws IOException {
+        OrderedMap expectedTree = new RedBlackTree();
+        ReversePolishNotation sequential = new ReversePolishNotation(expectedTree);
+        OperandStack stack = new OperandStack();
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            expected.append(sequential.evaluateLine(sequential.compile(line), stack)).append(System.lineSeparator());
+        }
+        ReversePolishNotation rpn = new ReversePolishNotation(tree);
+        rpn.setBatchPool(pool);
+        StringWriter out = new StringWriter();
+        rpn.evaluateAll(lines.iterator(), out);
+        String engine = tree.getClass().getSimpleName();
+        assertEquals(engine, expected.toString(), out.toString());
+        assertSameEntries(entries(expectedTree), tree);
+    }
+
+    /**
+     * Returns a random expression over NAMES: an assignment, a read, or one
+     * that fails before or after assigning.
+     */
+    private static String expression(Random random) {
+        String x = NAMES[random.nextInt(NAMES.length)];
+        String y = NAMES[random.nextInt(NAMES.length)];
+        String z = NAMES[random.nextInt(NAMES.length)];
+        int k = random.nextInt(7) - 1;
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+                return x + " " + y + " " + k + " + =";
+            case 2:
+                return x + " " + k + " =";
+            case 3:
+                return y + " " + z + " *";
+            case 4:
+                return x + " " + y + " " + z + " / =";      //fails when z is 0 or undefined
+            case 5:
+                return x + " " + k + " = " + y + " =";      //assigns x, then fails
+            case 6:
+                return y + " " + z + " " + k + " % +";
+            default:
+                return x;
+        }
+    }
+}
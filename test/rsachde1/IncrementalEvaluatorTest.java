@@ -0,0 +1,180 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static rsachde1.TreeAssert.assertSameEntries;
+import static rsachde1.TreeAssert.entries;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks IncrementalEvaluator against evaluating every expression from
+ * scratch after each update of an input, and that a registration refused for a cycle or
+ * a second writer of a variable leaves the evaluator as it was.
+ */
+public class IncrementalEvaluatorTest {
+
+    private static final int INPUTS = 5;       //variables in0 .. in4, set by update()
+    private static final int CELLS = 60;       //expression i assigns c<i> from inputs and lower cells
+
+    @Test
+    public void matchesFullEvaluation() {
+        Random random = new Random(20);
+        List<String> cells = new ArrayList<>();
+        for (int i = 0; i < CELLS; i++) {
+            cells.add(cell(random, i));
+        }
+        //registered out of dependency order, some alone and some in batches
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < CELLS; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+        IncrementalEvaluator incremental = new IncrementalEvaluator();
+        for (int i = 0; i < INPUTS; i++) {
+            incremental.update("in" + i, BigInteger.valueOf(i + 1));
+        }
+        int[] ids = new int[CELLS];
+        for (int k = 0; k < CELLS; ) {
+            int n = Math.min(CELLS - k, 1 + random.nextInt(8));
+            List<String> batch = new ArrayList<>();
+            for (int j = k; j < k + n; j++) {
+                batch.add(cells.get(order.get(j)));
+            }
+            int first = n == 1 ? incremental.register(batch.get(0)) : incremental.registerAll(batch);
+            for (int j = 0; j < n; j++) {
+                ids[order.get(k + j)] = first + j;
+            }
+            k += n;
+        }
+        assertSameAsFull(incremental, cells, ids);
+        for (int u = 0; u < 300; u++) {
+            long before = incremental.getEvaluations();
+            int input = random.nextInt(INPUTS);
+            incremental.update("in" + input, BigInteger.valueOf(random.nextInt(5) - 1));
+            assertTrue(incremental.getEvaluations() - before <= CELLS);
+            assertSameAsFull(incremental, cells, ids);
+        }
+    }
+
+    @Test
+    public void refusedRegistrationIsRolledBack() {
+        IncrementalEvaluator incremental = new IncrementalEvaluator();
+        int x = incremental.register("x 1 =");
+        int y = incremental.register("y x 1 + =");
+        assertRefused(incremental, "x y 0 + =", "error: x is already assigned by \"x 1 =\"");
+        int z = incremental.register("z w 1 + =");
+        assertRefused(incremental, "w z 1 + =", "error: circular dependency");
+        assertRefused(incremental, Arrays.asList("p 1 =", "q p 1 + =", "p 5 ="), "error: p is already assigned");
+        assertRefused(incremental, Arrays.asList("r s 1 + =", "s r 1 + ="), "error: circular dependency");
+        assertRefused(incremental, Arrays.asList("t 1 =", "y 2 ="), "error: y is already assigned");
+        assertEquals(3, incremental.getSize());
+        assertEquals(BigInteger.valueOf(2), incremental.getResult(y));
+        assertEquals("error: no variable w", incremental.getError(z));
+        assertRefusedId(incremental, 3);
+        assertRefusedId(incremental, -1);
+        //the refused expressions left no readers or writers behind
+        int w = incremental.register("w 10 =");
+        assertEquals(3, w);
+        assertEquals(BigInteger.valueOf(11), incremental.getResult(z));
+        assertEquals(4, incremental.registerAll(Arrays.asList("p x v * =", "s p r + =", "r 3 =")));
+        assertEquals("error: no variable v", incremental.getError(4));
+        assertEquals("error: no variable p", incremental.getError(5));
+        incremental.update("v", BigInteger.valueOf(2));
+        assertEquals(BigInteger.valueOf(5), incremental.getResult(5));
+        incremental.update("v", BigInteger.TEN);
+        assertEquals(BigInteger.valueOf(13), incremental.getResult(5));
+        assertEquals(BigInteger.valueOf(2), incremental.getResult(y));
+        assertNull(incremental.getError(x));
+    }
+
+    private static void assertRefused(IncrementalEvaluator incremental, Object expressions, String message) {
+        int size = incremental.getSize();
+        long evaluations = incremental.getEvaluations();
+        try {
+            if (expressions instanceof String) {
+                incremental.register((String) expressions);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<String> batch = (List<String>) expressions;
+                incremental.registerAll(batch);
+            }
+            fail(expressions + " was registered");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+        assertEquals(size, incremental.getSize());
+        assertEquals(evaluations, incremental.getEvaluations());
+    }
+
+    private static void assertRefusedId(IncrementalEvaluator incremental, int id) {
+        for (int call = 0; call < 2; call++) {
+            try {
+                if (call == 0) {
+                    incremental.getResult(id);
+                } else {
+                    incremental.getError(id);
+                }
+                fail("expression " + id + " exists");
+            } catch (RuntimeException e) {
+                assertEquals("error: no expression " + id, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Evaluates the cells in index order, a topological order, on a fresh
+     * tree holding the same inputs, and compares every result, error and
+     * variable.
+     */
+    private static void assertSameAsFull(IncrementalEvaluator incremental, List<String> cells, int[] ids) {
+        RedBlackTree tree = new RedBlackTree();
+        for (int i = 0; i < INPUTS; i++) {
+            tree.insert(new KeyValuePair("in" + i, incremental.getVariableTree().lookup("in" + i)));
+        }
+        ReversePolishNotation full = new ReversePolishNotation(tree);
+        OperandStack stack = new OperandStack();
+        for (int i = 0; i < cells.size(); i++) {
+            String line = full.evaluateLine(full.compile(cells.get(i)), stack);
+            String error = incremental.getError(ids[i]);
+            assertEquals(cells.get(i), line, error != null ? error : incremental.getResult(ids[i]).toString());
+        }
+        assertSameEntries(entries(tree), incremental.getVariableTree());
+    }
+
+    /**
+     * Returns an expression assigning c<i> from inputs and lower cells. None
+     * can fail: a failed assignment keeps the old value, which evaluating
+     * from scratch cannot reproduce.
+     */
+    private static String cell(Random random, int i) {
+        String a = operand(random, i);
+        String b = operand(random, i);
+        switch (random.nextInt(4)) {
+            case 0:
+                return "c" + i + " " + a + " " + b + " + =";
+            case 1:
+                return "c" + i + " " + a + " " + b + " - 1000 % =";
+            case 2:
+                return "c" + i + " " + a + " " + b + " * 1000 % =";
+            default:
+                return "c" + i + " " + a + " 1 * =";
+        }
+    }
+
+    private static String operand(Random random, int i) {
+        if (i == 0 || random.nextInt(3) == 0) {
+            return "in" + random.nextInt(INPUTS);
+        }
+        return "c" + random.nextInt(i);
+    }
+}
@@ -0,0 +1,220 @@
+package rsachde1;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static rsachde1.TreeAssert.assertSameEntries;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks that MappedRedBlackTree keeps its entries across a reopen, that a
+ * crash during a commit recovers either the old or the new tree, and that
+ * opening a file that is not a tree leaves it and its journal alone.
+ *
+ * A crash is staged from two clean files, the tree before and after one
+ * insert: the file holds the old bytes wherever the two differ, and the
+ * journal holds the new ones, as it would between journaling a commit and
+ * applying it.
+ */
+public class MappedRedBlackTreeTest {
+
+    private static final int H_END = 32;       //header offset of the end of the used bytes
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopenKeepsEntries() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tree");
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        Random random = new Random(5);
+        try (MappedRedBlackTree tree = new MappedRedBlackTree(file, false)) {
+            for (int i = 0; i < 5000; i++) {
+                String key = "k" + random.nextInt(3000);
+                BigInteger value = new BigInteger(random.nextInt(200), random).subtract(BigInteger.TEN);
+                tree.insert(key, value);
+                expected.put(key, value);
+            }
+        }
+        try (MappedRedBlackTree tree = new MappedRedBlackTree(file, true)) {
+            assertSameEntries(expected, tree);
+        }
+    }
+
+    @Test
+    public void concurrentLookupsAfterReopen() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("tree");
+        final TreeMap<String, BigInteger> expected = fill(file);
+        try (final MappedRedBlackTree tree = new MappedRedBlackTree(file, false)) {
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (Map.Entry<String, BigInteger> e : expected.entrySet()) {
+                                assertEquals(e.getValue(), tree.lookup(e.getKey()));
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(failure.get());
+        }
+    }
+
+    @Test
+    public void completeJournalIsReplayed() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tree");
+        TreeMap<String, BigInteger> before = fill(file);
+        byte[] journal = crash(file);
+        Path journalFile = Paths.get(file + ".journal");
+        Files.write(journalFile, journal);
+        try (MappedRedBlackTree tree = new MappedRedBlackTree(file, false)) {
+            before.put("new", BigInteger.ONE);
+            assertSameEntries(before, tree);
+        }
+        assertFalse(Files.exists(journalFile));
+    }
+
+    @Test
+    public void tornJournalIsDiscarded() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tree");
+        TreeMap<String, BigInteger> before = fill(file);
+        byte[] journal = crash(file);
+        Files.write(Paths.get(file + ".journal"), Arrays.copyOf(journal, journal.length - 3));
+        try (MappedRedBlackTree tree = new MappedRedBlackTree(file, false)) {
+            assertSameEntries(before, tree);
+        }
+    }
+
+    @Test
+    public void corruptJournalIsDiscarded() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("tree");
+        TreeMap<String, BigInteger> before = fill(file);
+        byte[] journal = crash(file);
+        journal[12] ^= 1;
+        Files.write(Paths.get(file + ".journal"), journal);
+        try (MappedRedBlackTree tree = new MappedRedBlackTree(file, false)) {
+            assertSameEntries(before, tree);
+        }
+    }
+
+    @Test
+    public void otherFilesAreLeftUntouched() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("notes.txt");
+        Path journalFile = Paths.get(file + ".journal");
+        byte[] text = new byte[1000];
+        Arrays.fill(text, (byte) 'x');
+        byte[] journal = {1, 2, 3};
+        for (int length : new int[]{1000, 10}) {
+            byte[] content = Arrays.copyOf(text, length);
+            Files.write(file, content);
+            Files.deleteIfExists(journalFile);
+            assertRefused(file, true);
+            assertArrayEquals(content, Files.readAllBytes(file));
+            assertFalse(Files.exists(journalFile));
+            Files.write(journalFile, journal);
+            assertRefused(file, false);
+            assertArrayEquals(content, Files.readAllBytes(file));
+            assertArrayEquals(journal, Files.readAllBytes(journalFile));
+        }
+    }
+
+    private static void assertRefused(Path file, boolean syncOnCommit) {
+        try {
+            new MappedRedBlackTree(file, syncOnCommit).close();
+            fail(file + " opened as a tree");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    /**
+     * Writes a tree of 200 entries to file and returns them.
+     */
+    private static TreeMap<String, BigInteger> fill(Path file) throws IOException {
+        TreeMap<String, BigInteger> entries = new TreeMap<>();
+        try (MappedRedBlackTree tree = new MappedRedBlackTree(file, true)) {
+            for (int i = 0; i < 200; i++) {
+                tree.insert("k" + i, BigInteger.valueOf(i));
+                entries.put("k" + i, BigInteger.valueOf(i));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Inserts "new" into the tree in file, then rolls the file back to the
+     * tree before the insert. Returns the journal that redoes the insert.
+     */
+    private static byte[] crash(Path file) throws IOException {
+        Path old = file.resolveSibling("old");
+        Files.copy(file, old, StandardCopyOption.REPLACE_EXISTING);
+        try (MappedRedBlackTree tree = new MappedRedBlackTree(file, true)) {
+            tree.insert("new", BigInteger.ONE);
+        }
+        ByteBuffer journal = ByteBuffer.allocate(1 << 16);
+        journal.putLong(0);
+        try (FileChannel a = FileChannel.open(old, StandardOpenOption.READ);
+                FileChannel b = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = read(b, H_END, 8).getLong();
+            int length = (int) ((end + 7) & ~7);
+            ByteBuffer oldBytes = read(a, 0, length);
+            ByteBuffer newBytes = read(b, 0, length);
+            for (int offset = 0; offset < length; offset += 8) {
+                long oldValue = oldBytes.getLong(offset);
+                long newValue = newBytes.getLong(offset);
+                if (oldValue != newValue) {
+                    journal.putLong(offset).putLong(newValue);
+                    ByteBuffer rollback = ByteBuffer.allocate(8).putLong(0, oldValue);
+                    b.write(rollback, offset);
+                }
+            }
+        }
+        journal.putLong(0, (journal.position() - 8) / 16);
+        CRC32 crc = new CRC32();
+        crc.update(journal.array(), 0, journal.position());
+        journal.putLong(crc.getValue());
+        return Arrays.copyOf(journal.array(), journal.position());
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("error: file ends before " + (position + length));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
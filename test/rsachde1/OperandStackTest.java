@@ -0,0 +1,151 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks OperandStack against a list model under random pushes, pops,
+ * replacements, dups and swaps: every slot must keep its tag and value,
+ * values that fit in a long must be stored as LONG, and operations past the
+ * bottom must fail with the stack underflow error.
+ */
+public class OperandStackTest {
+
+    private static final BigInteger[] VALUES = {
+        BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(-1), BigInteger.valueOf(Long.MAX_VALUE),
+        BigInteger.valueOf(Long.MIN_VALUE), BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE),
+        BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE), new BigInteger("-123456789012345678901234567890")
+    };
+
+    @Test
+    public void matchesListModel() {
+        Random random = new Random(15);
+        OperandStack stack = new OperandStack();
+        List<Object> model = new ArrayList<>();     //bottom first: BigInteger values, String variables
+        for (int i = 0; i < 100000; i++) {
+            BigInteger value = VALUES[random.nextInt(VALUES.length)];
+            int n = random.nextInt(4);
+            while (model.size() < 4) {      //keep enough operands for every operation
+                stack.push(value);
+                model.add(value);
+            }
+            switch (random.nextInt(model.size() > 40 ? 6 : 9)) {
+                case 0:
+                    stack.pop();
+                    model.remove(model.size() - 1);
+                    break;
+                case 1:
+                    stack.pop(n);
+                    model.subList(model.size() - n, model.size()).clear();
+                    break;
+                case 2:
+                    stack.set(n, value);
+                    model.set(model.size() - 1 - n, value);
+                    break;
+                case 3:
+                    stack.swap();
+                    Collections.swap(model, model.size() - 1, model.size() - 2);
+                    break;
+                case 4:
+                    if (random.nextInt(50) == 0) {
+                        stack.reset();
+                        model.clear();
+                    }
+                    break;
+                case 5:
+                    stack.dup();
+                    model.add(model.get(model.size() - 1));
+                    break;
+                case 6:
+                    stack.push(value.longValue());
+                    model.add(BigInteger.valueOf(value.longValue()));
+                    break;
+                case 7:
+                    stack.push(value);
+                    model.add(value);
+                    break;
+                default:
+                    String name = "v" + random.nextInt(10);
+                    stack.pushVariable(name);
+                    model.add(name);
+            }
+            assertMatches(model, stack);
+        }
+    }
+
+    @Test
+    public void underflowIsAnError() {
+        OperandStack stack = new OperandStack();
+        assertUnderflow(stack, 0);
+        stack.push(1);
+        stack.pushVariable("x");
+        for (int op = 0; op < 4; op++) {
+            assertUnderflow(stack, op);
+        }
+        assertEquals(2, stack.getSize());
+        stack.pop(2);
+        assertTrue(stack.isEmpty());
+        for (int op = 0; op < 4; op++) {
+            assertUnderflow(stack, op);
+        }
+    }
+
+    /**
+     * Runs an operation that needs more operands than the stack holds.
+     */
+    private static void assertUnderflow(OperandStack stack, int op) {
+        int size = stack.getSize();
+        try {
+            switch (op) {
+                case 0:
+                    stack.peekTag(size);
+                    break;
+                case 1:
+                    stack.pop(size + 1);
+                    break;
+                case 2:
+                    stack.set(size, BigInteger.ONE);
+                    break;
+                default:
+                    if (size == 0) {
+                        stack.pop();
+                    } else {
+                        stack.peekBigInteger(size);
+                    }
+            }
+            fail("no underflow");
+        } catch (RuntimeException e) {
+            assertEquals("error: stack underflow exception", e.getMessage());
+        }
+    }
+
+    private static void assertMatches(List<Object> model, OperandStack stack) {
+        assertEquals(model.size(), stack.getSize());
+        assertEquals(model.isEmpty(), stack.isEmpty());
+        for (int k = 0; k < model.size(); k++) {
+            Object expected = model.get(model.size() - 1 - k);
+            if (expected instanceof String) {
+                assertEquals(OperandStack.VARIABLE, stack.peekTag(k));
+                assertEquals(expected, stack.peekVariable(k));
+            } else {
+                BigInteger v = (BigInteger) expected;
+                if (v.bitLength() < Long.SIZE) {
+                    assertEquals(OperandStack.LONG, stack.peekTag(k));
+                    assertEquals(v.longValue(), stack.peekLong(k));
+                } else {
+                    assertEquals(OperandStack.BIG_INTEGER, stack.peekTag(k));
+                }
+                assertEquals(v, stack.peekBigInteger(k));
+            }
+        }
+    }
+}
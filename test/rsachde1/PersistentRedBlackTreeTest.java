@@ -0,0 +1,62 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static rsachde1.TreeAssert.assertSameEntries;
+import static rsachde1.TreeAssert.log2;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks PersistentRedBlackTree against a TreeMap under random inserts and
+ * deletes, and that a snapshot keeps its version while the tree changes.
+ */
+public class PersistentRedBlackTreeTest {
+
+    @Test
+    public void matchesTreeMap() {
+        Random random = new Random(1);
+        PersistentRedBlackTree tree = new PersistentRedBlackTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            String key = "k" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, tree.delete(key));
+            } else {
+                BigInteger value = BigInteger.valueOf(random.nextLong());
+                tree.insert(new KeyValuePair(key, value));
+                expected.put(key, value);
+            }
+        }
+        assertSameEntries(expected, tree);
+        for (Map.Entry<String, BigInteger> e : expected.entrySet()) {
+            assertEquals(e.getValue(), tree.lookup(e.getKey()));
+        }
+        assertFalse(tree.contains("missing"));
+        assertTrue(tree.height() <= 2 * log2(tree.getSize() + 1));
+    }
+
+    @Test
+    public void snapshotKeepsItsVersion() {
+        PersistentRedBlackTree tree = new PersistentRedBlackTree();
+        TreeMap<String, BigInteger> before = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(new KeyValuePair("k" + i, BigInteger.valueOf(i)));
+            before.put("k" + i, BigInteger.valueOf(i));
+        }
+        PersistentRedBlackTree snapshot = tree.snapshot();
+        for (int i = 0; i < 1000; i += 2) {
+            tree.delete("k" + i);
+        }
+        tree.insert(new KeyValuePair("k1", BigInteger.TEN));
+        assertSameEntries(before, snapshot);
+        assertEquals(500, tree.getSize());
+        assertEquals(BigInteger.TEN, tree.lookup("k1"));
+    }
+}
@@ -0,0 +1,321 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static rsachde1.TreeAssert.assertSameEntries;
+import static rsachde1.TreeAssert.keys;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks RedBlackTree against a TreeMap under random inserts and deletes.
+ * After each run the tree must hold the same entries and satisfy the red
+ * black invariants: a black root, no red node with a red child, the same
+ * number of black nodes on every path, consistent parent pointers, keys in
+ * order, and subtree sizes that match.
+ */
+public class RedBlackTreeTest {
+
+    private static final int KEYS = 3000;      //keys are drawn from k0 .. k(KEYS - 1)
+
+    @Test
+    public void deleteMatchesTreeMap() {
+        Random random = new Random(6);
+        RedBlackTree tree = new RedBlackTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        for (int run = 0; run < 20; run++) {
+            randomRun(random, tree, expected, 2000);
+            assertRedBlack(tree);
+            assertSameEntries(expected, tree);
+        }
+        for (String key : new ArrayList<>(expected.keySet())) {
+            assertTrue(tree.delete(key));
+            assertFalse(tree.delete(key));
+        }
+        assertRedBlack(tree);
+        assertEquals(0, tree.getSize());
+        assertSame(tree.getNil(), tree.getRoot());
+    }
+
+    @Test
+    public void neighboursMatchTreeMap() {
+        Random random = new Random(7);
+        RedBlackTree tree = new RedBlackTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        assertNull(tree.floor("k1"));
+        assertNull(tree.higher("k1"));
+        randomRun(random, tree, expected, 5000);
+        assertRedBlack(tree);
+        for (int i = 0; i < 2000; i++) {
+            String key = randomKey(random);
+            assertSameKey(expected.floorKey(key), tree.floor(key));
+            assertSameKey(expected.lowerKey(key), tree.lower(key));
+            assertSameKey(expected.ceilingKey(key), tree.ceiling(key));
+            assertSameKey(expected.higherKey(key), tree.higher(key));
+        }
+        assertSameKey(expected.firstKey(), tree.ceiling(""));
+        assertNull(tree.lower(expected.firstKey()));
+        assertNull(tree.higher(expected.lastKey()));
+    }
+
+    @Test
+    public void rangeMatchesSubMap() {
+        Random random = new Random(8);
+        RedBlackTree tree = new RedBlackTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        randomRun(random, tree, expected, 5000);
+        for (int i = 0; i < 500; i++) {
+            String a = randomKey(random);
+            String b = randomKey(random);
+            String from = a.compareTo(b) < 0 ? a : b;
+            String to = a.compareTo(b) < 0 ? b : a;
+            assertEquals(new ArrayList<>(expected.subMap(from, true, to, false).keySet()),
+                    keys(tree.range(from, to)));
+        }
+        assertFalse(tree.range("k5", "k5").hasNext());
+        assertFalse(tree.range("k6", "k5").hasNext());
+    }
+
+    @Test
+    public void rankAndSelectMatchTreeMap() {
+        Random random = new Random(9);
+        RedBlackTree tree = new RedBlackTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        for (int run = 0; run < 5; run++) {
+            randomRun(random, tree, expected, 3000);
+            assertRedBlack(tree);
+            List<String> sorted = new ArrayList<>(expected.keySet());
+            for (int k = 0; k < sorted.size(); k++) {
+                assertEquals(sorted.get(k), tree.select(k).getKey());
+                assertEquals(k, tree.rank(sorted.get(k)));
+            }
+            for (int i = 0; i < 500; i++) {
+                String lo = randomKey(random);
+                String hi = randomKey(random);
+                assertEquals(expected.headMap(lo).size(), tree.rank(lo));
+                int count = lo.compareTo(hi) < 0 ? expected.subMap(lo, hi).size() : 0;
+                assertEquals(count, tree.countInRange(lo, hi));
+            }
+        }
+        assertEquals(0, tree.rank(""));
+        assertEquals(expected.size(), tree.rank("l"));
+        for (int k : new int[]{-1, expected.size()}) {
+            try {
+                tree.select(k);
+                fail("selected index " + k);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage().startsWith("error: "));
+            }
+        }
+    }
+
+    @Test
+    public void buildFromSortedIsValid() {
+        for (int n = 0; n < 1100; n += n < 70 ? 1 : 97) {
+            TreeMap<String, BigInteger> expected = new TreeMap<>();
+            List<KeyValuePair> sorted = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                String key = String.format("k%05d", i);
+                expected.put(key, BigInteger.valueOf(i));
+                sorted.add(new KeyValuePair(key, BigInteger.valueOf(i)));
+            }
+            RedBlackTree tree = RedBlackTree.buildFromSorted(sorted.iterator(), n);
+            assertRedBlack(tree);
+            assertSameEntries(expected, tree);
+            randomRun(new Random(n), tree, expected, 500);
+            assertRedBlack(tree);
+            assertSameEntries(expected, tree);
+        }
+        List<KeyValuePair> unsorted = new ArrayList<>();
+        unsorted.add(new KeyValuePair("b", BigInteger.ONE));
+        unsorted.add(new KeyValuePair("a", BigInteger.ONE));
+        try {
+            RedBlackTree.buildFromSorted(unsorted.iterator(), 2);
+            fail("built from unsorted keys");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("error: "));
+        }
+    }
+
+    @Test
+    public void insertAllMatchesSingleInserts() {
+        Random random = new Random(10);
+        RedBlackTree tree = new RedBlackTree();
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        //empty tree, small batches (one by one) and large ones (merge and rebuild)
+        for (int batchSize : new int[]{2000, 3, 10, 50, 5000, 1, 800}) {
+            List<KeyValuePair> batch = new ArrayList<>();
+            for (int i = 0; i < batchSize; i++) {
+                String key = randomKey(random);
+                BigInteger value = BigInteger.valueOf(random.nextInt());
+                batch.add(new KeyValuePair(key, value));
+                expected.put(key, value);
+            }
+            tree.insertAll(batch);
+            assertRedBlack(tree);
+            assertSameEntries(expected, tree);
+            randomRun(random, tree, expected, 300);
+            assertRedBlack(tree);
+        }
+        tree.insertAll(new ArrayList<KeyValuePair>());
+        assertSameEntries(expected, tree);
+    }
+
+    @Test
+    public void fingerSearchMatchesRootSearch() {
+        Random random = new Random(11);
+        RedBlackTree finger = new RedBlackTree();
+        RedBlackTree root = new RedBlackTree();
+        root.setFingerSearch(false);
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        long fingerCompares = 0;
+        long rootCompares = 0;
+        for (int run = 0; run < 10; run++) {
+            long seed = random.nextLong();
+            randomRun(new Random(seed), root, new TreeMap<>(expected), 2000);
+            randomRun(new Random(seed), finger, expected, 2000);
+            assertRedBlack(finger);
+            assertSameEntries(expected, finger);
+            //nearby keys in order, with the odd jump, then random keys
+            List<String> sorted = new ArrayList<>(expected.keySet());
+            int k = random.nextInt(sorted.size());
+            for (int i = 0; i < 2000; i++) {
+                k = random.nextInt(50) == 0 ? random.nextInt(sorted.size()) : (k + 1) % sorted.size();
+                String key = sorted.get(k);
+                assertEquals(expected.get(key), finger.lookup(key));
+                assertEquals(expected.get(key), root.lookup(key));
+                fingerCompares += finger.getRecentCompares();
+                rootCompares += root.getRecentCompares();
+            }
+            for (int i = 0; i < 500; i++) {
+                String key = randomKey(random);
+                assertEquals(expected.containsKey(key), finger.contains(key));
+            }
+        }
+        assertTrue(fingerCompares + " vs " + rootCompares, 2 * fingerCompares < rootCompares);
+    }
+
+    @Test
+    public void concurrentReadsWriteNothing() throws InterruptedException {
+        Random random = new Random(12);
+        final RedBlackTree tree = new RedBlackTree();
+        final TreeMap<String, BigInteger> expected = new TreeMap<>();
+        randomRun(random, tree, expected, 5000);
+        tree.lookup(expected.firstKey());
+        int compares = tree.getRecentCompares();
+        tree.setConcurrentReads(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            final int reader = t;
+            readers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random keys = new Random(reader);
+                        for (int i = 0; i < 20000; i++) {
+                            String key = randomKey(keys);
+                            BigInteger value = expected.get(key);
+                            assertEquals(value != null, tree.contains(key));
+                            if (value != null) {
+                                assertEquals(value, tree.lookup(key));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(compares, tree.getRecentCompares());
+        tree.setConcurrentReads(false);
+        randomRun(random, tree, expected, 2000);
+        assertRedBlack(tree);
+        assertSameEntries(expected, tree);
+    }
+
+    /**
+     * Applies ops random inserts and deletes to both tree and expected,
+     * checking each delete's return value and each lookup.
+     */
+    private static void randomRun(Random random, RedBlackTree tree, TreeMap<String, BigInteger> expected, int ops) {
+        for (int i = 0; i < ops; i++) {
+            String key = randomKey(random);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, tree.delete(key));
+                assertFalse(tree.contains(key));
+            } else {
+                BigInteger value = BigInteger.valueOf(random.nextInt());
+                tree.insert(new KeyValuePair(key, value));
+                expected.put(key, value);
+                assertEquals(value, tree.lookup(key));
+            }
+        }
+        assertEquals(expected.size(), tree.getSize());
+    }
+
+    private static String randomKey(Random random) {
+        return "k" + random.nextInt(KEYS);
+    }
+
+    private static void assertSameKey(String expected, KeyValuePair actual) {
+        assertEquals(expected, actual == null ? null : actual.getKey());
+    }
+
+    /**
+     * Fails unless tree is a valid red black tree whose subtree sizes match.
+     */
+    static void assertRedBlack(RedBlackTree tree) {
+        RedBlackNode nil = tree.getNil();
+        RedBlackNode root = tree.getRoot();
+        assertEquals(RedBlackNode.Color.BLACK, nil.getColor());
+        assertEquals(0, nil.getSize());
+        assertEquals(RedBlackNode.Color.BLACK, root.getColor());
+        if (root != nil) {
+            assertSame(nil, root.getParent());
+        }
+        blackHeight(nil, root, null, null);
+        assertEquals(root.getSize(), tree.getSize());
+    }
+
+    /**
+     * Checks the subtree at t, whose keys must lie strictly between lo and
+     * hi (null for unbounded), and returns its black height.
+     */
+    private static int blackHeight(RedBlackNode nil, RedBlackNode t, String lo, String hi) {
+        if (t == nil) {
+            return 1;
+        }
+        String key = t.getData().getKey();
+        assertTrue(lo == null || lo.compareTo(key) < 0);
+        assertTrue(hi == null || key.compareTo(hi) < 0);
+        assertEquals(SymbolTable.prefix(key), t.getPrefix());
+        for (RedBlackNode child : new RedBlackNode[]{t.getLeft(), t.getRight()}) {
+            if (child != nil) {
+                assertSame(t, child.getParent());
+                assertFalse(t.getColor() == RedBlackNode.Color.RED && child.getColor() == RedBlackNode.Color.RED);
+            }
+        }
+        int left = blackHeight(nil, t.getLeft(), lo, key);
+        int right = blackHeight(nil, t.getRight(), key, hi);
+        assertEquals(left, right);
+        assertEquals(t.getLeft().getSize() + t.getRight().getSize() + 1, t.getSize());
+        return left + (t.getColor() == RedBlackNode.Color.BLACK ? 1 : 0);
+    }
+}
@@ -0,0 +1,221 @@
+package rsachde1;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks the evaluator's long fast path against the all-BigInteger path:
+ * both must give the same result, or the same error, for every expression,
+ * in particular where a long result overflows and must be promoted. Also
+ * checks that batch evaluation of streams and files gives the lines of
+ * evaluating one expression at a time, with the same error messages.
+ */
+public class ReversePolishNotationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final BigInteger MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    //operands at and around the edges of the long range
+    private static final String[] LEAVES = {
+        "0", "1", "-1", "2", "-2", "7", "-7", "3037000499", "3037000500", "-3037000500",
+        "2147483647", "2147483648", "4294967296", "9223372036854775807", "-9223372036854775807",
+        "-9223372036854775808", "9223372036854775808", "-9223372036854775809",
+        "123456789012345678901234567890", "a", "b", "c"
+    };
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "%", "~", "#"};
+
+    @Test
+    public void overflowIsPromoted() {
+        ReversePolishNotation rpn = new ReversePolishNotation();
+        assertEquals(MIN.negate(), rpn.evaluate("-9223372036854775808 -1 /"));
+        assertEquals(MIN.negate(), rpn.evaluate("-9223372036854775808 -1 *"));
+        assertEquals(MIN.negate(), rpn.evaluate("-1 -9223372036854775808 *"));
+        assertEquals(MIN.negate(), rpn.evaluate("-9223372036854775808 ~"));
+        assertEquals(MAX.multiply(BigInteger.valueOf(2)), rpn.evaluate("9223372036854775807 2 *"));
+        assertEquals(BigInteger.valueOf(3037000500L).pow(2), rpn.evaluate("3037000500 3037000500 *"));
+        assertEquals(BigInteger.ONE.shiftLeft(64), rpn.evaluate("4294967296 4294967296 *"));
+        assertEquals(MAX.add(BigInteger.ONE), rpn.evaluate("9223372036854775807 1 +"));
+        assertEquals(MIN.subtract(BigInteger.ONE), rpn.evaluate("-9223372036854775808 1 -"));
+        assertEquals(MIN, rpn.evaluate("9223372036854775808 ~"));
+        assertEquals(BigInteger.valueOf(-3), rpn.evaluate("-7 2 /"));
+        assertEquals(BigInteger.ONE, rpn.evaluate("-7 2 %"));
+        rpn.evaluate("x -9223372036854775808 =");
+        assertEquals(MIN.negate(), rpn.evaluate("x -1 /"));
+        assertEquals(MIN.negate(), rpn.evaluate("x ~"));
+        assertEquals(MIN.negate(), rpn.evaluate("x 1 + ~ 1 +"));
+    }
+
+    @Test
+    public void powerModMatchesModPow() {
+        ReversePolishNotation rpn = new ReversePolishNotation();
+        String[] bases = {"0", "1", "2", "-5", "123456789", "-9223372036854775808", "9223372036854775807",
+            "123456789012345678901234567890"};
+        String[] exponents = {"0", "1", "2", "-1", "-2", "62", "9223372036854775807", "9223372036854775808",
+            "-9223372036854775808"};
+        String[] moduli = {"1", "2", "7", "1000000007", "2147483647", "2147483648", "4294967311",
+            "9223372036854775807", "0", "-7"};
+        for (String a : bases) {
+            for (String b : exponents) {
+                for (String c : moduli) {
+                    String expected;
+                    try {
+                        expected = new BigInteger(a).modPow(new BigInteger(b), new BigInteger(c)).toString();
+                    } catch (ArithmeticException e) {
+                        expected = ReversePolishNotation.errorMessage(e);
+                    }
+                    String source = a + " " + b + " " + c + " #";
+                    assertEquals(source, expected, run(rpn, true, source));
+                    assertEquals(source, expected, run(rpn, false, source));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void longPathMatchesBigIntegerPath() {
+        Random random = new Random(13);
+        ReversePolishNotation fast = new ReversePolishNotation();
+        ReversePolishNotation slow = new ReversePolishNotation();
+        slow.setLongFastPath(false);
+        for (String name : new String[]{"a", "b", "c"}) {
+            String source = name + " " + LEAVES[random.nextInt(LEAVES.length - 3)] + " =";
+            assertEquals(run(slow, false, source), run(fast, true, source));
+        }
+        for (int i = 0; i < 20000; i++) {
+            String source = expression(random, 4);
+            if (random.nextInt(10) == 0) {
+                source = "abc".charAt(random.nextInt(3)) + " " + source + " =";
+            }
+            assertEquals(source, run(slow, false, source), run(fast, true, source));
+        }
+    }
+
+    @Test
+    public void errorLinesAreDeterministic() throws IOException {
+        String[][] cases = {
+            {"x y =", "error: y is not a value"},
+            {"x 1 1 =", "error: 1 is not an lvalue"},
+            {"1 0 /", "error: BigInteger divide by zero"},
+            {"5 -3 %", "error: BigInteger: modulus not positive"},
+            {"2 3 0 #", "error: BigInteger: modulus not positive"},
+            {"2 -1 4 #", "error: BigInteger not invertible."},
+            {"1 +", "error: stack underflow exception"},
+            {"q", "error: no variable q"},
+            {"q 1 +", "error: no variable q"}
+        };
+        List<String> lines = new ArrayList<>();
+        StringBuilder expected = new StringBuilder();
+        for (String[] c : cases) {
+            for (boolean longFastPath : new boolean[]{true, false}) {
+                assertEquals(c[0], c[1], run(new ReversePolishNotation(), longFastPath, c[0]));
+            }
+            lines.add(c[0]);
+            expected.append(c[1]).append(System.lineSeparator());
+        }
+        StringWriter out = new StringWriter();
+        new ReversePolishNotation().evaluateAll(lines.iterator(), out);
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test
+    public void batchMatchesOneByOne() throws IOException {
+        Random random = new Random(17);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 30000; i++) {
+            String source = expression(random, 3);
+            switch (random.nextInt(8)) {
+                case 0:
+                    source = "abc".charAt(random.nextInt(3)) + " " + source + " =";
+                    break;
+                case 1:
+                    source = "1 " + source;         //leaves an operand behind
+                    break;
+                case 2:
+                    source = source + " +";         //may underflow
+                    break;
+                default:
+            }
+            lines.add(source);
+        }
+        ReversePolishNotation sequential = new ReversePolishNotation();
+        OperandStack stack = new OperandStack();
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            expected.append(sequential.evaluateLine(sequential.compile(line), stack)).append(System.lineSeparator());
+        }
+        for (int threads : new int[]{1, 3}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ReversePolishNotation batch = new ReversePolishNotation();
+                batch.setBatchPool(pool);
+                batch.setLongFastPath(threads == 1);    //batches use the typed stack either way
+                StringWriter out = new StringWriter();
+                batch.evaluateAll(lines.stream(), out);
+                assertEquals(expected.toString(), out.toString());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void evaluateFileWritesOneLinePerExpression() throws IOException {
+        Path input = folder.getRoot().toPath().resolve("in.txt");
+        Path output = folder.getRoot().toPath().resolve("out.txt");
+        Files.write(input, Arrays.asList("x 2 =", "x x *", "\u00e9t\u00e9 x 40 + =", "\u00e9t\u00e9", "y", "x 0 /"),
+                StandardCharsets.UTF_8);
+        Files.write(output, Arrays.asList("stale", "stale", "stale", "stale", "stale", "stale", "stale", "stale"),
+                StandardCharsets.UTF_8);
+        new ReversePolishNotation().evaluateFile(input, output);
+        assertEquals(Arrays.asList("2", "4", "42", "42", "error: no variable y",
+                "error: BigInteger divide by zero"), Files.readAllLines(output, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Evaluates source on the long or the BigInteger path, returning the
+     * result or the error line.
+     */
+    private static String run(ReversePolishNotation rpn, boolean longFastPath, String source) {
+        rpn.setLongFastPath(longFastPath);
+        try {
+            return rpn.evaluate(source).toString();
+        } catch (RuntimeException e) {
+            return ReversePolishNotation.errorMessage(e);
+        }
+    }
+
+    /**
+     * Returns a random well-formed postfix expression at most depth
+     * operators deep.
+     */
+    private static String expression(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return LEAVES[random.nextInt(LEAVES.length)];
+        }
+        String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+        StringBuilder source = new StringBuilder(expression(random, depth - 1));
+        int arity = operator.equals("~") ? 1 : operator.equals("#") ? 3 : 2;
+        for (int i = 1; i < arity; i++) {
+            source.append(' ').append(expression(random, depth - 1));
+        }
+        return source.append(' ').append(operator).toString();
+    }
+}
@@ -0,0 +1,89 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static rsachde1.TreeAssert.assertSameEntries;
+import static rsachde1.TreeAssert.keys;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks ShardedRedBlackTree against a TreeMap across rebalances, and that
+ * concurrent writers to disjoint keys lose nothing while it rebalances.
+ */
+public class ShardedRedBlackTreeTest {
+
+    @Test
+    public void matchesTreeMapAcrossRebalances() {
+        Random random = new Random(4);
+        ShardedRedBlackTree tree = new ShardedRedBlackTree(8);
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        for (int i = 0; i < 100000; i++) {
+            String key = "k" + random.nextInt(60000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key) != null, tree.delete(key));
+            } else {
+                BigInteger value = BigInteger.valueOf(i);
+                tree.insert(new KeyValuePair(key, value));
+                expected.put(key, value);
+            }
+        }
+        tree.rebalance();
+        assertTrue(tree.getShardCount() > 1);
+        assertSameEntries(expected, tree);
+        for (Map.Entry<String, BigInteger> e : expected.entrySet()) {
+            assertEquals(e.getValue(), tree.lookup(e.getKey()));
+        }
+        for (int i = 0; i < 200; i++) {
+            String a = "k" + random.nextInt(60000);
+            String b = "k" + random.nextInt(60000);
+            String from = a.compareTo(b) < 0 ? a : b;
+            String to = a.compareTo(b) < 0 ? b : a;
+            assertEquals(new ArrayList<>(expected.subMap(from, true, to, false).keySet()),
+                    keys(tree.range(from, to)));
+        }
+    }
+
+    @Test
+    public void concurrentWritersLoseNothing() throws InterruptedException {
+        final ShardedRedBlackTree tree = new ShardedRedBlackTree(4);
+        final ConcurrentSkipListMap<String, BigInteger> expected = new ConcurrentSkipListMap<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int writer = t;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 30000; i++) {
+                        String key = "w" + writer + "-" + i;
+                        tree.insert(new KeyValuePair(key, BigInteger.valueOf(i)));
+                        expected.put(key, BigInteger.valueOf(i));
+                        if (i % 3 == 0) {
+                            tree.delete(key);
+                            expected.remove(key);
+                        }
+                        if (i % 10000 == 0) {
+                            tree.rebalance();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertTrue(tree.getRebalanceCount() > 0);
+        assertSameEntries(expected, tree);
+    }
+}
@@ -0,0 +1,42 @@
+package rsachde1;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks that each Stack keeps its own elements as it grows.
+ */
+public class StackTest {
+
+    @Test
+    public void stacksAreIndependent() {
+        Stack a = new Stack();
+        Stack b = new Stack();
+        for (int i = 0; i < 100; i++) {
+            a.push(i);
+            if (i % 3 == 0) {
+                b.push("b" + i);
+            }
+        }
+        assertEquals(100, a.getSize());
+        assertEquals(34, b.getSize());
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(i, a.pop());
+        }
+        for (int i = 99; i >= 0; i -= 3) {
+            assertEquals("b" + i, b.pop());
+        }
+        assertTrue(a.isEmpty());
+        assertTrue(b.isEmpty());
+        try {
+            a.pop();
+            fail("popped an empty stack");
+        } catch (RuntimeException e) {
+            assertEquals("error: stack underflow exception", e.getMessage());
+        }
+    }
+}
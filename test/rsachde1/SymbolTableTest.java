@@ -0,0 +1,58 @@
+package rsachde1;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks that SymbolTable gives each name one canonical String and one id,
+ * distinct from the ids of other names, and that programs compiled against
+ * one table agree on the ids of their variables.
+ */
+public class SymbolTableTest {
+
+    @Test
+    public void idsAreStableAndDistinct() {
+        SymbolTable symbols = new SymbolTable();
+        String[] names = new String[1000];
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < names.length; i++) {
+            names[i] = symbols.intern("portfolio.eu.desk7.pos" + i);
+            assertTrue(ids.add(symbols.id(names[i])));
+        }
+        for (int i = 0; i < names.length; i++) {
+            String copy = new String("portfolio.eu.desk7.pos" + i);
+            assertSame(names[i], symbols.intern(copy));
+            assertEquals(symbols.id(names[i]), symbols.id(copy));
+        }
+        assertEquals(names.length, symbols.getSize());
+        assertEquals(-1, symbols.id("portfolio.eu.desk7.pos" + names.length));
+        assertEquals(-1, new SymbolTable().id(names[0]));
+    }
+
+    @Test
+    public void programsShareVariableIds() {
+        SymbolTable symbols = new SymbolTable();
+        CompiledExpression a = CompiledExpression.compile("x y + z =", symbols);
+        CompiledExpression b = CompiledExpression.compile("z 2 * y x + +", symbols);
+        assertSame(a.variable(0), b.variable(2));
+        assertEquals(a.variableId(0), b.variableId(2));     //x
+        assertEquals(a.variableId(1), b.variableId(1));     //y
+        assertEquals(a.variableId(2), b.variableId(0));     //z
+        assertEquals(symbols.id("z"), a.variableId(2));
+        Set<Integer> ids = new HashSet<>();
+        for (int slot = 0; slot < a.variableCount(); slot++) {
+            ids.add(a.variableId(slot));
+        }
+        assertEquals(3, ids.size());
+        CompiledExpression plain = CompiledExpression.compile(new String("x y +"));
+        assertNotSame(a.variable(0), plain.variable(0));
+        assertEquals(-1, plain.variableId(0));
+    }
+}
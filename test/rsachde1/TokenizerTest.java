@@ -0,0 +1,134 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks Tokenizer and CompiledExpression.compile() against the regex path
+ * they replaced: source.split("\\s+"), an operator if the token matches
+ * "[+-/%~#=]" or is "*", a constant if new BigInteger(token) parses it, a
+ * variable otherwise.
+ */
+public class TokenizerTest {
+
+    private static final String OPERATORS = "+-*/%~#=";     //in opcode order from ADD
+
+    private static final String[] PIECES = {
+        " ", " ", " ", "\t", "\n", "\u000B", "\f", "\r", " ", "\u0085",
+        "+", "-", "*", "/", ",", ".", "%", "~", "#", "=", "^",
+        "0", "7", "42", "-5", "+5", "--5", "123456789012345678", "1234567890123456789", "-999999999999999999",
+        "١٢", "３", "x", "var1", "é", "中", "😀"
+    };
+
+    @Test
+    public void tokensMatchTheRegexPath() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 20000; trial++) {
+            String source = source(random);
+            List<String> expected = regexTokens(source);
+            assertEquals(source, expected, tokens(new Tokenizer(source)));
+            ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+            assertEquals(source, expected, tokens(new Tokenizer(bytes)));
+        }
+    }
+
+    @Test
+    public void programsMatchTheRegexPath() {
+        Random random = new Random(12);
+        for (int trial = 0; trial < 20000; trial++) {
+            String source = source(random);
+            assertEquals(source, regexProgram(source), program(CompiledExpression.compile(source)));
+        }
+    }
+
+    @Test
+    public void edgeCases() {
+        assertEquals(regexTokens(""), tokens(new Tokenizer("")));
+        assertEquals(regexTokens("   "), tokens(new Tokenizer("   ")));
+        assertEquals(regexTokens("  a 1 ="), tokens(new Tokenizer("  a 1 =")));
+        assertEquals(regexTokens("a 1 =  "), tokens(new Tokenizer("a 1 =  ")));
+    }
+
+    private static String source(Random random) {
+        StringBuilder source = new StringBuilder();
+        int pieces = random.nextInt(12);
+        for (int i = 0; i < pieces; i++) {
+            source.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return source.toString();
+    }
+
+    private static List<String> regexTokens(String source) {
+        List<String> tokens = new ArrayList<>();
+        for (String x : source.split("\\s+")) {
+            if (x.matches("[+-/%~#=]") || x.equals("*")) {
+                tokens.add("operator " + x);
+            } else if (isInteger(x)) {
+                tokens.add("constant " + new BigInteger(x));
+            } else {
+                tokens.add("variable " + x);
+            }
+        }
+        return tokens;
+    }
+
+    private static List<String> tokens(Tokenizer tokenizer) {
+        List<String> tokens = new ArrayList<>();
+        for (int type = tokenizer.next(); type != Tokenizer.END; type = tokenizer.next()) {
+            if (type == Tokenizer.OPERATOR) {
+                tokens.add("operator " + tokenizer.operator());
+            } else if (type == Tokenizer.CONSTANT) {
+                BigInteger value = tokenizer.bigValue();
+                if (tokenizer.isLong()) {
+                    assertEquals(value.longValue(), tokenizer.longValue());
+                }
+                tokens.add("constant " + value);
+            } else {
+                tokens.add("variable " + tokenizer.text());
+            }
+        }
+        return tokens;
+    }
+
+    private static List<String> regexProgram(String source) {
+        List<String> program = new ArrayList<>();
+        for (String token : regexTokens(source)) {
+            if (!token.equals("operator ,") && !token.equals("operator .")) {
+                program.add(token);
+            }
+        }
+        return program;
+    }
+
+    private static List<String> program(CompiledExpression compiled) {
+        List<String> program = new ArrayList<>();
+        for (int pc = 0; pc < compiled.length(); pc++) {
+            int opcode = compiled.opcode(pc);
+            if (opcode == CompiledExpression.PUSH_CONSTANT) {
+                program.add("constant " + compiled.constant(compiled.operand(pc)));
+            } else if (opcode == CompiledExpression.PUSH_VARIABLE) {
+                program.add("variable " + compiled.variable(compiled.operand(pc)));
+            } else {
+                program.add("operator " + OPERATORS.charAt(opcode - CompiledExpression.ADD));
+            }
+        }
+        return program;
+    }
+
+    private static boolean isInteger(String str) {
+        try {
+            new BigInteger(str);
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+        return true;
+    }
+}
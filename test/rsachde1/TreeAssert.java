@@ -0,0 +1,91 @@
+package rsachde1;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Assertions and helpers shared by the tree and evaluator tests.
+ */
+final class TreeAssert {
+
+    private TreeAssert() {
+    }
+
+    /**
+     * Asserts that tree holds exactly the entries of expected, in order
+     * PreCondition: expected iterates in key order (e.g. a TreeMap)
+     * PostCondition: fails unless keys, values and size all match
+     * Complexity: O(n)
+     * @param expected the reference entries
+     * @param tree the map under test
+     */
+    static void assertSameEntries(Map<String, BigInteger> expected, OrderedMap tree) {
+        final List<String> keys = new ArrayList<>();
+        final List<BigInteger> values = new ArrayList<>();
+        tree.inOrderTraversal(new Consumer<KeyValuePair>() {
+            @Override
+            public void accept(KeyValuePair pair) {
+                keys.add(pair.getKey());
+                values.add(pair.getValue());
+            }
+        });
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+        assertEquals(new ArrayList<>(expected.values()), values);
+        assertEquals(expected.size(), tree.getSize());
+    }
+
+    /**
+     * Copies the entries of a map into a TreeMap
+     * PreCondition: none
+     * PostCondition: tree is unchanged
+     * Complexity: O(n log(n))
+     * @param tree the map to copy
+     * @return its entries
+     */
+    static TreeMap<String, BigInteger> entries(OrderedMap tree) {
+        final TreeMap<String, BigInteger> entries = new TreeMap<>();
+        tree.inOrderTraversal(new Consumer<KeyValuePair>() {
+            @Override
+            public void accept(KeyValuePair pair) {
+                entries.put(pair.getKey(), pair.getValue());
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Drains an entry iterator into its list of keys
+     * PreCondition: none
+     * PostCondition: the iterator is exhausted
+     * Complexity: O(n)
+     * @param range the entries
+     * @return their keys, in iteration order
+     */
+    static List<String> keys(Iterator<KeyValuePair> range) {
+        List<String> keys = new ArrayList<>();
+        while (range.hasNext()) {
+            keys.add(range.next().getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the number of bits needed to write n
+     * PreCondition: n >= 0
+     * PostCondition: none
+     * Complexity: O(1)
+     * @param n the value
+     * @return ceil(log2(n + 1))
+     */
+    static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n);
+    }
+}
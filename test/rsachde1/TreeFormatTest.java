@@ -0,0 +1,102 @@
+package rsachde1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.fail;
+import static rsachde1.TreeAssert.assertSameEntries;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks that a TreeWriter dump reads back as the same entries through
+ * TreeReader, and that a dump with a flipped bit or a missing tail is
+ * rejected with an IOException instead of yielding entries.
+ */
+public class TreeFormatTest {
+
+    @Test
+    public void roundTrips() throws IOException {
+        Random random = new Random(8);
+        for (int size : new int[] {0, 1, 2, 100, 30000}) {
+            TreeMap<String, BigInteger> entries = entries(random, size);
+            assertSameEntries(entries, load(dump(entries)));
+        }
+    }
+
+    @Test
+    public void detectsFlippedBits() throws IOException {
+        Random random = new Random(9);
+        for (int trial = 0; trial < 40; trial++) {
+            byte[] dump = dump(entries(random, trial < 20 ? 50 : 20000));
+            for (int k = 0; k < 10; k++) {
+                byte[] damaged = dump.clone();
+                int position = random.nextInt(damaged.length);
+                damaged[position] ^= 1 << random.nextInt(8);
+                try {
+                    load(damaged);
+                    fail("a flipped bit at byte " + position + " of " + damaged.length + " was not detected");
+                } catch (IOException expected) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void detectsTruncation() throws IOException {
+        Random random = new Random(10);
+        byte[] dump = dump(entries(random, 20000));
+        for (int k = 0; k < 100; k++) {
+            int length = random.nextInt(dump.length);
+            try {
+                load(Arrays.copyOf(dump, length));
+                fail("a dump cut to " + length + " of " + dump.length + " bytes was accepted");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    /**
+     * Returns size entries with keys of shared prefixes, multi-byte and NUL
+     * chars, and values from small longs to thousands of bits.
+     */
+    private static TreeMap<String, BigInteger> entries(Random random, int size) {
+        TreeMap<String, BigInteger> entries = new TreeMap<>();
+        while (entries.size() < size) {
+            StringBuilder key = new StringBuilder("key");
+            int length = random.nextInt(random.nextInt(10) == 0 ? 200 : 8);
+            for (int i = 0; i < length; i++) {
+                int kind = random.nextInt(10);
+                key.append(kind < 7 ? (char) ('a' + random.nextInt(4)) : kind < 8 ? '\0'
+                        : kind < 9 ? (char) (0x80 + random.nextInt(0x780)) : (char) (0x800 + random.nextInt(0xF000)));
+            }
+            int kind = random.nextInt(4);
+            BigInteger value = kind == 0 ? BigInteger.valueOf(random.nextInt(100) - 50)
+                    : kind == 1 ? BigInteger.valueOf(random.nextLong())
+                    : new BigInteger(random.nextInt(random.nextInt(50) == 0 ? 20000 : 200), random).negate();
+            entries.put(key.toString(), value);
+        }
+        return entries;
+    }
+
+    private static byte[] dump(Map<String, BigInteger> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TreeWriter writer = new TreeWriter(Channels.newChannel(out), entries.size())) {
+            for (Map.Entry<String, BigInteger> e : entries.entrySet()) {
+                writer.write(e.getKey(), e.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static RedBlackTree load(byte[] dump) throws IOException {
+        return TreeReader.readTree(Channels.newChannel(new ByteArrayInputStream(dump)));
+    }
+}
@@ -0,0 +1,133 @@
+package rsachde1;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks that VariableCache never serves a value older than the last
+ * assignment: after assignments through the evaluator, in batches, and when
+ * an assignment races with the lookup that misses the cache.
+ */
+public class VariableCacheTest {
+
+    @Test
+    public void assignmentReplacesCachedValue() {
+        ReversePolishNotation rpn = new ReversePolishNotation();
+        VariableCache cache = rpn.enableLookupCache(4);
+        rpn.evaluate("x 1 =");
+        assertEquals(BigInteger.valueOf(2), rpn.evaluate("x x +"));
+        assertTrue(cache.getHits() > 0);
+        rpn.evaluate("x 5 =");
+        assertEquals(BigInteger.valueOf(10), rpn.evaluate("x x +"));
+        rpn.evaluate("x x 1 + =");
+        assertEquals(BigInteger.valueOf(6), rpn.evaluate("x"));
+    }
+
+    @Test
+    public void matchesEvaluatorWithoutCache() {
+        Random random = new Random(18);
+        ReversePolishNotation cached = new ReversePolishNotation();
+        VariableCache cache = cached.enableLookupCache(8);
+        ReversePolishNotation plain = new ReversePolishNotation();
+        for (int i = 0; i < 50000; i++) {
+            String source = expression(random);
+            assertEquals(source, run(plain, source), run(cached, source));
+        }
+        assertTrue(cache.getSize() <= cache.getCapacity());
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getInvalidations() > 0);
+    }
+
+    @Test
+    public void batchesSeeTheirOwnAssignments() throws IOException {
+        Random random = new Random(19);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            lines.add(expression(random));
+        }
+        ReversePolishNotation plain = new ReversePolishNotation();
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            expected.append(run(plain, line)).append(System.lineSeparator());
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (OrderedMap tree : new OrderedMap[]{new RedBlackTree(), new ConcurrentRedBlackTree()}) {
+                ReversePolishNotation cached = new ReversePolishNotation(tree);
+                cached.enableLookupCache(8);
+                cached.setBatchPool(pool);
+                StringWriter out = new StringWriter();
+                cached.evaluateAll(lines.iterator(), out);
+                assertEquals(expected.toString(), out.toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void racingAssignmentIsNotOverwritten() {
+        final VariableCache cache = new VariableCache(4);
+        final RedBlackTree tree = new RedBlackTree() {
+            @Override
+            public BigInteger lookup(String key) {
+                BigInteger old = super.lookup(key);
+                //another thread assigns the variable while this read is in flight
+                insert(new KeyValuePair(key, old.add(BigInteger.ONE)));
+                cache.invalidate(key);
+                return old;
+            }
+        };
+        tree.insert(new KeyValuePair("x", BigInteger.ONE));
+        assertEquals(BigInteger.ONE, cache.lookup("x", tree));
+        assertEquals(0, cache.getSize());
+        assertEquals(BigInteger.valueOf(2), cache.lookup("x", tree));
+    }
+
+    @Test
+    public void clearDropsValuesChangedBehindTheCache() {
+        RedBlackTree tree = new RedBlackTree();
+        ReversePolishNotation rpn = new ReversePolishNotation(tree);
+        VariableCache cache = rpn.enableLookupCache(16);
+        rpn.evaluate("x 1 =");
+        rpn.evaluate("x");
+        tree.insert(new KeyValuePair("x", BigInteger.TEN));
+        cache.clear();
+        assertEquals(BigInteger.TEN, rpn.evaluate("x"));
+    }
+
+    /**
+     * Evaluates one line on an empty stack, as evaluateAll() does.
+     */
+    private static String run(ReversePolishNotation rpn, String source) {
+        return rpn.evaluateLine(rpn.compile(source), new OperandStack());
+    }
+
+    /**
+     * Returns a random expression over 20 variables, more than the caches
+     * hold: an assignment from other variables, or a read.
+     */
+    private static String expression(Random random) {
+        String x = "v" + random.nextInt(20);
+        String y = "v" + random.nextInt(20);
+        String z = "v" + random.nextInt(20);
+        switch (random.nextInt(4)) {
+            case 0:
+                return x + " " + y + " " + z + " + =";
+            case 1:
+                return x + " " + random.nextInt(100) + " =";
+            default:
+                return y + " " + z + " *";
+        }
+    }
+}
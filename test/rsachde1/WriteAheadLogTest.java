@@ -0,0 +1,119 @@
+package rsachde1;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static rsachde1.TreeAssert.assertSameEntries;
+
+/**
+ *
+ * @author Raj.Sachdev
+ * Checks that WriteAheadLog recovers every assignment across checkpoints
+ * and restarts, and that a log whose tail was torn or damaged recovers
+ * exactly the records before the damage and keeps accepting appends.
+ */
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversAcrossCheckpointsAndRestarts() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        Random random = new Random(6);
+        TreeMap<String, BigInteger> expected = new TreeMap<>();
+        for (int restart = 0; restart < 4; restart++) {
+            try (WriteAheadLog log = new WriteAheadLog(directory, restart % 2 == 0)) {
+                assertSameEntries(expected, log.getRecoveredTree());
+                log.setCheckpointInterval(1000);
+                ReversePolishNotation evaluator = new ReversePolishNotation(log);
+                for (int i = 0; i < 3000; i++) {
+                    String key = "v" + random.nextInt(500);
+                    BigInteger value = BigInteger.valueOf(random.nextInt());
+                    evaluator.evaluate(key + " " + value + " =");
+                    expected.put(key, value);
+                }
+            }
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, false)) {
+            assertSameEntries(expected, log.getRecoveredTree());
+        }
+    }
+
+    @Test
+    public void tornTailRecoversThePrefix() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("wal");
+        Random random = new Random(7);
+        List<TreeMap<String, BigInteger>> states = new ArrayList<>();     //states.get(lsn) is the map after record lsn
+        TreeMap<String, BigInteger> state = new TreeMap<>();
+        states.add(new TreeMap<>(state));
+        try (WriteAheadLog log = new WriteAheadLog(directory, false)) {
+            for (int i = 0; i < 500; i++) {
+                String key = "k" + random.nextInt(100);
+                BigInteger value = BigInteger.valueOf(random.nextLong());
+                log.append(key, value);
+                state.put(key, value);
+                states.add(new TreeMap<>(state));
+            }
+        }
+        Path segment = lastSegment(directory);
+        byte[] complete = Files.readAllBytes(segment);
+        for (int trial = 0; trial < 50; trial++) {
+            byte[] damaged = Arrays.copyOf(complete, random.nextInt(complete.length + 1));
+            if (trial % 2 == 1 && damaged.length > 0) {
+                damaged[random.nextInt(damaged.length)] ^= 1 << random.nextInt(8);
+            }
+            Files.write(segment, damaged);
+            long lsn;
+            try (WriteAheadLog log = new WriteAheadLog(directory, false)) {
+                lsn = log.getLastLsn();
+                assertTrue(lsn <= 500);
+                assertSameEntries(states.get((int) lsn), log.getRecoveredTree());
+                log.append("after", BigInteger.TEN);
+            }
+            try (WriteAheadLog log = new WriteAheadLog(directory, false)) {
+                assertEquals(lsn + 1, log.getLastLsn());
+                assertEquals(BigInteger.TEN, log.getRecoveredTree().lookup("after"));
+            }
+            Files.write(segment, complete);
+            for (Path file : list(directory)) {
+                if (!file.equals(segment)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static Path lastSegment(Path directory) throws IOException {
+        Path last = null;
+        for (Path file : list(directory)) {
+            if (file.getFileName().toString().startsWith("wal-") && Files.size(file) > 0) {
+                last = file;
+            }
+        }
+        return last;
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+}